@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.FakeGitea;
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+
+import hudson.model.TaskListener;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadObserver;
+import jenkins.scm.api.SCMRevision;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Branch discovery of a repository with many branches against a {@link FakeGitea}: through the branches endpoint of
+ * the API, or through git ref discovery ({@link GiteaSCMSource#setGitRefDiscovery(boolean)}).
+ *
+ * The stand-in serves prepared listings, so this measures the transfer and the decoding on the Jenkins side; the cost
+ * of loading the head commits on the Gitea side can be approximated with {@code latencyMillis}. No criteria is set,
+ * so branches are not probed.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class BranchDiscoveryBenchmark {
+
+    @Param({"1000", "60000"})
+    public int branches;
+
+    /**
+     * {@code api} or {@code git}.
+     */
+    @Param({"api", "git"})
+    public String discovery;
+
+    /**
+     * Delay of every response.
+     */
+    @Param({"0"})
+    public long latencyMillis;
+
+    private FakeGitea gitea;
+
+    private GiteaSCMSource source;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        gitea = new FakeGitea(1, 1, branches).latency(latencyMillis).start();
+        source = new GiteaSCMSource(null, gitea.getOrganization(0), Fixtures.repositoryName(0));
+        source.setGiteaServerUrl(gitea.getUrl());
+        source.setGitRefDiscovery("git".equals(discovery));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.format("%nRequests by endpoint:%n");
+        for (Map.Entry<String, Long> endpoint : gitea.getRequestsByEndpoint().entrySet()) {
+            System.out.format("  %-45s %d%n", endpoint.getKey(), endpoint.getValue());
+        }
+        gitea.close();
+    }
+
+    @Benchmark
+    public Map<SCMHead, SCMRevision> discover() throws Exception {
+        SCMHeadObserver.Collector collector = SCMHeadObserver.collect();
+        source.fetch(null, collector, TaskListener.NULL);
+        if (collector.result().size() != branches) {
+            throw new IllegalStateException("Discovered " + collector.result().size() + " of " + branches + " branches");
+        }
+        return collector.result();
+    }
+
+}
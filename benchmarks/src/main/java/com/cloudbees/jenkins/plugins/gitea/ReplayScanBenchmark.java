@@ -0,0 +1,180 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaTrafficArchive;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.TaskListener;
+import jenkins.scm.api.SCMHeadObserver;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceCriteria;
+import jenkins.scm.api.SCMSourceObserver;
+import jenkins.scm.api.SCMSourceOwner;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Organization scan replayed from a {@link GiteaTrafficArchive} recorded against a real server, so that plugin changes
+ * can be measured on the shape of real organizations without the network.
+ *
+ * The archive is recorded by running Jenkins with
+ * {@code -Dcom.cloudbees.jenkins.plugins.gitea.server.client.GiteaTrafficArchive.record=<file>} during a scan of the
+ * organization folder, and passed to the benchmark with {@code -p archive=<file> -p serverUrl=<url> -p owner=<owner>}.
+ * Changes that send other requests than the recorded ones get 404s, which shows as fewer heads.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ReplayScanBenchmark {
+
+    /**
+     * The recorded archive.
+     */
+    @Param({""})
+    public String archive;
+
+    /**
+     * The URL of the Gitea server the archive was recorded against, as configured in the organization folder.
+     */
+    @Param({""})
+    public String serverUrl;
+
+    /**
+     * The organization or user scanned.
+     */
+    @Param({""})
+    public String owner;
+
+    /**
+     * Whether to wait for the recorded response times.
+     */
+    @Param({"false"})
+    public boolean timing;
+
+    private static final SCMSourceCriteria JENKINSFILE = new SCMSourceCriteria() {
+        @Override
+        public boolean isHead(@NonNull Probe probe, @NonNull TaskListener listener) throws IOException {
+            return probe.exists("Jenkinsfile");
+        }
+    };
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (archive.isEmpty() || serverUrl.isEmpty() || owner.isEmpty()) {
+            throw new IllegalArgumentException("Specify -p archive=<file> -p serverUrl=<url> -p owner=<owner>");
+        }
+        // read when the first connection to the server is opened, by the first scan
+        System.setProperty(GiteaTrafficArchive.class.getName() + ".replay", archive);
+        System.setProperty(GiteaTrafficArchive.class.getName() + ".replayTiming", String.valueOf(timing));
+    }
+
+    @Setup(Level.Invocation)
+    public void rewind() {
+        GiteaTrafficArchive.rewind();
+    }
+
+    /**
+     * Lists the repositories of the owner and indexes every one of them.
+     */
+    @Benchmark
+    public int organizationScan() throws Exception {
+        GiteaSCMNavigator navigator = new GiteaSCMNavigator(owner, null, null);
+        navigator.setGiteaServerUrl(serverUrl);
+        CollectingObserver observer = new CollectingObserver();
+        navigator.visitSources(observer);
+        int heads = 0;
+        for (SCMSource source : observer.sources) {
+            SCMHeadObserver.Collector collector = SCMHeadObserver.collect();
+            source.fetch(JENKINSFILE, collector, TaskListener.NULL);
+            heads += collector.result().size();
+        }
+        return heads;
+    }
+
+    /**
+     * Collects the proposed sources, as an organization folder would create projects for them.
+     */
+    private static class CollectingObserver extends SCMSourceObserver {
+
+        private final List<SCMSource> sources = new ArrayList<>();
+
+        @NonNull
+        @Override
+        public SCMSourceOwner getContext() {
+            // only used to look up credentials, the replayed archive does not need any
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public TaskListener getListener() {
+            return TaskListener.NULL;
+        }
+
+        @NonNull
+        @Override
+        public ProjectObserver observe(@NonNull String projectName) {
+            return new ProjectObserver() {
+                @Override
+                public void addSource(@NonNull SCMSource source) {
+                    sources.add(source);
+                }
+
+                @Override
+                public void addAttribute(@NonNull String key, Object value) {
+                }
+
+                @Override
+                public void complete() {
+                }
+            };
+        }
+
+        @Override
+        public void addAttribute(@NonNull String key, Object value) {
+        }
+
+    }
+
+}
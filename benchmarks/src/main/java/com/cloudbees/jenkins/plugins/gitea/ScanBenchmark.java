@@ -0,0 +1,263 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.FakeGitea;
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.model.TaskListener;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadObserver;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceCriteria;
+import jenkins.scm.api.SCMSourceObserver;
+import jenkins.scm.api.SCMSourceOwner;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End-to-end scans against a {@link FakeGitea}: listing the repositories of an organization as an organization folder
+ * does, indexing the branches of a repository as a multibranch project does, and both together.
+ *
+ * Besides the scan time, the number of API requests issued per scan is reported as the {@code requests} counter, and
+ * by endpoint on teardown.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ScanBenchmark {
+
+    @Param({"10", "100"})
+    public int repositories;
+
+    @Param({"10", "100"})
+    public int branches;
+
+    /**
+     * Delay of every response, 0 for a local server, a few tens of milliseconds for a remote one.
+     */
+    @Param({"0", "20"})
+    public long latencyMillis;
+
+    /**
+     * Fraction of the requests failing with a 503.
+     */
+    @Param({"0"})
+    public double errorRate;
+
+    private FakeGitea gitea;
+
+    private long scans;
+
+    private static final SCMSourceCriteria JENKINSFILE = new SCMSourceCriteria() {
+        @Override
+        public boolean isHead(@NonNull Probe probe, @NonNull TaskListener listener) throws IOException {
+            return probe.exists("Jenkinsfile");
+        }
+    };
+
+    /**
+     * Requests and failed scans of the iteration, reported by JMH next to the scan time.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Counters {
+
+        public long requests;
+
+        public long failures;
+
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        gitea = new FakeGitea(1, repositories, branches).latency(latencyMillis).errorRate(errorRate).start();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (scans > 0) {
+            System.out.format("%n%d requests per scan:%n", gitea.getRequests() / scans);
+            for (Map.Entry<String, Long> endpoint : gitea.getRequestsByEndpoint().entrySet()) {
+                System.out.format("  %-45s %d%n", endpoint.getKey(), endpoint.getValue() / scans);
+            }
+        }
+        gitea.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void resetCounters() {
+        gitea.resetCounters();
+        scans = 0;
+    }
+
+    /**
+     * Lists the repositories of the organization.
+     */
+    @Benchmark
+    public List<SCMSource> navigatorScan(Counters counters) throws Exception {
+        long before = gitea.getRequests();
+        try {
+            return visitSources();
+        } catch (GiteaRequestException e) {
+            counters.failures++;
+            return null;
+        } finally {
+            done(counters, before);
+        }
+    }
+
+    /**
+     * Indexes the branches of a repository, probing each of them for a Jenkinsfile.
+     */
+    @Benchmark
+    public Map<SCMHead, SCMRevision> sourceScan(Counters counters) throws Exception {
+        long before = gitea.getRequests();
+        try {
+            return retrieve(source(Fixtures.repositoryName(0)));
+        } catch (GiteaRequestException e) {
+            counters.failures++;
+            return null;
+        } finally {
+            done(counters, before);
+        }
+    }
+
+    /**
+     * Lists the repositories of the organization and indexes every one of them, as the first scan of an
+     * organization folder does.
+     */
+    @Benchmark
+    public int organizationScan(Counters counters) throws Exception {
+        long before = gitea.getRequests();
+        try {
+            int heads = 0;
+            for (SCMSource source : visitSources()) {
+                heads += retrieve((GiteaSCMSource) source).size();
+            }
+            return heads;
+        } catch (GiteaRequestException e) {
+            counters.failures++;
+            return -1;
+        } finally {
+            done(counters, before);
+        }
+    }
+
+    private void done(Counters counters, long before) {
+        counters.requests += gitea.getRequests() - before;
+        scans++;
+    }
+
+    private List<SCMSource> visitSources() throws IOException, InterruptedException {
+        GiteaSCMNavigator navigator = new GiteaSCMNavigator(gitea.getOrganization(0), null, null);
+        navigator.setGiteaServerUrl(gitea.getUrl());
+        CollectingObserver observer = new CollectingObserver();
+        navigator.visitSources(observer);
+        return observer.sources;
+    }
+
+    private GiteaSCMSource source(String repository) {
+        GiteaSCMSource source = new GiteaSCMSource(null, gitea.getOrganization(0), repository);
+        source.setGiteaServerUrl(gitea.getUrl());
+        return source;
+    }
+
+    private static Map<SCMHead, SCMRevision> retrieve(GiteaSCMSource source) throws IOException, InterruptedException {
+        SCMHeadObserver.Collector collector = SCMHeadObserver.collect();
+        source.fetch(JENKINSFILE, collector, TaskListener.NULL);
+        return collector.result();
+    }
+
+    /**
+     * Collects the proposed sources, as an organization folder would create projects for them.
+     */
+    private static class CollectingObserver extends SCMSourceObserver {
+
+        private final List<SCMSource> sources = new ArrayList<>();
+
+        @NonNull
+        @Override
+        public SCMSourceOwner getContext() {
+            // only used to look up credentials, and the benchmarks scan anonymously
+            return null;
+        }
+
+        @NonNull
+        @Override
+        public TaskListener getListener() {
+            return TaskListener.NULL;
+        }
+
+        @NonNull
+        @Override
+        public ProjectObserver observe(@NonNull String projectName) {
+            return new ProjectObserver() {
+                @Override
+                public void addSource(@NonNull SCMSource source) {
+                    sources.add(source);
+                }
+
+                @Override
+                public void addAttribute(@NonNull String key, Object value) {
+                }
+
+                @Override
+                public void complete() {
+                }
+            };
+        }
+
+        @Override
+        public void addAttribute(@NonNull String key, Object value) {
+        }
+
+    }
+
+}
@@ -0,0 +1,497 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process stand-in for a Gitea server, serving the API endpoints the plugin uses for synthetic organizations, and
+ * the git ref discovery of their repositories in protocol versions 0 and 2.
+ *
+ * Organizations are named {@code org-000}, {@code org-001}..., each with the same number of repositories named as by
+ * {@link Fixtures#repositoryName(int)}, each with the same number of branches named as by
+ * {@link Fixtures#branch(org.codehaus.jackson.node.ObjectNode, int)}. Every branch has a {@code Jenkinsfile}.
+ * Responses can be delayed and failed at random, and requests are counted by endpoint.
+ */
+public class FakeGitea implements Closeable {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String API = "/api/v1/";
+
+    private static final String INFO_REFS = ".git/info/refs";
+
+    private static final String UPLOAD_PACK = ".git/git-upload-pack";
+
+    private final int organizations;
+
+    private final int repositories;
+
+    private final int branches;
+
+    private long latencyMillis;
+
+    private double errorRate;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    private final AtomicLong requests = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final ConcurrentMap<String, AtomicLong> requestsByEndpoint = new ConcurrentHashMap<>();
+
+    /**
+     * Listings by owner, and the branch listing shared by all the repositories.
+     */
+    private final ConcurrentMap<String, byte[]> listings = new ConcurrentHashMap<>();
+
+    private final String repositoryTemplate;
+
+    private final String branchTemplate;
+
+    public FakeGitea(int organizations, int repositories, int branches) throws IOException {
+        this.organizations = organizations;
+        this.repositories = repositories;
+        this.branches = branches;
+        this.repositoryTemplate = Fixtures.load("repository.json");
+        this.branchTemplate = Fixtures.load("branch.json");
+    }
+
+    /**
+     * @param latencyMillis delay added to every response
+     */
+    public FakeGitea latency(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+        return this;
+    }
+
+    /**
+     * @param errorRate fraction of the requests answered with a 503
+     */
+    public FakeGitea errorRate(double errorRate) {
+        this.errorRate = errorRate;
+        return this;
+    }
+
+    public FakeGitea start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        executor = Executors.newFixedThreadPool(32);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+        return this;
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the server URL, as configured in sources and navigators
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public String getOrganization(int index) {
+        return String.format(Locale.ENGLISH, "org-%03d", index);
+    }
+
+    public long getRequests() {
+        return requests.get();
+    }
+
+    public long getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the number of requests by endpoint, e.g. "GET /repos/:owner/:repo/branches"
+     */
+    public Map<String, Long> getRequestsByEndpoint() {
+        Map<String, Long> result = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> endpoint : requestsByEndpoint.entrySet()) {
+            result.put(endpoint.getKey(), endpoint.getValue().get());
+        }
+        return result;
+    }
+
+    public void resetCounters() {
+        requests.set(0);
+        errors.set(0);
+        requestsByEndpoint.clear();
+    }
+
+    private void serve(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        String uri = exchange.getRequestURI().getPath();
+        InputStream in = exchange.getRequestBody();
+        byte[] body;
+        try {
+            body = IOUtils.toByteArray(in);
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        requests.incrementAndGet();
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+            errors.incrementAndGet();
+            count(method + " (injected error)");
+            send(exchange, 503, null);
+            return;
+        }
+        if (!uri.startsWith(API)) {
+            git(exchange, method, uri, body);
+            return;
+        }
+        String[] path = uri.substring(API.length()).split("/");
+        if ("GET".equals(method)) {
+            get(exchange, path);
+        } else if ("POST".equals(method)) {
+            post(exchange, path);
+        } else if ("DELETE".equals(method)) {
+            count("DELETE hooks/:id");
+            send(exchange, 204, null);
+        } else {
+            send(exchange, 405, null);
+        }
+    }
+
+    private void get(HttpExchange exchange, String[] path) throws IOException {
+        if (path.length == 1 && "user".equals(path[0])) {
+            count("GET /user");
+            send(exchange, 200, user("jenkins"));
+        } else if (path.length == 2 && "users".equals(path[0])) {
+            count("GET /users/:user");
+            send(exchange, 200, user(path[1]));
+        } else if (path.length == 3 && "users".equals(path[0]) && "repos".equals(path[2])) {
+            count("GET /users/:user/repos");
+            send(exchange, 200, isOrganization(path[1]) ? repositories(path[1]) : bytes("[]"));
+        } else if (path.length == 2 && "orgs".equals(path[0])) {
+            count("GET /orgs/:org");
+            send(exchange, isOrganization(path[1]) ? 200 : 404, isOrganization(path[1]) ? organization(path[1]) : null);
+        } else if (path.length == 3 && "orgs".equals(path[0]) && "repos".equals(path[2])) {
+            count("GET /orgs/:org/repos");
+            send(exchange, isOrganization(path[1]) ? 200 : 404, isOrganization(path[1]) ? repositories(path[1]) : null);
+        } else if (path.length == 3 && "orgs".equals(path[0]) && "hooks".equals(path[2])) {
+            count("GET /orgs/:org/hooks");
+            send(exchange, 200, bytes("[]"));
+        } else if (path.length >= 3 && "repos".equals(path[0])) {
+            getRepository(exchange, path);
+        } else {
+            count("GET (unknown)");
+            send(exchange, 404, null);
+        }
+    }
+
+    private void getRepository(HttpExchange exchange, String[] path) throws IOException {
+        int repository = repositoryIndex(path[1], path[2]);
+        if (path.length == 3) {
+            count("GET /repos/:owner/:repo");
+            send(exchange, repository < 0 ? 404 : 200, repository < 0 ? null : bytes(Fixtures.repository(
+                    Fixtures.objectNode(repositoryTemplate), path[1], path[2], repository).toString()));
+        } else if (path.length == 4 && "branches".equals(path[3])) {
+            count("GET /repos/:owner/:repo/branches");
+            send(exchange, repository < 0 ? 404 : 200, repository < 0 ? null : branches());
+        } else if (path.length > 4 && "branches".equals(path[3])) {
+            count("GET /repos/:owner/:repo/branches/:branch");
+            int branch = branchIndex(StringUtils.join(Arrays.copyOfRange(path, 4, path.length), '/'));
+            send(exchange, repository < 0 || branch < 0 ? 404 : 200, repository < 0 || branch < 0 ? null
+                    : bytes(Fixtures.branch(Fixtures.objectNode(branchTemplate), branch).toString()));
+        } else if (path.length > 4 && "raw".equals(path[3])) {
+            count("GET /repos/:owner/:repo/raw/:ref/:path");
+            boolean exists = repository >= 0 && "Jenkinsfile".equals(path[path.length - 1]);
+            send(exchange, exists ? 200 : 404, exists ? bytes("pipeline { agent any; stages { stage('Build') { steps { echo 'ok' } } } }\n") : null);
+        } else if (path.length == 4 && "hooks".equals(path[3])) {
+            count("GET /repos/:owner/:repo/hooks");
+            send(exchange, 200, bytes("[]"));
+        } else {
+            count("GET /repos/(unknown)");
+            send(exchange, 404, null);
+        }
+    }
+
+    private void post(HttpExchange exchange, String[] path) throws IOException {
+        String last = path[path.length - 1];
+        if ("hooks".equals(last)) {
+            count("POST hooks");
+            send(exchange, 201, bytes("{\"id\":1,\"type\":\"gitea\",\"active\":true,\"events\":[\"push\",\"create\",\"pull_request\"],"
+                    + "\"config\":{\"url\":\"http://jenkins.example.com/gitea-webhook/post\",\"content_type\":\"json\"}}"));
+        } else if ("tests".equals(last)) {
+            count("POST hooks/:id/tests");
+            send(exchange, 204, null);
+        } else if (path.length == 5 && "statuses".equals(path[3])) {
+            count("POST /repos/:owner/:repo/statuses/:sha");
+            send(exchange, 201, bytes("{}"));
+        } else if ("issues".equals(last)) {
+            count("POST /repos/:owner/:repo/issues");
+            send(exchange, 201, bytes("{}"));
+        } else {
+            count("POST (unknown)");
+            send(exchange, 404, null);
+        }
+    }
+
+    /**
+     * Serves the ref discovery of a repository, like {@code git http-backend} does.
+     */
+    private void git(HttpExchange exchange, String method, String uri, byte[] body) throws IOException {
+        String[] path = uri.substring(1).split("/");
+        boolean exists = path.length == 4 && path[1].endsWith(".git")
+                && repositoryIndex(path[0], path[1].substring(0, path[1].length() - 4)) >= 0;
+        String protocol = exchange.getRequestHeaders().getFirst("Git-Protocol");
+        boolean version2 = protocol != null && protocol.contains("version=2");
+        if ("GET".equals(method) && uri.endsWith(INFO_REFS)) {
+            count("GET /:owner/:repo.git/info/refs");
+            send(exchange, exists ? 200 : 404, exists ? advertisement(version2) : null,
+                    "application/x-git-upload-pack-advertisement");
+        } else if ("POST".equals(method) && uri.endsWith(UPLOAD_PACK)) {
+            count("POST /:owner/:repo.git/git-upload-pack");
+            boolean lsRefs = version2 && new String(body, UTF_8).contains("command=ls-refs");
+            send(exchange, !exists ? 404 : lsRefs ? 200 : 400, exists && lsRefs ? lsRefs() : null,
+                    "application/x-git-upload-pack-result");
+        } else {
+            count(method + " (unknown)");
+            send(exchange, 404, null);
+        }
+    }
+
+    private boolean isOrganization(String owner) {
+        if (!owner.startsWith("org-")) {
+            return false;
+        }
+        try {
+            int index = Integer.parseInt(owner.substring(4));
+            return index >= 0 && index < organizations;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the index of the repository, or -1 if it does not exist
+     */
+    private int repositoryIndex(String owner, String name) {
+        if (!isOrganization(owner) || !name.startsWith("widgets-")) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(name.substring(8));
+            return index < repositories ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the index of the branch, or -1 if it does not exist
+     */
+    private int branchIndex(String name) {
+        if ("master".equals(name)) {
+            return 0;
+        }
+        if (!name.startsWith("feature/branch-")) {
+            return -1;
+        }
+        try {
+            int index = Integer.parseInt(name.substring(15));
+            return index > 0 && index < branches ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private byte[] repositories(String owner) throws IOException {
+        byte[] listing = listings.get(owner);
+        if (listing == null) {
+            listing = bytes(Fixtures.repositories(owner, repositories));
+            listings.putIfAbsent(owner, listing);
+        }
+        return listing;
+    }
+
+    private byte[] branches() throws IOException {
+        byte[] listing = listings.get("");
+        if (listing == null) {
+            listing = bytes(Fixtures.branches(branches));
+            listings.putIfAbsent("", listing);
+        }
+        return listing;
+    }
+
+    /**
+     * @return the version 2 capabilities, or the version 0 advertisement of all the branches
+     */
+    private byte[] advertisement(boolean version2) {
+        String key = version2 ? "info/refs v2" : "info/refs v0";
+        byte[] advertisement = listings.get(key);
+        if (advertisement == null) {
+            StringBuilder out = new StringBuilder();
+            packet(out, "# service=git-upload-pack\n");
+            out.append("0000");
+            if (version2) {
+                packet(out, "version 2\n");
+                packet(out, "agent=git/2.39.5\n");
+                packet(out, "ls-refs=unborn\n");
+                packet(out, "fetch=shallow wait-for-done\n");
+                packet(out, "object-format=sha1\n");
+            } else {
+                packet(out, Fixtures.sha(0) + " HEAD\0multi_ack thin-pack side-band side-band-64k ofs-delta shallow "
+                        + "no-progress include-tag symref=HEAD:refs/heads/master object-format=sha1 agent=git/2.39.5\n");
+                refs(out);
+            }
+            out.append("0000");
+            advertisement = bytes(out.toString());
+            listings.putIfAbsent(key, advertisement);
+        }
+        return advertisement;
+    }
+
+    private byte[] lsRefs() {
+        byte[] refs = listings.get("ls-refs");
+        if (refs == null) {
+            StringBuilder out = new StringBuilder();
+            refs(out);
+            out.append("0000");
+            refs = bytes(out.toString());
+            listings.putIfAbsent("ls-refs", refs);
+        }
+        return refs;
+    }
+
+    private void refs(StringBuilder out) {
+        for (int i = 0; i < branches; i++) {
+            packet(out, Fixtures.sha(i) + " refs/heads/" + Fixtures.branchName(i) + "\n");
+        }
+    }
+
+    private static void packet(StringBuilder out, String payload) {
+        out.append(String.format(Locale.ENGLISH, "%04x", bytes(payload).length + 4)).append(payload);
+    }
+
+    private byte[] organization(String name) {
+        return bytes("{\"id\":" + (1000 + Integer.parseInt(name.substring(4))) + ",\"username\":\"" + name
+                + "\",\"full_name\":\"Organization " + name + "\",\"avatar_url\":\"https://gitea.example.com/avatars/"
+                + name + "\",\"description\":\"\",\"website\":\"\",\"location\":\"\"}");
+    }
+
+    private static byte[] user(String name) {
+        return bytes("{\"id\":7,\"login\":\"" + name + "\",\"full_name\":\"" + name + "\",\"email\":\"" + name
+                + "@example.com\",\"avatar_url\":\"https://gitea.example.com/avatars/" + name + "\",\"username\":\""
+                + name + "\"}");
+    }
+
+    private void count(String endpoint) {
+        AtomicLong count = requestsByEndpoint.get(endpoint);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = requestsByEndpoint.putIfAbsent(endpoint, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Sends a response, answering 304 to GET requests already holding the entity tag of the body.
+     */
+    private static void send(HttpExchange exchange, int status, byte[] body) throws IOException {
+        send(exchange, status, body, "application/json; charset=UTF-8");
+    }
+
+    private static void send(HttpExchange exchange, int status, byte[] body, String contentType) throws IOException {
+        if (status == 200 && body != null) {
+            String etag = "\"" + Integer.toHexString(Arrays.hashCode(body)) + "\"";
+            exchange.getResponseHeaders().set("ETag", etag);
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(UTF_8);
+    }
+
+}
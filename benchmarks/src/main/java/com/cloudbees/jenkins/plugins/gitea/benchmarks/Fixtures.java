@@ -0,0 +1,163 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.node.ArrayNode;
+import org.codehaus.jackson.node.ObjectNode;
+
+/**
+ * Payloads recorded from Gitea, and larger ones derived from them.
+ */
+public final class Fixtures {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private Fixtures() {}
+
+    /**
+     * @param name the fixture name, e.g. "branch.json"
+     * @return the recorded payload
+     */
+    public static String load(String name) throws IOException {
+        InputStream in = Fixtures.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) {
+            throw new IOException("No fixture " + name);
+        }
+        try {
+            return IOUtils.toString(in, "UTF-8");
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    /**
+     * @return a branch listing of the given size, each branch with its own name and head
+     */
+    public static String branches(int count) throws IOException {
+        ObjectNode branch = (ObjectNode) MAPPER.readTree(load("branch.json"));
+        ArrayNode branches = MAPPER.createArrayNode();
+        for (int i = 0; i < count; i++) {
+            branches.add(branch(branch, i));
+        }
+        return MAPPER.writeValueAsString(branches);
+    }
+
+    /**
+     * @return the recorded branch, renamed and moved to another head
+     */
+    public static ObjectNode branch(ObjectNode branch, int index) throws IOException {
+        ObjectNode copy = copy(branch);
+        copy.put("name", branchName(index));
+        ((ObjectNode) copy.get("commit")).put("id", sha(index));
+        return copy;
+    }
+
+    /**
+     * @return a repository listing of the given size, each repository with its own name
+     */
+    public static String repositories(String owner, int count) throws IOException {
+        ObjectNode repository = (ObjectNode) MAPPER.readTree(load("repository.json"));
+        ArrayNode repositories = MAPPER.createArrayNode();
+        for (int i = 0; i < count; i++) {
+            repositories.add(repository(repository, owner, repositoryName(i), i));
+        }
+        return MAPPER.writeValueAsString(repositories);
+    }
+
+    /**
+     * @return the recorded repository, moved to the given owner and name
+     */
+    public static ObjectNode repository(ObjectNode repository, String owner, String name, int id) throws IOException {
+        ObjectNode copy = copy(repository);
+        copy.put("id", id + 1);
+        copy.put("name", name);
+        copy.put("full_name", owner + "/" + name);
+        copy.put("html_url", "https://gitea.example.com/" + owner + "/" + name);
+        copy.put("ssh_url", "git@gitea.example.com:" + owner + "/" + name + ".git");
+        copy.put("clone_url", "https://gitea.example.com/" + owner + "/" + name + ".git");
+        ObjectNode user = (ObjectNode) copy.get("owner");
+        user.put("login", owner);
+        user.put("username", owner);
+        return copy;
+    }
+
+    public static String branchName(int index) {
+        return index == 0 ? "master" : String.format(Locale.ENGLISH, "feature/branch-%06d", index);
+    }
+
+    public static String repositoryName(int index) {
+        return String.format(Locale.ENGLISH, "widgets-%05d", index);
+    }
+
+    /**
+     * @return a push of the given number of commits, each changing a few files
+     */
+    public static byte[] push(int commits) throws IOException {
+        ObjectNode push = (ObjectNode) MAPPER.readTree(load("push.json"));
+        ObjectNode commit = (ObjectNode) push.get("commits").get(0);
+        ArrayNode list = MAPPER.createArrayNode();
+        for (int i = 0; i < commits; i++) {
+            ObjectNode copy = copy(commit);
+            copy.put("id", sha(i));
+            ArrayNode modified = copy.putArray("modified");
+            for (int j = 0; j < 3; j++) {
+                modified.add(String.format(Locale.ENGLISH, "src/main/java/com/acme/widgets/Widget%d.java", (i + j) % 100));
+            }
+            list.add(copy);
+        }
+        push.put("commits", list);
+        push.put("total_commits", commits);
+        push.put("after", sha(commits - 1));
+        return MAPPER.writeValueAsString(push).getBytes(UTF_8);
+    }
+
+    /**
+     * @return a deterministic commit hash
+     */
+    public static String sha(int index) {
+        return String.format(Locale.ENGLISH, "%040x", index);
+    }
+
+    /**
+     * @return the given JSON object as a tree
+     */
+    public static ObjectNode objectNode(String json) throws IOException {
+        return (ObjectNode) MAPPER.readTree(json);
+    }
+
+    private static ObjectNode copy(JsonNode node) throws IOException {
+        return (ObjectNode) MAPPER.readTree(node.toString());
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jol.info.GraphLayout;
+
+/**
+ * Branch snapshots of huge repositories, kept by the {@link GiteaPoller} between polls: a {@link GiteaHeadIndex}
+ * against the {@code HashMap} of branch name to head commit it replaced.
+ *
+ * The retained size of both is printed once per trial, names excluded since both keep the same strings. The
+ * benchmarks time the diff of two consecutive snapshots where one branch in a hundred moved, and building the index.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class HeadIndexBenchmark {
+
+    @Param({"1000", "60000"})
+    public int branches;
+
+    private Map<String, String> previousMap;
+
+    private Map<String, String> currentMap;
+
+    private GiteaHeadIndex previousIndex;
+
+    private GiteaHeadIndex currentIndex;
+
+    @Setup
+    public void setUp() {
+        previousMap = new HashMap<>();
+        currentMap = new HashMap<>();
+        for (int i = 0; i < branches; i++) {
+            String name = Fixtures.branchName(i);
+            previousMap.put(name, Fixtures.sha(i));
+            currentMap.put(name, Fixtures.sha(i % 100 == 0 ? i + branches : i));
+        }
+        previousIndex = GiteaHeadIndex.of(previousMap, null);
+        currentIndex = GiteaHeadIndex.of(currentMap, previousIndex);
+
+        // the names as roots, not the array
+        long names = GraphLayout.parseInstance(previousMap.keySet().toArray()).totalSize();
+        long map = GraphLayout.parseInstance(previousMap).totalSize() - names;
+        long index = GraphLayout.parseInstance(previousIndex).totalSize() - names;
+        System.out.format("%nRetained by %d branches, without names: HashMap %,d bytes, GiteaHeadIndex %,d bytes%n",
+                branches, map, index);
+    }
+
+    @Benchmark
+    public int diffMap() {
+        int changed = 0;
+        for (Map.Entry<String, String> head : currentMap.entrySet()) {
+            if (!head.getValue().equals(previousMap.get(head.getKey()))) {
+                changed++;
+            }
+        }
+        for (String name : previousMap.keySet()) {
+            if (!currentMap.containsKey(name)) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public int diffIndex() {
+        int changed = 0;
+        for (int i = 0; i < currentIndex.size(); i++) {
+            int known = previousIndex.indexOf(currentIndex.name(i));
+            if (known < 0 || !currentIndex.sameHash(i, previousIndex, known)) {
+                changed++;
+            }
+        }
+        for (int i = 0; i < previousIndex.size(); i++) {
+            if (currentIndex.indexOf(previousIndex.name(i)) < 0) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    @Benchmark
+    public GiteaHeadIndex buildIndex() {
+        return GiteaHeadIndex.of(currentMap, previousIndex);
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+import com.cloudbees.jenkins.plugins.gitea.server.client.branch.GiteaServerBranch;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.GiteaServerRepository;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of Gitea API responses, as done by {@link GiteaServerAPIClient} for every listing of a scan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ApiDecodingBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Listings {
+
+        @Param({"100", "10000", "100000"})
+        public int entries;
+
+        String branches;
+
+        String repositories;
+
+        @Setup
+        public void setUp() throws IOException {
+            branches = Fixtures.branches(entries);
+            repositories = Fixtures.repositories("acme", entries);
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class Single {
+
+        String repository;
+
+        @Setup
+        public void setUp() throws IOException {
+            repository = Fixtures.load("repository.json");
+        }
+
+    }
+
+    @Benchmark
+    public List<GiteaServerBranch> branchListing(Listings listings) throws IOException {
+        return GiteaServerAPIClient.parseCollection(listings.branches, GiteaServerBranch.class);
+    }
+
+    @Benchmark
+    public List<GiteaServerRepository> repositoryListing(Listings listings) throws IOException {
+        return GiteaServerAPIClient.parseCollection(listings.repositories, GiteaServerRepository.class);
+    }
+
+    @Benchmark
+    public GiteaServerRepository repository(Single single) throws IOException {
+        return GiteaServerAPIClient.parse(single.repository, GiteaServerRepository.class);
+    }
+
+}
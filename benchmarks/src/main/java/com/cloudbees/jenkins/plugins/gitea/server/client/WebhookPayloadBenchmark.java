@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding of webhook deliveries by {@link GiteaWebhookPayload}, on the request thread of every delivery.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookPayloadBenchmark {
+
+    /**
+     * Number of commits of the push, 1 for the recorded payload.
+     */
+    @Param({"1", "500"})
+    public int commits;
+
+    private byte[] push;
+
+    /**
+     * Accepts only another repository than the one of the payload.
+     */
+    private final GiteaWebhookPayload.RepositoryFilter elsewhere = new GiteaWebhookPayload.RepositoryFilter() {
+        @Override
+        public boolean accepts(String owner, String repository) {
+            return false;
+        }
+    };
+
+    @Setup
+    public void setUp() throws IOException {
+        push = Fixtures.push(commits);
+    }
+
+    @Benchmark
+    public GiteaPushEvent push() {
+        return GiteaWebhookPayload.pushEventFromPayload(push, null);
+    }
+
+    /**
+     * A push on a repository no job is interested in, which decoding should give up on early.
+     */
+    @Benchmark
+    public GiteaPushEvent pushFilteredOut() {
+        return GiteaWebhookPayload.pushEventFromPayload(push, elsewhere);
+    }
+
+}
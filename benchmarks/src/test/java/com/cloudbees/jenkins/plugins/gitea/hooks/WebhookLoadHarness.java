@@ -0,0 +1,451 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMHeadEvent;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.FakeGitea;
+import com.cloudbees.jenkins.plugins.gitea.benchmarks.Fixtures;
+
+import hudson.ExtensionList;
+import jenkins.branch.BranchProperty;
+import jenkins.branch.BranchSource;
+import jenkins.branch.DefaultBranchPropertyStrategy;
+import jenkins.branch.NoTriggerBranchProperty;
+import jenkins.scm.api.SCMEventListener;
+import jenkins.scm.api.SCMHeadEvent;
+import org.apache.commons.io.IOUtils;
+import org.codehaus.jackson.node.ObjectNode;
+import org.jenkinsci.plugins.workflow.multibranch.WorkflowMultiBranchProject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+/**
+ * Load harness of the webhook endpoint: replays recorded deliveries against {@link GiteaSCMWebHook} at increasing
+ * rates, across many multibranch projects whose repositories are served by a {@link FakeGitea}.
+ *
+ * Deliveries are sent open loop, on a fixed schedule, and latencies are measured from the scheduled time so that a
+ * slow endpoint cannot hide behind a slow sender. For every rate it reports the p50/p99 accept latency (until Gitea
+ * would get its response), the p50/p99 dispatch latency (until the {@link GiteaSCMHeadEvent} carrying the pushed
+ * branch reaches the SCM event listeners, pull requests excluded as they trigger a reindex) and the throughput. The
+ * ceiling is the highest rate sustained with a p99 accept latency below Gitea's delivery timeout.
+ *
+ * Only runs with {@code -Pload}, see the benchmarks POM for the parameters.
+ */
+public class WebhookLoadHarness {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int PROJECTS = Integer.getInteger("load.projects", 1000);
+
+    private static final String RATES = System.getProperty("load.rates", "25,50,100,200,400,800");
+
+    private static final int DURATION_SECONDS = Integer.getInteger("load.durationSeconds", 20);
+
+    private static final int SENDERS = Integer.getInteger("load.senders", 64);
+
+    private static final String MIX = System.getProperty("load.mix", "push:8,create:1,pull_request:1");
+
+    private static final long MAX_P99_MILLIS = Long.getLong("load.maxP99Millis", 5000L);
+
+    /**
+     * Branches of every repository, pushes go to one of them.
+     */
+    private static final int BRANCHES = 5;
+
+    @Rule
+    public JenkinsRule j = new JenkinsRule();
+
+    {
+        // the setup alone takes longer than the default timeout with thousands of projects
+        j.timeout = 0;
+    }
+
+    @Test
+    public void load() throws Exception {
+        FakeGitea gitea = new FakeGitea(1, PROJECTS, BRANCHES).start();
+        try {
+            createProjects(gitea);
+            DispatchRecorder recorder = new DispatchRecorder();
+            ExtensionList.lookup(SCMEventListener.class).add(recorder);
+            URL endpoint = new URL(j.getURL(), GiteaSCMWebHook.FULL_PATH);
+            Deliveries deliveries = new Deliveries(gitea.getOrganization(0));
+
+            List<Step> steps = new ArrayList<>();
+            int ceiling = 0;
+            for (String rate : RATES.split(",")) {
+                Step step = run(endpoint, deliveries, recorder, Integer.parseInt(rate.trim()));
+                steps.add(step);
+                System.out.println(step);
+                if (!step.isSustained()) {
+                    break;
+                }
+                ceiling = step.rate;
+            }
+            System.out.format("%n%d projects, %ds per rate, mix %s%n", PROJECTS, DURATION_SECONDS, MIX);
+            System.out.format("%8s %10s %12s %12s %14s %14s %8s%n",
+                    "rate/s", "accepted/s", "accept p50", "accept p99", "dispatch p50", "dispatch p99", "failed");
+            for (Step step : steps) {
+                System.out.format("%8d %10.1f %10dms %10dms %12dms %12dms %8d%n", step.rate, step.throughput,
+                        step.accept.percentile(50), step.accept.percentile(99),
+                        step.dispatch.percentile(50), step.dispatch.percentile(99), step.failures);
+            }
+            System.out.format("Ceiling: %d deliveries/s (p99 accept latency below %dms)%n%n", ceiling, MAX_P99_MILLIS);
+        } finally {
+            gitea.close();
+        }
+    }
+
+    private void createProjects(FakeGitea gitea) throws IOException {
+        for (int i = 0; i < PROJECTS; i++) {
+            WorkflowMultiBranchProject project = j.jenkins.createProject(WorkflowMultiBranchProject.class,
+                    Fixtures.repositoryName(i));
+            GiteaSCMSource source = new GiteaSCMSource(null, gitea.getOrganization(0), Fixtures.repositoryName(i));
+            source.setGiteaServerUrl(gitea.getUrl());
+            // the harness measures the webhook, not the builds
+            project.getSourcesList().add(new BranchSource(source, new DefaultBranchPropertyStrategy(
+                    new BranchProperty[]{new NoTriggerBranchProperty()})));
+        }
+    }
+
+    private static Step run(final URL endpoint, Deliveries deliveries, final DispatchRecorder recorder, int rate)
+            throws InterruptedException, IOException {
+        final Step step = new Step(rate);
+        int count = rate * DURATION_SECONDS;
+        List<Delivery> batch = deliveries.next(count);
+        ExecutorService senders = Executors.newFixedThreadPool(SENDERS);
+        final AtomicLong lastCompletion = new AtomicLong();
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            final long scheduled = start + TimeUnit.SECONDS.toNanos(i) / rate;
+            long wait;
+            while ((wait = scheduled - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final Delivery delivery = batch.get(i);
+            senders.submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (delivery.branchKey != null) {
+                        recorder.expect(delivery.branchKey, scheduled);
+                    }
+                    try {
+                        if (send(endpoint, delivery) == HttpURLConnection.HTTP_OK) {
+                            step.accept.add(System.nanoTime() - scheduled);
+                            step.accepted.incrementAndGet();
+                        } else {
+                            step.failed.incrementAndGet();
+                        }
+                    } catch (IOException e) {
+                        step.failed.incrementAndGet();
+                    }
+                    lastCompletion.set(Math.max(lastCompletion.get(), System.nanoTime()));
+                }
+            });
+        }
+        senders.shutdown();
+        senders.awaitTermination(10, TimeUnit.MINUTES);
+        step.throughput = step.accepted.get() * 1e9 / Math.max(1, lastCompletion.get() - start);
+        step.failures = step.failed.get();
+        step.dispatch = recorder.awaitDispatched(TimeUnit.MINUTES.toMillis(2));
+        return step;
+    }
+
+    private static int send(URL endpoint, Delivery delivery) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setFixedLengthStreamingMode(delivery.body.length);
+            connection.setRequestProperty("Content-Type", "application/json");
+            connection.setRequestProperty("X-Gitea-Event", delivery.event);
+            connection.setRequestProperty("X-Gitea-Delivery", UUID.randomUUID().toString());
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(delivery.body);
+            } finally {
+                out.close();
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            if (in != null) {
+                IOUtils.toByteArray(in);
+                in.close();
+            }
+            return status;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Measurements of one rate.
+     */
+    private static class Step {
+
+        final int rate;
+
+        final Histogram accept = new Histogram();
+
+        Histogram dispatch = new Histogram();
+
+        final AtomicInteger accepted = new AtomicInteger();
+
+        final AtomicInteger failed = new AtomicInteger();
+
+        double throughput;
+
+        int failures;
+
+        Step(int rate) {
+            this.rate = rate;
+        }
+
+        boolean isSustained() {
+            return failures == 0 && throughput >= rate * 0.95 && accept.percentile(99) < MAX_P99_MILLIS;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ENGLISH, "%d/s offered, %.1f/s accepted, accept p50 %dms p99 %dms, "
+                            + "dispatch p50 %dms p99 %dms, %d failed", rate, throughput, accept.percentile(50),
+                    accept.percentile(99), dispatch.percentile(50), dispatch.percentile(99), failures);
+        }
+
+    }
+
+    /**
+     * Latencies in nanoseconds, reported in milliseconds.
+     */
+    private static class Histogram {
+
+        private long[] values = new long[1024];
+
+        private int size;
+
+        synchronized void add(long nanos) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = nanos;
+        }
+
+        synchronized long percentile(int percentile) {
+            if (size == 0) {
+                return 0;
+            }
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            return TimeUnit.NANOSECONDS.toMillis(sorted[Math.min(size - 1, (int) Math.ceil(size * percentile / 100.0) - 1)]);
+        }
+
+    }
+
+    /**
+     * Records when the branches pushed by deliveries reach the SCM event listeners. Deliveries coalesced by the
+     * {@link GiteaEventDebouncer} count as dispatched with the event carrying their branch.
+     */
+    private static class DispatchRecorder extends SCMEventListener {
+
+        private final ConcurrentMap<String, Queue<Long>> pending = new ConcurrentHashMap<>();
+
+        private volatile Histogram latencies = new Histogram();
+
+        void expect(String branchKey, long sentNanos) {
+            Queue<Long> queue = pending.get(branchKey);
+            if (queue == null) {
+                Queue<Long> created = new ConcurrentLinkedQueue<>();
+                queue = pending.putIfAbsent(branchKey, created);
+                if (queue == null) {
+                    queue = created;
+                }
+            }
+            queue.add(sentNanos);
+        }
+
+        @Override
+        public void onSCMHeadEvent(SCMHeadEvent<?> event) {
+            if (!(event.getPayload() instanceof GiteaSCMHeadEvent.Payload)) {
+                return;
+            }
+            GiteaSCMHeadEvent.Payload payload = (GiteaSCMHeadEvent.Payload) event.getPayload();
+            long now = System.nanoTime();
+            for (String branch : payload.getBranches().keySet()) {
+                Queue<Long> queue = pending.get(key(payload.getRepoOwner(), payload.getRepository(), branch));
+                Long sent;
+                while (queue != null && (sent = queue.poll()) != null) {
+                    latencies.add(now - sent);
+                }
+            }
+        }
+
+        /**
+         * Waits for the expected branches to be dispatched.
+         *
+         * @return the dispatch latencies since the previous call
+         */
+        Histogram awaitDispatched(long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (System.currentTimeMillis() < deadline && !isDrained()) {
+                Thread.sleep(100);
+            }
+            pending.clear();
+            Histogram result = latencies;
+            latencies = new Histogram();
+            return result;
+        }
+
+        private boolean isDrained() {
+            for (Queue<Long> queue : pending.values()) {
+                if (!queue.isEmpty()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+    private static String key(String owner, String repository, String branch) {
+        return owner + "/" + repository + "/" + branch;
+    }
+
+    private static class Delivery {
+
+        final String event;
+
+        final byte[] body;
+
+        /**
+         * The branch the delivery pushes, null if it does not target a branch.
+         */
+        final String branchKey;
+
+        Delivery(String event, byte[] body, String branchKey) {
+            this.event = event;
+            this.body = body;
+            this.branchKey = branchKey;
+        }
+
+    }
+
+    /**
+     * Derives deliveries from the recorded payloads, each with its own commit so that none is deduplicated.
+     */
+    private static class Deliveries {
+
+        private final String owner;
+
+        private final String[] events;
+
+        private final ObjectNode push;
+
+        private final ObjectNode create;
+
+        private final ObjectNode pullRequest;
+
+        private final Random random = new Random(42);
+
+        private int sequence;
+
+        Deliveries(String owner) throws IOException {
+            this.owner = owner;
+            List<String> events = new ArrayList<>();
+            for (String entry : MIX.split(",")) {
+                String[] weight = entry.trim().split(":");
+                for (int i = 0; i < Integer.parseInt(weight[1]); i++) {
+                    events.add(weight[0]);
+                }
+            }
+            this.events = events.toArray(new String[0]);
+            this.push = Fixtures.objectNode(Fixtures.load("push.json"));
+            this.create = Fixtures.objectNode(Fixtures.load("create.json"));
+            this.pullRequest = Fixtures.objectNode(Fixtures.load("pull_request.json"));
+        }
+
+        List<Delivery> next(int count) throws IOException {
+            List<Delivery> deliveries = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                deliveries.add(next());
+            }
+            return deliveries;
+        }
+
+        private Delivery next() throws IOException {
+            int index = random.nextInt(PROJECTS);
+            String name = Fixtures.repositoryName(index);
+            String sha = Fixtures.sha(1000000 + sequence++);
+            String event = events[random.nextInt(events.length)];
+            ObjectNode payload;
+            String branch;
+            if ("push".equals(event)) {
+                payload = Fixtures.objectNode(push.toString());
+                branch = Fixtures.branchName(random.nextInt(BRANCHES));
+                payload.put("ref", "refs/heads/" + branch);
+                payload.put("after", sha);
+                ((ObjectNode) payload.get("commits").get(0)).put("id", sha);
+            } else if ("create".equals(event)) {
+                payload = Fixtures.objectNode(create.toString());
+                branch = "load/branch-" + sequence;
+                payload.put("ref", branch);
+                payload.put("sha", sha);
+            } else {
+                payload = Fixtures.objectNode(pullRequest.toString());
+                branch = null;
+                payload.put("number", sequence);
+                ObjectNode pull = (ObjectNode) payload.get("pull_request");
+                pull.put("number", sequence);
+                ((ObjectNode) pull.get("head")).put("sha", sha);
+            }
+            payload.put("repository", Fixtures.repository((ObjectNode) payload.get("repository"), owner, name, index));
+            return new Delivery(event, payload.toString().getBytes(UTF_8), branch == null ? null : key(owner, name, branch));
+        }
+
+    }
+
+}
@@ -25,12 +25,17 @@ package com.cloudbees.jenkins.plugins.gitea;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
 import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaServerAPIClient;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaServerConnection;
 import com.cloudbees.plugins.credentials.CredentialsMatcher;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsProvider;
@@ -40,6 +45,7 @@ import com.cloudbees.plugins.credentials.common.StandardUsernameCredentials;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 import com.cloudbees.plugins.credentials.domains.DomainRequirement;
 import com.cloudbees.plugins.credentials.domains.URIRequirementBuilder;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
 
 import hudson.Util;
 import hudson.model.Item;
@@ -47,10 +53,23 @@ import hudson.model.Queue;
 import hudson.model.queue.Tasks;
 import hudson.security.ACL;
 import hudson.util.ListBoxModel;
+import hudson.util.Secret;
 import jenkins.scm.api.SCMSourceOwner;
 
 public class GiteaApiConnector {
 
+    private static final Logger LOGGER = Logger.getLogger(GiteaApiConnector.class.getName());
+
+    /**
+     * Upper bound of the number of clients kept in the registry.
+     */
+    private static final int MAX_CLIENTS = Integer.getInteger(GiteaApiConnector.class.getName() + ".maxClients", 10000);
+
+    /**
+     * Shared clients, see {@link #client(String, String, String, StandardUsernamePasswordCredentials)}.
+     */
+    private static final ConcurrentMap<String, GiteaServerAPIClient> CLIENTS = new ConcurrentHashMap<String, GiteaServerAPIClient>();
+
     private String serverUrl;
 
     public GiteaApiConnector() {
@@ -61,21 +80,59 @@ public class GiteaApiConnector {
     }
 
     public GiteaApi create(String owner, String repository, StandardUsernamePasswordCredentials creds) {
-        return new GiteaServerAPIClient(serverUrl, owner, repository, creds);
+        return client(serverUrl, owner, repository, creds);
     }
 
     public GiteaApi create(String owner, StandardUsernamePasswordCredentials creds) {
-        return new GiteaServerAPIClient(serverUrl, owner, creds);
+        return client(serverUrl, owner, null, creds);
     }
 
     public static @Nonnull
     GiteaApi connect(@CheckForNull String apiUri, @CheckForNull String owner, @CheckForNull StandardUsernamePasswordCredentials credentials) throws IOException {
-        return new GiteaServerAPIClient(apiUri, owner, credentials);
+        return client(apiUri, owner, null, credentials);
     }
 
     public static @Nonnull
     GiteaApi connect(@CheckForNull String apiUri, @CheckForNull String owner, @CheckForNull String repositoryName, @CheckForNull StandardUsernamePasswordCredentials credentials) throws IOException {
-        return new GiteaServerAPIClient(apiUri, owner, repositoryName, credentials);
+        return client(apiUri, owner, repositoryName, credentials);
+    }
+
+    /**
+     * Returns the shared client for the given server, owner, repository and credentials.
+     *
+     * Clients are registered by server, owner, repository and credentials ID, and remember the fingerprint of the
+     * secret they were built with. When the credentials behind an ID are rotated the fingerprint no longer matches
+     * and the stale client is replaced.
+     */
+    @Nonnull
+    private static GiteaServerAPIClient client(@CheckForNull String serverUrl, @CheckForNull String owner,
+                                               @CheckForNull String repository,
+                                               @CheckForNull StandardUsernamePasswordCredentials creds) {
+        String key = serverUrl + "::" + owner + "::" + repository + "::" + (creds == null ? null : creds.getId());
+        UsernamePasswordCredentials credentials = creds == null
+                ? null : new UsernamePasswordCredentials(creds.getUsername(), Secret.toString(creds.getPassword()));
+        String fingerprint = credentials == null
+                ? GiteaServerAPIClient.fingerprint(null, null)
+                : GiteaServerAPIClient.fingerprint(credentials.getUserName(), credentials.getPassword());
+        while (true) {
+            GiteaServerAPIClient current = CLIENTS.get(key);
+            if (current != null && current.getCredentialsFingerprint().equals(fingerprint)) {
+                return current;
+            }
+            if (CLIENTS.size() >= MAX_CLIENTS) {
+                // clients are cheap to rebuild, just start over rather than tracking usage
+                CLIENTS.clear();
+            }
+            GiteaServerAPIClient created = new GiteaServerAPIClient(GiteaServerConnection.of(serverUrl), owner,
+                    repository, credentials);
+            if (current == null ? CLIENTS.putIfAbsent(key, created) == null : CLIENTS.replace(key, current, created)) {
+                if (current != null) {
+                    LOGGER.log(Level.FINE, "Credentials {0} were updated, evicted the client for {1}/{2}",
+                            new Object[]{creds == null ? null : creds.getId(), owner, repository});
+                }
+                return created;
+            }
+        }
     }
 
     @CheckForNull 
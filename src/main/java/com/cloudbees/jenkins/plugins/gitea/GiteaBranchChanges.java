@@ -0,0 +1,171 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadCommit;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * What one or more consecutive pushes changed on a branch, as told by the push payloads.
+ */
+public class GiteaBranchChanges {
+
+    /**
+     * Git uses an all zeros commit as "before" of created refs and "after" of deleted refs.
+     */
+    private static final String NULL_SHA = "0000000000000000000000000000000000000000";
+
+    private final String before;
+
+    private final String after;
+
+    /**
+     * Messages of the head commit of every push, in order, null when not known.
+     */
+    private final List<String> headMessages;
+
+    private final Set<String> paths;
+
+    private final boolean complete;
+
+    public GiteaBranchChanges(@NonNull String before, @NonNull String after, @CheckForNull String headMessage,
+                              @NonNull Set<String> paths, boolean complete) {
+        this(before, after, Collections.singletonList(headMessage), paths, complete);
+    }
+
+    private GiteaBranchChanges(String before, String after, List<String> headMessages, Set<String> paths,
+                               boolean complete) {
+        this.before = before;
+        this.after = after;
+        this.headMessages = Collections.unmodifiableList(new ArrayList<>(headMessages));
+        this.paths = Collections.unmodifiableSet(new LinkedHashSet<>(paths));
+        this.complete = complete;
+    }
+
+    /**
+     * @param push a push on a branch
+     * @return the changes, or null if the push does not tell them (no commits listed, e.g. a forced push rewinding
+     *         the branch) or if it created the branch, which has no previous head to fall back to
+     */
+    @CheckForNull
+    public static GiteaBranchChanges of(@NonNull GiteaPushEvent push) {
+        List<PayloadCommit> commits = push.getCommits();
+        if (isNullSha(push.getBefore()) || isNullSha(push.getAfter()) || commits == null || commits.isEmpty()) {
+            return null;
+        }
+        PayloadCommit head = commits.get(commits.size() - 1);
+        Set<String> paths = new LinkedHashSet<>();
+        for (PayloadCommit commit : commits) {
+            if (push.getAfter().equals(commit.getId())) {
+                head = commit;
+            }
+            paths.addAll(commit.getAdded());
+            paths.addAll(commit.getRemoved());
+            paths.addAll(commit.getModified());
+        }
+        return new GiteaBranchChanges(push.getBefore(), push.getAfter(), head.getMessage(), paths,
+                push.isCommitListComplete());
+    }
+
+    /**
+     * @param next the changes pushed on top of these ones
+     * @return the changes of both pushes
+     */
+    @NonNull
+    public GiteaBranchChanges then(@NonNull GiteaBranchChanges next) {
+        Set<String> union = new LinkedHashSet<>(paths);
+        union.addAll(next.paths);
+        List<String> messages = new ArrayList<>(headMessages);
+        messages.addAll(next.headMessages);
+        // a forced push in between breaks the chain, the paths listed are no longer the full difference
+        return new GiteaBranchChanges(before, next.after, messages, union,
+                complete && next.complete && after.equals(next.before));
+    }
+
+    /**
+     * @return the head of the branch before the changes
+     */
+    public String getBefore() {
+        return before;
+    }
+
+    /**
+     * @return the head of the branch after the changes
+     */
+    public String getAfter() {
+        return after;
+    }
+
+    /**
+     * @return the message of the new head commit, if known
+     */
+    @CheckForNull
+    public String getHeadMessage() {
+        return headMessages.get(headMessages.size() - 1);
+    }
+
+    /**
+     * @return the messages of the head commits of all the pushes merged into these changes, in order, with null
+     *         for the ones not known
+     */
+    public List<String> getHeadMessages() {
+        return headMessages;
+    }
+
+    /**
+     * @return the paths added, removed or modified, see {@link #isComplete()}
+     */
+    public Set<String> getPaths() {
+        return paths;
+    }
+
+    /**
+     * @return whether {@link #getPaths()} lists all the changed paths, the payload may only list the last commits
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    /**
+     * @return whether the commit is missing, as the previous head of a created branch or the new head of a deleted one
+     */
+    public static boolean isNullSha(@CheckForNull String sha) {
+        return sha == null || sha.isEmpty() || NULL_SHA.equals(sha);
+    }
+
+    @Override
+    public String toString() {
+        return before + ".." + after;
+    }
+
+}
@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+
+/**
+ * Decides from the push payload whether a branch update is worth a build, as configured on a {@link GiteaSCMSource}.
+ *
+ * An update is skipped when the message of the new head commit carries one of the skip markers (of every push, when
+ * the update merges several), or when none of the changed paths is included by the path filters. When the payload does not list all the pushed commits the changed
+ * paths are fetched from the compare API, and the update is built if they cannot be.
+ *
+ * Skipped updates are remembered, so that the next branch scan reports the last relevant revision of the branch
+ * instead of triggering the build the event did not. They are only remembered in memory, for the last
+ * {@code maxSkipped} branches: after a restart, or once evicted, a scan reports the actual head of the branch and the
+ * skipped update is built after all.
+ */
+public class GiteaPushFilter {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaPushFilter.class.getName());
+
+    private static final int MAX_SKIPPED = Integer.getInteger(GiteaPushFilter.class.getName() + ".maxSkipped", 10000);
+
+    /**
+     * Source id and branch to the skipped head and the last relevant revision before it.
+     */
+    private static final Map<String, String[]> SKIPPED = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+            return size() > MAX_SKIPPED;
+        }
+    };
+
+    private final List<String> markers = new ArrayList<>();
+
+    private final List<Pattern> includes = new ArrayList<>();
+
+    private final List<Pattern> excludes = new ArrayList<>();
+
+    public GiteaPushFilter(@CheckForNull String markers, @CheckForNull String includes, @CheckForNull String excludes) {
+        if (markers != null) {
+            for (String marker : markers.split(",")) {
+                if (!marker.trim().isEmpty()) {
+                    this.markers.add(marker.trim().toLowerCase(Locale.ENGLISH));
+                }
+            }
+        }
+        addGlobs(this.includes, includes);
+        addGlobs(this.excludes, excludes);
+    }
+
+    /**
+     * @return the filter configured on the source, or null if none is
+     */
+    @CheckForNull
+    public static GiteaPushFilter of(@NonNull GiteaSCMSource source) {
+        if (Util.fixEmptyAndTrim(source.getSkipMarkers()) == null && Util.fixEmptyAndTrim(source.getIncludedPaths()) == null
+                && Util.fixEmptyAndTrim(source.getExcludedPaths()) == null) {
+            return null;
+        }
+        return new GiteaPushFilter(source.getSkipMarkers(), source.getIncludedPaths(), source.getExcludedPaths());
+    }
+
+    /**
+     * @param source  the source the branch belongs to, used to call the compare API
+     * @param changes the changes pushed on the branch
+     * @return false if the changes do not need a build
+     */
+    public boolean isRelevant(@NonNull GiteaSCMSource source, @NonNull GiteaBranchChanges changes) {
+        if (GiteaBranchChanges.isNullSha(changes.getBefore())) {
+            // a created branch is always built
+            return true;
+        }
+        if (!markers.isEmpty() && isMarked(changes.getHeadMessages())) {
+            return false;
+        }
+        if (includes.isEmpty() && excludes.isEmpty()) {
+            return true;
+        }
+        Collection<String> paths = changes.getPaths();
+        if (!changes.isComplete()) {
+            paths = changedPaths(source.buildGiteaClient(), changes);
+            if (paths == null) {
+                return true;
+            }
+        }
+        if (paths.isEmpty()) {
+            // e.g. an empty merge commit, nothing to decide on
+            return true;
+        }
+        for (String path : paths) {
+            if ((includes.isEmpty() || matches(includes, path)) && !matches(excludes, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return whether every push carries a skip marker, a single unmarked push needs a build
+     */
+    private boolean isMarked(List<String> messages) {
+        for (String message : messages) {
+            if (message == null || !hasMarker(message.toLowerCase(Locale.ENGLISH))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasMarker(String lowerMessage) {
+        for (String marker : markers) {
+            if (lowerMessage.contains(marker)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remembers that an update of a branch was not built. The creation of a branch is never skipped, as there is no
+     * earlier revision to report instead.
+     */
+    public static void skipped(@NonNull GiteaSCMSource source, @NonNull String branch, @NonNull GiteaBranchChanges changes) {
+        if (GiteaBranchChanges.isNullSha(changes.getBefore())) {
+            return;
+        }
+        String key = source.getId() + "::" + branch;
+        synchronized (SKIPPED) {
+            String[] previous = SKIPPED.get(key);
+            // chained skips keep pointing to the last revision that was built
+            String relevant = previous != null && previous[0].equals(changes.getBefore()) ? previous[1] : changes.getBefore();
+            SKIPPED.put(key, new String[]{changes.getAfter(), relevant});
+        }
+    }
+
+    /**
+     * @param source the source the branch belongs to
+     * @param branch the branch
+     * @param head   the current head of the branch
+     * @return the revision to report for the branch: the head, or the last relevant revision if the head was skipped
+     *         since this JVM started, see the class documentation
+     */
+    @NonNull
+    public static String revision(@NonNull GiteaSCMSource source, @NonNull String branch, @NonNull String head) {
+        synchronized (SKIPPED) {
+            String[] skipped = SKIPPED.get(source.getId() + "::" + branch);
+            return skipped != null && skipped[0].equals(head) ? skipped[1] : head;
+        }
+    }
+
+    @CheckForNull
+    private static List<String> changedPaths(GiteaApi giteaApi, GiteaBranchChanges changes) {
+        try {
+            return giteaApi.getChangedPaths(changes.getBefore(), changes.getAfter());
+        } catch (GiteaRequestException e) {
+            LOGGER.log(Level.FINE, "Could not compare " + changes, e);
+            return null;
+        }
+    }
+
+    private static boolean matches(List<Pattern> patterns, String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches() || pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addGlobs(List<Pattern> patterns, String globs) {
+        if (globs == null) {
+            return;
+        }
+        for (String glob : globs.trim().split("\\s+")) {
+            if (!glob.isEmpty()) {
+                patterns.add(Pattern.compile(toRegex(glob)));
+            }
+        }
+    }
+
+    /**
+     * Translates an Ant style glob: {@code **} matches across directories, {@code *} and {@code ?} within one.
+     * A glob without a slash is also matched against file names, so that {@code *.md} matches {@code docs/index.md}.
+     */
+    static String toRegex(String glob) {
+        StringBuilder regex = new StringBuilder();
+        int i = 0;
+        while (i < glob.length()) {
+            char c = glob.charAt(i);
+            if (glob.startsWith("**/", i)) {
+                regex.append("(?:.*/)?");
+                i += 3;
+            } else if (glob.startsWith("**", i)) {
+                regex.append(".*");
+                i += 2;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+                i++;
+            } else if (c == '?') {
+                regex.append("[^/]");
+                i++;
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+                i++;
+            }
+        }
+        if (glob.endsWith("/")) {
+            // a directory matches everything below it
+            regex.append(".*");
+        }
+        return regex.toString();
+    }
+
+}
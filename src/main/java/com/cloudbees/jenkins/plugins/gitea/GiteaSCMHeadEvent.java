@@ -1,7 +1,190 @@
 package com.cloudbees.jenkins.plugins.gitea;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.scm.SCM;
+import com.cloudbees.jenkins.plugins.gitea.notification.GiteaPushTrace;
+import jenkins.plugins.git.AbstractGitSCMSource;
+import jenkins.scm.api.SCMHead;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMSource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
- * Created by kmadel on 6/16/17.
+ * Event targeting a set of branches of a single Gitea repository.
+ *
+ * Fired by the hook processors so that only the branches carried by the hook are fetched and built, instead of
+ * reindexing the whole repository. Branch updates filtered out by the {@link GiteaPushFilter} of a source are left
+ * out of the heads of that source. The filters are applied once, when the event is dispatched, so that
+ * {@link #heads(SCMSource)} is a plain lookup however many times it is called.
  */
-public class GiteaSCMHeadEvent {
+public class GiteaSCMHeadEvent extends SCMHeadEvent<GiteaSCMHeadEvent.Payload> {
+
+    public GiteaSCMHeadEvent(@NonNull Type type, @NonNull Payload payload) {
+        super(type, payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@NonNull SCMNavigator navigator) {
+        return navigator instanceof GiteaSCMNavigator
+                && getPayload().getRepoOwner().equalsIgnoreCase(((GiteaSCMNavigator) navigator).getRepoOwner());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public String getSourceName() {
+        return getPayload().getRepository();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public Map<SCMHead, SCMRevision> heads(@NonNull SCMSource source) {
+        if (!getPayload().isFor(source)) {
+            return Collections.emptyMap();
+        }
+        Map<SCMHead, SCMRevision> result = new HashMap<>();
+        for (Map.Entry<String, String> branch : getPayload().getBranches().entrySet()) {
+            if (getPayload().isSkipped(source, branch.getKey())) {
+                continue;
+            }
+            // same head type as GiteaSCMSource.retrieve observes
+            SCMHead head = new SCMHead(branch.getKey());
+            result.put(head, branch.getValue() == null ? null : new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getValue()));
+        }
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@NonNull SCM scm) {
+        return false;
+    }
+
+    /**
+     * The repository and branches an event is about.
+     */
+    public static class Payload {
+
+        private final String repoOwner;
+
+        private final String repository;
+
+        /**
+         * Branch name to head commit, the commit is null for deleted branches.
+         */
+        private final Map<String, String> branches;
+
+        /**
+         * Branch name to the changes pushed on it, when known.
+         */
+        private final Map<String, GiteaBranchChanges> changes;
+
+        /**
+         * Branch name to the trace of the push that updated it, when traced.
+         */
+        private final Map<String, GiteaPushTrace> traces;
+
+        /**
+         * Source id to the branches whose update its push filter skipped.
+         */
+        private final Map<String, Set<String>> skipped;
+
+        public Payload(@NonNull String repoOwner, @NonNull String repository, @NonNull Map<String, String> branches) {
+            this(repoOwner, repository, branches, Collections.<String, GiteaBranchChanges>emptyMap());
+        }
+
+        public Payload(@NonNull String repoOwner, @NonNull String repository, @NonNull Map<String, String> branches,
+                       @NonNull Map<String, GiteaBranchChanges> changes) {
+            this(repoOwner, repository, branches, changes, Collections.<String, GiteaPushTrace>emptyMap());
+        }
+
+        public Payload(@NonNull String repoOwner, @NonNull String repository, @NonNull Map<String, String> branches,
+                       @NonNull Map<String, GiteaBranchChanges> changes, @NonNull Map<String, GiteaPushTrace> traces) {
+            this(repoOwner, repository, branches, changes, traces, Collections.<String, Set<String>>emptyMap());
+        }
+
+        /**
+         * @param skipped source id to the branches whose update its {@link GiteaPushFilter} skipped
+         */
+        public Payload(@NonNull String repoOwner, @NonNull String repository, @NonNull Map<String, String> branches,
+                       @NonNull Map<String, GiteaBranchChanges> changes, @NonNull Map<String, GiteaPushTrace> traces,
+                       @NonNull Map<String, Set<String>> skipped) {
+            this.repoOwner = repoOwner;
+            this.repository = repository;
+            this.branches = Collections.unmodifiableMap(new LinkedHashMap<>(branches));
+            this.changes = Collections.unmodifiableMap(new HashMap<>(changes));
+            this.traces = Collections.unmodifiableMap(new HashMap<>(traces));
+            this.skipped = Collections.unmodifiableMap(new HashMap<>(skipped));
+        }
+
+        public String getRepoOwner() {
+            return repoOwner;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        public Map<String, String> getBranches() {
+            return branches;
+        }
+
+        /**
+         * @return the changes pushed on a branch, or null if not known
+         */
+        @CheckForNull
+        public GiteaBranchChanges getChanges(String branch) {
+            return changes.get(branch);
+        }
+
+        /**
+         * @return the trace of the push that updated a branch, or null if not traced
+         */
+        @CheckForNull
+        public GiteaPushTrace getTrace(String branch) {
+            return traces.get(branch);
+        }
+
+        /**
+         * @return whether the push filter of the source skipped the update of the branch
+         */
+        public boolean isSkipped(SCMSource source, String branch) {
+            Set<String> branches = skipped.get(source.getId());
+            return branches != null && branches.contains(branch);
+        }
+
+        /**
+         * @return true if the source manages the repository of this payload
+         */
+        public boolean isFor(SCMSource source) {
+            return source instanceof GiteaSCMSource
+                    && repoOwner.equalsIgnoreCase(((GiteaSCMSource) source).getRepoOwner())
+                    && repository.equalsIgnoreCase(((GiteaSCMSource) source).getRepository());
+        }
+
+        @Override
+        public String toString() {
+            return repoOwner + "/" + repository + " " + branches.keySet();
+        }
+
+    }
+
 }
@@ -26,7 +26,6 @@ package com.cloudbees.jenkins.plugins.gitea;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
@@ -48,6 +47,7 @@ import org.kohsuke.stapler.QueryParameter;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaRepository;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaOrganization;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaScanContext;
 import com.cloudbees.plugins.credentials.CredentialsNameProvider;
 import com.cloudbees.plugins.credentials.common.StandardListBoxModel;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
@@ -66,6 +66,16 @@ public class GiteaSCMNavigator extends SCMNavigator {
     private final String checkoutCredentialsId;
     private String pattern = ".*";
     private boolean autoRegisterHooks = false;
+
+    /**
+     * Whether the repository hooks are kept along the organization hook, see
+     * {@link com.cloudbees.jenkins.plugins.gitea.hooks.GiteaHookRegistry}. Negated so that navigators saved by
+     * earlier versions migrate to the organization hook.
+     */
+    private boolean repoHooksKept = false;
+    private boolean polling = false;
+    private boolean supersedeBuilds = false;
+    private boolean gitRefDiscovery = false;
     private String giteaServerUrl;
     private int sshPort = -1;
 
@@ -114,6 +124,42 @@ public class GiteaSCMNavigator extends SCMNavigator {
         return autoRegisterHooks;
     }
 
+    @DataBoundSetter
+    public void setPolling(boolean polling) {
+        this.polling = polling;
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    @DataBoundSetter
+    public void setSupersedeBuilds(boolean supersedeBuilds) {
+        this.supersedeBuilds = supersedeBuilds;
+    }
+
+    public boolean isSupersedeBuilds() {
+        return supersedeBuilds;
+    }
+
+    @DataBoundSetter
+    public void setGitRefDiscovery(boolean gitRefDiscovery) {
+        this.gitRefDiscovery = gitRefDiscovery;
+    }
+
+    public boolean isGitRefDiscovery() {
+        return gitRefDiscovery;
+    }
+
+    @DataBoundSetter
+    public void setOrgHookPreferred(boolean orgHookPreferred) {
+        this.repoHooksKept = !orgHookPreferred;
+    }
+
+    public boolean isOrgHookPreferred() {
+        return !repoHooksKept;
+    }
+
     public int getSshPort() {
         return sshPort;
     }
@@ -194,15 +240,17 @@ public class GiteaSCMNavigator extends SCMNavigator {
      */
     @Override
     public void afterSave(@NonNull SCMNavigatorOwner owner) {
-        try {
-            StandardUsernamePasswordCredentials credentials =
-                    getGiteaConnector().lookupScanCredentials((Item) owner, giteaServerUrl, checkoutCredentialsId);
+        GiteaOrgWebhook.register(owner);
+    }
 
-            GiteaApi giteaApi = getGiteaConnector().create(repoOwner, credentials);
-            GiteaOrgWebhook.register(giteaApi, repoOwner);
-        } catch (IOException e) {
-            DescriptorImpl.LOGGER.log(Level.WARNING, e.getMessage(), e);
-        }
+    /**
+     * @param owner the owner of this navigator, used to look up the scan credentials
+     * @return a client for the repositories of the owner
+     */
+    @NonNull
+    public GiteaApi buildGiteaClient(@NonNull SCMNavigatorOwner owner) {
+        return getGiteaConnector().create(repoOwner, getGiteaConnector().lookupCredentials(owner, credentialsId,
+                StandardUsernamePasswordCredentials.class));
     }
 
     @Override
@@ -221,6 +269,17 @@ public class GiteaSCMNavigator extends SCMNavigator {
         } else {
             listener.getLogger().format("Connecting to %s using %s%n", giteaServerUrl == null ? "https://gitea.org" : giteaServerUrl, CredentialsNameProvider.name(credentials));
         }
+        GiteaScanContext context = GiteaScanContext.open();
+        try {
+            visitSources(observer, listener, credentials);
+        } finally {
+            context.close();
+            context.report(listener.getLogger());
+        }
+    }
+
+    private void visitSources(SCMSourceObserver observer, TaskListener listener,
+                              StandardUsernamePasswordCredentials credentials) throws IOException, InterruptedException {
         List<? extends GiteaRepository> repositories;
         GiteaApi gitea = getGiteaConnector().create(repoOwner, credentials);
         GiteaOrganization organization = gitea.getOrganization();
@@ -257,6 +316,9 @@ public class GiteaSCMNavigator extends SCMNavigator {
         scmSource.setCredentialsId(credentialsId);
         scmSource.setCheckoutCredentialsId(checkoutCredentialsId);
         scmSource.setAutoRegisterHook(isAutoRegisterHooks());
+        scmSource.setPolling(polling);
+        scmSource.setSupersedeBuilds(supersedeBuilds);
+        scmSource.setGitRefDiscovery(gitRefDiscovery);
         scmSource.setGiteaServerUrl(giteaServerUrl);
         scmSource.setSshPort(sshPort);
         projectObserver.addSource(scmSource);
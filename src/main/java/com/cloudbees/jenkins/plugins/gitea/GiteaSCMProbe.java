@@ -2,7 +2,9 @@ package com.cloudbees.jenkins.plugins.gitea;
 
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaRepository;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaFlightRecorder;
 import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.plugins.git.AbstractGitSCMSource;
 import jenkins.scm.api.*;
 
 import java.io.IOException;
@@ -16,12 +18,22 @@ public class GiteaSCMProbe extends SCMProbe {
     private final transient GiteaApi giteaApi;
     private final String ref;
     private final String name;
+    /**
+     * Head commit of the branch, if known.
+     */
+    private final String hash;
 
     public GiteaSCMProbe(GiteaApi giteaApi, SCMHead head) {
+        this(giteaApi, head, null);
+    }
+
+    public GiteaSCMProbe(GiteaApi giteaApi, SCMHead head, SCMRevision revision) {
         this.giteaApi = giteaApi;
         this.name = head.getName();
         //TODO update for pull requests
         this.ref = "refs/heads/" + head.getName();
+        this.hash = revision instanceof AbstractGitSCMSource.SCMRevisionImpl
+                ? ((AbstractGitSCMSource.SCMRevisionImpl) revision).getHash() : null;
     }
 
     @Override
@@ -37,11 +49,20 @@ public class GiteaSCMProbe extends SCMProbe {
     @NonNull
     @Override
     public SCMProbeStat stat(@NonNull String path) throws IOException {
-        boolean exists = giteaApi.checkPathExists(name, path);
-        if(exists) {
-            return SCMProbeStat.fromType(SCMFile.Type.REGULAR_FILE);
+        GiteaFlightRecorder.Span span = GiteaFlightRecorder.begin(GiteaFlightRecorder.Type.PROBE);
+        String outcome = "failed";
+        try {
+            boolean exists = giteaApi.checkPathExists(name, hash, path);
+            outcome = exists ? "exists" : "missing";
+            if(exists) {
+                return SCMProbeStat.fromType(SCMFile.Type.REGULAR_FILE);
+            }
+            return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
+        } finally {
+            if (span != null) {
+                span.end(name + ":" + path, giteaApi.getOwner() + "/" + giteaApi.getRepositoryName(), outcome);
+            }
         }
-        return SCMProbeStat.fromType(SCMFile.Type.NONEXISTENT);
     }
 
     @Override
@@ -26,7 +26,9 @@ package com.cloudbees.jenkins.plugins.gitea;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaBranch;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaRepository;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
 import com.cloudbees.jenkins.plugins.gitea.server.client.repository.GiteaServerRepository;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaScanContext;
 import com.cloudbees.jenkins.plugins.sshcredentials.SSHUserPrivateKey;
 import com.cloudbees.plugins.credentials.CredentialsMatchers;
 import com.cloudbees.plugins.credentials.CredentialsNameProvider;
@@ -110,6 +112,21 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
      */
     private boolean autoRegisterHook = false;
 
+    /**
+     * If true, the branches of the repository are polled for changes, for servers whose webhooks cannot reach us.
+     */
+    private boolean polling = false;
+
+    /**
+     * If true, running builds of a branch are aborted when a build of a newer head of the branch is scheduled.
+     */
+    private boolean supersedeBuilds = false;
+
+    /**
+     * If true, branches are discovered through git ref discovery rather than the branches endpoint of the API.
+     */
+    private boolean gitRefDiscovery = false;
+
     /**
      * Gitea Server URL.
      * An specific HTTP client is used if this field is not null.
@@ -126,6 +143,21 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
      */
     private int buildFailureLabelId = -1;
 
+    /**
+     * Comma separated markers that skip a push when found in the message of its head commit, e.g. "[skip ci]".
+     */
+    private String skipMarkers = "";
+
+    /**
+     * Space separated globs of the paths a push must change to be built, all paths if blank.
+     */
+    private String includedPaths = "";
+
+    /**
+     * Space separated globs of the paths whose changes alone do not trigger a build.
+     */
+    private String excludedPaths = "";
+
     /**
      * Gitea API client connector.
      */
@@ -197,6 +229,33 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
         return autoRegisterHook;
     }
 
+    @DataBoundSetter
+    public void setPolling(boolean polling) {
+        this.polling = polling;
+    }
+
+    public boolean isPolling() {
+        return polling;
+    }
+
+    @DataBoundSetter
+    public void setSupersedeBuilds(boolean supersedeBuilds) {
+        this.supersedeBuilds = supersedeBuilds;
+    }
+
+    public boolean isSupersedeBuilds() {
+        return supersedeBuilds;
+    }
+
+    @DataBoundSetter
+    public void setGitRefDiscovery(boolean gitRefDiscovery) {
+        this.gitRefDiscovery = gitRefDiscovery;
+    }
+
+    public boolean isGitRefDiscovery() {
+        return gitRefDiscovery;
+    }
+
     public int getSshPort() {
         return sshPort;
     }
@@ -215,6 +274,33 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
         this.buildFailureLabelId = buildFailureLabelId;
     }
 
+    public String getSkipMarkers() {
+        return skipMarkers;
+    }
+
+    @DataBoundSetter
+    public void setSkipMarkers(String skipMarkers) {
+        this.skipMarkers = Util.fixNull(skipMarkers).trim();
+    }
+
+    public String getIncludedPaths() {
+        return includedPaths;
+    }
+
+    @DataBoundSetter
+    public void setIncludedPaths(String includedPaths) {
+        this.includedPaths = Util.fixNull(includedPaths).trim();
+    }
+
+    public String getExcludedPaths() {
+        return excludedPaths;
+    }
+
+    @DataBoundSetter
+    public void setExcludedPaths(String excludedPaths) {
+        this.excludedPaths = Util.fixNull(excludedPaths).trim();
+    }
+
     @DataBoundSetter
     public void setGiteaServerUrl(String url) {
         this.giteaServerUrl = Util.fixEmpty(url);
@@ -263,8 +349,14 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
             listener.getLogger().format("Connecting to %s using %s%n", giteaServerUrl == null ? "https://gitea.org" : giteaServerUrl, CredentialsNameProvider.name(scanCredentials));
         }
 
-        // Search branches
-        retrieveBranches(criteria, observer, listener);
+        GiteaScanContext context = GiteaScanContext.open();
+        try {
+            // Search branches
+            retrieveBranches(criteria, observer, listener);
+        } finally {
+            context.close();
+            context.report(listener.getLogger());
+        }
     }
 
     private void retrieveBranches(SCMSourceCriteria criteria, @NonNull final SCMHeadObserver observer, @NonNull TaskListener listener)
@@ -273,7 +365,19 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
         listener.getLogger().println("Looking up " + fullName + " for branches");
 
         final GiteaApi giteaApi = getGiteaConnector().create(repoOwner, repository, getScanCredentials());
-        List<? extends GiteaBranch> branches = giteaApi.getBranches();
+        List<? extends GiteaBranch> branches = includedBranches(giteaApi, observer, listener);
+        if (branches == null) {
+            long started = System.currentTimeMillis();
+            branches = gitRefDiscovery ? giteaApi.getBranchesFromRefs() : giteaApi.getBranches();
+            Map<String, String> heads = new HashMap<>();
+            for (GiteaBranch branch : branches) {
+                if (branch.getCommit() != null) {
+                    heads.put(branch.getName(), branch.getCommit().getHash());
+                }
+            }
+            // lets the scan scheduler know whether the webhook missed updates
+            GiteaWebhookHealth.get().scanned(repoOwner, repository, heads, started);
+        }
         for (GiteaBranch branch : branches) {
             listener.getLogger().println("Checking branch " + branch.getName() + " from " + fullName);
             final String branchName = branch.getName();
@@ -292,18 +396,49 @@ public class GiteaSCMSource extends AbstractGitSCMSource {
                 }
             }
             SCMHead head = new SCMHead(branchName);
-            SCMRevision hash = new AbstractGitSCMSource.SCMRevisionImpl(head, branch.getCommit().getHash());
+            // a head whose push was skipped keeps the revision last worth a build
+            SCMRevision hash = new AbstractGitSCMSource.SCMRevisionImpl(head,
+                    GiteaPushFilter.revision(this, branchName, branch.getCommit().getHash()));
             observer.observe(head, hash);
 
         }
     }
 
+    /**
+     * Fetches only the branches the observer is interested in, when it is only interested in a few of them
+     * (typically while processing a {@link GiteaSCMHeadEvent}).
+     *
+     * @return the branches, or null if all the branches have to be listed
+     */
+    @CheckForNull
+    private List<GiteaBranch> includedBranches(GiteaApi giteaApi, SCMHeadObserver observer, TaskListener listener) {
+        Set<SCMHead> includes = observer.getIncludes();
+        if (includes == null) {
+            return null;
+        }
+        List<GiteaBranch> branches = new ArrayList<>();
+        for (SCMHead head : includes) {
+            try {
+                GiteaBranch branch = giteaApi.getBranch(head.getName());
+                if (branch != null && branch.getCommit() != null) {
+                    branches.add(branch);
+                }
+            } catch (GiteaRequestException e) {
+                if (e.getHttpCode() != 404) {
+                    throw e;
+                }
+                listener.getLogger().println("Branch " + head.getName() + " no longer exists");
+            }
+        }
+        return branches;
+    }
+
     @NonNull
     @Override
     protected SCMProbe createProbe(@NonNull SCMHead head, @CheckForNull final SCMRevision revision) throws IOException {
         // Gitea client and validation
         GiteaApi giteaApi = getGiteaConnector().create(repoOwner, repository, getScanCredentials());
-        return new GiteaSCMProbe(giteaApi, head);
+        return new GiteaSCMProbe(giteaApi, head, revision);
     }
 
     @Override
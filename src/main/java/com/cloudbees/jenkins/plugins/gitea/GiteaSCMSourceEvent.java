@@ -0,0 +1,75 @@
+package com.cloudbees.jenkins.plugins.gitea;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceEvent;
+
+/**
+ * Event about a single Gitea repository appearing or going away, so that organization folders create or remove its
+ * project without rescanning the whole owner.
+ */
+public class GiteaSCMSourceEvent extends SCMSourceEvent<GiteaSCMSourceEvent.Payload> {
+
+    public GiteaSCMSourceEvent(@NonNull Type type, @NonNull Payload payload) {
+        super(type, payload);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@NonNull SCMNavigator navigator) {
+        return navigator instanceof GiteaSCMNavigator
+                && getPayload().getRepoOwner().equalsIgnoreCase(((GiteaSCMNavigator) navigator).getRepoOwner());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isMatch(@NonNull SCMSource source) {
+        return source instanceof GiteaSCMSource
+                && getPayload().getRepoOwner().equalsIgnoreCase(((GiteaSCMSource) source).getRepoOwner())
+                && getPayload().getRepository().equalsIgnoreCase(((GiteaSCMSource) source).getRepository());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @NonNull
+    @Override
+    public String getSourceName() {
+        return getPayload().getRepository();
+    }
+
+    /**
+     * The repository an event is about.
+     */
+    public static class Payload {
+
+        private final String repoOwner;
+
+        private final String repository;
+
+        public Payload(@NonNull String repoOwner, @NonNull String repository) {
+            this.repoOwner = repoOwner;
+            this.repository = repository;
+        }
+
+        public String getRepoOwner() {
+            return repoOwner;
+        }
+
+        public String getRepository() {
+            return repository;
+        }
+
+        @Override
+        public String toString() {
+            return repoOwner + "/" + repository;
+        }
+
+    }
+
+}
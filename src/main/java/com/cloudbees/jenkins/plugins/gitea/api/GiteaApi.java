@@ -23,6 +23,7 @@
  */
 package com.cloudbees.jenkins.plugins.gitea.api;
 
+import java.io.IOException;
 import java.util.List;
 
 import com.cloudbees.jenkins.plugins.gitea.server.client.repository.StatusOptions;
@@ -56,6 +57,24 @@ public interface GiteaApi {
      */
     List<? extends GiteaBranch> getBranches();
 
+    /**
+     * Lists the branches of the repository, unless they did not change since a previous listing.
+     *
+     * @param etag the entity tag of the previous listing, or null
+     * @return the branches, or null if not modified
+     */
+    @CheckForNull
+    GiteaListing<? extends GiteaBranch> getBranchesIfModified(@CheckForNull String etag);
+
+    /**
+     * Lists the branches of the repository through git ref discovery rather than the API, which loads the head commit
+     * of every branch. Much cheaper for the server on repositories with many branches, but the commits of the
+     * branches only have a hash.
+     *
+     * @return the list of branches in the repository.
+     */
+    List<? extends GiteaBranch> getBranchesFromRefs();
+
     /**
      * @return the get branch in repository.
      */
@@ -65,8 +84,10 @@ public interface GiteaApi {
      * Register a webhook on the repository.
      *
      * @param hook the webhook object
+     * @return the registered webhook, or null if it could not be registered
      */
-    void registerCommitWebHook(GiteaWebHook hook);
+    @CheckForNull
+    GiteaWebHook registerCommitWebHook(GiteaWebHook hook);
 
     /**
      * Create issue on repository.
@@ -90,6 +111,13 @@ public interface GiteaApi {
      */
     void removeCommitWebHook(GiteaWebHook hook);
 
+    /**
+     * Asks Gitea to deliver a test push event through a webhook (ID field required) of the repository.
+     *
+     * @param hook the webhook object
+     */
+    void testWebHook(GiteaWebHook hook);
+
     /**
      * @return the list of webhooks registered in the repository.
      */
@@ -105,8 +133,22 @@ public interface GiteaApi {
      * Register a webhook on the organization.
      *
      * @param hook the webhook object
+     * @return the registered webhook, or null if it could not be registered
+     */
+    @CheckForNull
+    GiteaWebHook createOrgWebHook(GiteaWebHook hook);
+
+    /**
+     * @return the list of webhooks registered in the organization.
+     */
+    List<? extends GiteaWebHook> getOrgWebHooks();
+
+    /**
+     * Remove the webhook (ID field required) from the organization.
+     *
+     * @param hook the webhook object
      */
-    void createOrgWebHook(GiteaWebHook hook);
+    void removeOrgWebHook(GiteaWebHook hook);
 
     /**
      * @return Gitea user.
@@ -134,6 +176,18 @@ public interface GiteaApi {
      */
     List<? extends GiteaRepository> getOrgRepositories(GiteaOrganization organization);
 
+    /**
+     * Lists the repositories of the provided organization, or of the current owner when null, unless they did not
+     * change since a previous listing.
+     *
+     * @param organization the organization, or null for a regular user
+     * @param etag the entity tag of the previous listing, or null
+     * @return the repositories, or null if not modified
+     */
+    @CheckForNull
+    GiteaListing<? extends GiteaRepository> getRepositoriesIfModified(@CheckForNull GiteaOrganization organization,
+                                                                      @CheckForNull String etag);
+
     /**
      * @return true if the repository ({@link #getOwner()}/{@link #getRepositoryName()}) is private, false otherwise
      *          (if it's public or does not exists).
@@ -143,7 +197,28 @@ public interface GiteaApi {
 
     /**
      * @return true if the path exists for repository branch.
+     * @throws IOException if the server could not tell, e.g. could not be reached or answered with a server error
      */
-    boolean checkPathExists(String branch, String path);
+    boolean checkPathExists(String branch, String path) throws IOException;
+
+    /**
+     * Same as {@link #checkPathExists(String, String)} for a branch known to point at the given commit. The path is
+     * looked up at that commit, so that the answer can be cached by commit.
+     *
+     * @param hash the head commit of the branch, or null if not known
+     * @return true if the path exists for repository branch.
+     * @throws IOException if the server could not tell, e.g. could not be reached or answered with a server error
+     */
+    boolean checkPathExists(String branch, @CheckForNull String hash, String path) throws IOException;
+
+    /**
+     * Lists the paths changed between two commits, using the compare API of Gitea 1.19+.
+     *
+     * @param base the base commit
+     * @param head the head commit
+     * @return the added, removed or modified paths, or null if the comparison is not available or truncated
+     */
+    @CheckForNull
+    List<String> getChangedPaths(String base, String head);
 
-}
\ No newline at end of file
+}
@@ -1,7 +1,10 @@
 package com.cloudbees.jenkins.plugins.gitea.hooks;
 
 import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
-import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaCreateEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
+
+import org.apache.commons.lang.StringUtils;
 
 import java.util.logging.Logger;
 
@@ -9,19 +12,24 @@ public class CreateHookProcessor extends HookProcessor {
 
     private static final Logger LOGGER = Logger.getLogger(CreateHookProcessor.class.getName());
 
-    //TODO currently the same as PushHookProcessor
     @Override
-    public void process(String payload) {
-        if (payload != null) {
-            // TODO: update to create
-            GiteaPushEvent push = GiteaWebhookPayload.pushEventFromPayload(payload);
-            if (push != null) {
-                String owner = push.getRepository().getOwner().getUsername();
-                String repository = push.getRepository().getName();
-
-                LOGGER.info(String.format("Received hook from Gitea. Processing create event on %s/%s", owner, repository));
-                scmSourceReIndex(owner, repository);
-            }
+    public GiteaWebhookEvent decode(byte[] payload) {
+        return GiteaWebhookPayload.createEventFromPayload(payload, GiteaHookRoutes.get());
+    }
+
+    @Override
+    protected void process(GiteaWebhookEvent event) {
+        GiteaCreateEvent create = (GiteaCreateEvent) event;
+        String owner = create.getRepository().getOwner().getUsername();
+        String repository = create.getRepository().getName();
+
+        LOGGER.info(String.format("Received hook from Gitea. Processing create event on %s/%s", owner, repository));
+        String ref = create.getRef();
+        if ("branch".equals(create.getRefType()) && ref != null && !isNullSha(create.getSha())) {
+            // newer Gitea versions send the full ref name
+            branchUpdated(owner, repository, StringUtils.removeStart(ref, "refs/heads/"), create.getSha(), true);
+        } else {
+            scmSourceReIndex(owner, repository);
         }
     }
 }
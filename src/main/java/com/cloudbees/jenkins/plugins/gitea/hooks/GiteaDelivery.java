@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * An accepted webhook delivery, followed until every update it queued has been dispatched.
+ *
+ * The receiver holds one reference while the payload is processed and each {@link GiteaEventDebouncer} batch the
+ * delivery lands in holds another, as does each event fired for the batch until the event listeners handled it.
+ * Once the last one is released the journal record, if any, is flagged as processed.
+ */
+public class GiteaDelivery {
+
+    private final String event;
+
+    private final String deliveryId;
+
+    private final long receivedAt;
+
+    @CheckForNull
+    private final GiteaEventJournal.Record record;
+
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    public GiteaDelivery(@NonNull String event, @CheckForNull String deliveryId, long receivedAt,
+                         @CheckForNull GiteaEventJournal.Record record) {
+        this.event = event;
+        this.deliveryId = deliveryId;
+        this.receivedAt = receivedAt;
+        this.record = record;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    @CheckForNull
+    public String getDeliveryId() {
+        return deliveryId;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    void retain() {
+        references.incrementAndGet();
+    }
+
+    void release() {
+        if (references.decrementAndGet() == 0 && record != null) {
+            GiteaEventJournal journal = GiteaEventJournal.get();
+            if (journal != null) {
+                journal.markProcessed(record);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return event + " " + deliveryId;
+    }
+
+}
@@ -0,0 +1,396 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaBranchChanges;
+import com.cloudbees.jenkins.plugins.gitea.GiteaPushFilter;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMHeadEvent;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.notification.GiteaPushTrace;
+import com.cloudbees.jenkins.plugins.gitea.notification.GiteaPushTracker;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.security.ACL;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMEventListener;
+import jenkins.scm.api.SCMHeadEvent;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.SCMSourceOwners;
+import jenkins.util.Timer;
+
+/**
+ * Collapses bursts of hook events on the same repository into a single update.
+ *
+ * Events are held until the repository has been quiet for {@code quietMillis}, but never longer than
+ * {@code maxDelayMillis} after the first one. The branches touched by the held events are then dispatched as one
+ * {@link GiteaSCMHeadEvent} per kind of change (created, updated and deleted branches), or as a single full reindex
+ * when the batch contains an event that cannot be targeted or touches too many branches.
+ *
+ * The deliveries of a batch are held until every event fired for it has been handled by the event listeners, so
+ * that the {@link GiteaEventJournal} only flags them as processed once branch-api acted on them.
+ */
+public class GiteaEventDebouncer {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaEventDebouncer.class.getName());
+
+    private static final long QUIET_MILLIS = Long.getLong(GiteaEventDebouncer.class.getName() + ".quietMillis", 3000L);
+
+    private static final long MAX_DELAY_MILLIS = Long.getLong(GiteaEventDebouncer.class.getName() + ".maxDelayMillis", 30000L);
+
+    /**
+     * Batches touching more branches than this are dispatched as a full reindex.
+     */
+    private static final int MAX_TARGETED_BRANCHES = Integer.getInteger(GiteaEventDebouncer.class.getName() + ".maxTargetedBranches", 50);
+
+    private static final GiteaEventDebouncer INSTANCE = new GiteaEventDebouncer(QUIET_MILLIS, MAX_DELAY_MILLIS);
+
+    private final long quietMillis;
+
+    private final long maxDelayMillis;
+
+    /**
+     * Pending batches by "owner/repository".
+     */
+    private final Map<String, Batch> batches = new HashMap<String, Batch>();
+
+    /**
+     * Deliveries of the fired events not yet handled by the listeners, guarded by itself.
+     */
+    private static final Map<SCMHeadEvent<?>, Set<GiteaDelivery>> IN_FLIGHT =
+            new IdentityHashMap<SCMHeadEvent<?>, Set<GiteaDelivery>>();
+
+    public GiteaEventDebouncer(long quietMillis, long maxDelayMillis) {
+        this.quietMillis = quietMillis;
+        this.maxDelayMillis = Math.max(quietMillis, maxDelayMillis);
+    }
+
+    public static GiteaEventDebouncer get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Queues an update of a branch.
+     *
+     * @param owner      the repository owner
+     * @param repository the repository name
+     * @param branch     the branch name
+     * @param sha        the new head commit, or null if the branch was deleted
+     * @param created    whether the branch was created
+     * @param changes    the changes pushed on the branch, if known
+     * @param delivery   the delivery the update comes from, if any
+     */
+    public synchronized void branch(@NonNull String owner, @NonNull String repository, @NonNull String branch,
+                                    @CheckForNull String sha, boolean created, @CheckForNull GiteaBranchChanges changes,
+                                    @CheckForNull GiteaDelivery delivery) {
+        Batch batch = batch(owner, repository, delivery);
+        if (sha == null) {
+            batch.updated.remove(branch);
+            batch.created.remove(branch);
+            batch.changes.remove(branch);
+            batch.origins.remove(branch);
+            batch.deleted.put(branch, null);
+        } else {
+            batch.deleted.remove(branch);
+            boolean first = !batch.updated.containsKey(branch);
+            GiteaBranchChanges previous = batch.changes.get(branch);
+            // the changes of a batch are only known if they are known for every update it holds
+            batch.changes.put(branch, changes == null ? null : first ? changes
+                    : previous == null ? null : previous.then(changes));
+            batch.updated.put(branch, sha);
+            if (created) {
+                batch.created.add(branch);
+            }
+            if (delivery != null && !batch.origins.containsKey(branch)) {
+                batch.origins.put(branch, delivery);
+            }
+        }
+        schedule(batch);
+    }
+
+    /**
+     * Queues a full reindex of the repository.
+     *
+     * @param owner      the repository owner
+     * @param repository the repository name
+     * @param delivery   the delivery the reindex comes from, if any
+     */
+    public synchronized void reindex(@NonNull String owner, @NonNull String repository,
+                                     @CheckForNull GiteaDelivery delivery) {
+        Batch batch = batch(owner, repository, delivery);
+        batch.full = true;
+        schedule(batch);
+    }
+
+    /**
+     * Returns the pending batch of a repository, called with the monitor held.
+     */
+    private Batch batch(String owner, String repository, GiteaDelivery delivery) {
+        String key = owner + "/" + repository;
+        Batch batch = batches.get(key);
+        if (batch == null) {
+            batch = new Batch(key, owner, repository, System.currentTimeMillis());
+            batches.put(key, batch);
+        }
+        if (delivery != null && batch.deliveries.add(delivery)) {
+            delivery.retain();
+        }
+        return batch;
+    }
+
+    /**
+     * (Re)arms the flush of a batch, called with the monitor held.
+     */
+    private void schedule(final Batch batch) {
+        if (batch.flush != null) {
+            batch.flush.cancel(false);
+        }
+        long elapsed = System.currentTimeMillis() - batch.firstEvent;
+        long delay = Math.max(0, Math.min(quietMillis, maxDelayMillis - elapsed));
+        batch.flush = Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                flush(batch);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush(Batch batch) {
+        synchronized (this) {
+            if (batches.get(batch.key) != batch) {
+                // already flushed by an earlier run
+                return;
+            }
+            batches.remove(batch.key);
+        }
+        try {
+            dispatch(batch);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Could not dispatch Gitea events for " + batch.key, e);
+        } finally {
+            for (GiteaDelivery delivery : batch.deliveries) {
+                delivery.release();
+            }
+        }
+    }
+
+    private void dispatch(Batch batch) {
+        int branches = batch.updated.size() + batch.deleted.size();
+        if (batch.full || branches > MAX_TARGETED_BRANCHES) {
+            LOGGER.log(Level.INFO, "Reindexing {0}", batch.key);
+            HookProcessor.reIndex(batch.owner, batch.repository);
+            return;
+        }
+        if (!batch.updated.isEmpty()) {
+            Map<String, String> created = new LinkedHashMap<String, String>();
+            Map<String, String> updated = new LinkedHashMap<String, String>();
+            for (Map.Entry<String, String> branch : batch.updated.entrySet()) {
+                (batch.created.contains(branch.getKey()) ? created : updated).put(branch.getKey(), branch.getValue());
+            }
+            Map<String, GiteaPushTrace> traces = new HashMap<String, GiteaPushTrace>();
+            for (Map.Entry<String, GiteaDelivery> origin : batch.origins.entrySet()) {
+                GiteaDelivery delivery = origin.getValue();
+                traces.put(origin.getKey(), GiteaPushTracker.routed(delivery.getDeliveryId(), delivery.getEvent(),
+                        delivery.getReceivedAt(), batch.owner, batch.repository, origin.getKey(),
+                        batch.updated.get(origin.getKey())));
+            }
+            Map<String, Set<String>> skipped = filter(batch, traces);
+            if (!created.isEmpty()) {
+                GiteaSCMHeadEvent.Payload payload = new GiteaSCMHeadEvent.Payload(batch.owner, batch.repository, created,
+                        batch.changes, traces, skipped);
+                LOGGER.log(Level.INFO, "Firing created event for {0}", payload);
+                fire(new GiteaSCMHeadEvent(SCMEvent.Type.CREATED, payload), batch);
+            }
+            if (!updated.isEmpty()) {
+                GiteaSCMHeadEvent.Payload payload = new GiteaSCMHeadEvent.Payload(batch.owner, batch.repository, updated,
+                        batch.changes, traces, skipped);
+                LOGGER.log(Level.INFO, "Firing updated event for {0}", payload);
+                fire(new GiteaSCMHeadEvent(SCMEvent.Type.UPDATED, payload), batch);
+            }
+        }
+        if (!batch.deleted.isEmpty()) {
+            GiteaSCMHeadEvent.Payload payload = new GiteaSCMHeadEvent.Payload(batch.owner, batch.repository, batch.deleted);
+            LOGGER.log(Level.INFO, "Firing removed event for {0}", payload);
+            fire(new GiteaSCMHeadEvent(SCMEvent.Type.REMOVED, payload), batch);
+        }
+    }
+
+    /**
+     * Fires an event, holding the deliveries of its batch until the listeners handled it.
+     */
+    private static void fire(GiteaSCMHeadEvent event, Batch batch) {
+        Set<GiteaDelivery> deliveries = new LinkedHashSet<GiteaDelivery>(batch.deliveries);
+        for (GiteaDelivery delivery : deliveries) {
+            delivery.retain();
+        }
+        synchronized (IN_FLIGHT) {
+            IN_FLIGHT.put(event, deliveries);
+        }
+        try {
+            SCMHeadEvent.fireNow(event);
+        } catch (RuntimeException e) {
+            handled(event);
+            throw e;
+        }
+    }
+
+    /**
+     * Releases the deliveries of an event once the listeners handled it.
+     */
+    private static void handled(SCMHeadEvent<?> event) {
+        Set<GiteaDelivery> deliveries;
+        synchronized (IN_FLIGHT) {
+            deliveries = IN_FLIGHT.remove(event);
+        }
+        if (deliveries != null) {
+            for (GiteaDelivery delivery : deliveries) {
+                delivery.release();
+            }
+        }
+    }
+
+    /**
+     * Applies the {@link GiteaPushFilter} of every source of the repository to the updated branches, once per
+     * dispatch, rather than every time branch-api asks the event for the heads of a source.
+     *
+     * @return source id to the branches whose update is skipped
+     */
+    private static Map<String, Set<String>> filter(final Batch batch, final Map<String, GiteaPushTrace> traces) {
+        final Map<String, Set<String>> skipped = new HashMap<String, Set<String>>();
+        ACL.impersonate(ACL.SYSTEM, new Runnable() {
+            @Override
+            public void run() {
+                Set<String> seen = new HashSet<String>();
+                for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+                    for (SCMSource source : owner.getSCMSources()) {
+                        if (source instanceof GiteaSCMSource && seen.add(source.getId())
+                                && batch.owner.equalsIgnoreCase(((GiteaSCMSource) source).getRepoOwner())
+                                && batch.repository.equalsIgnoreCase(((GiteaSCMSource) source).getRepository())) {
+                            filter(batch, traces, (GiteaSCMSource) source, skipped);
+                        }
+                    }
+                }
+            }
+        });
+        return skipped;
+    }
+
+    private static void filter(Batch batch, Map<String, GiteaPushTrace> traces, GiteaSCMSource source,
+                               Map<String, Set<String>> skipped) {
+        GiteaPushFilter filter = GiteaPushFilter.of(source);
+        for (String branch : batch.updated.keySet()) {
+            GiteaBranchChanges changes = batch.changes.get(branch);
+            if (filter != null && changes != null && !filter.isRelevant(source, changes)) {
+                LOGGER.log(Level.INFO, "Skipping {0} of {1}/{2} on {3}, nothing to build",
+                        new Object[]{changes, source.getRepoOwner(), source.getRepository(), branch});
+                GiteaPushFilter.skipped(source, branch, changes);
+                Set<String> branches = skipped.get(source.getId());
+                if (branches == null) {
+                    branches = new HashSet<String>();
+                    skipped.put(source.getId(), branches);
+                }
+                branches.add(branch);
+            } else {
+                GiteaPushTracker.resolved(traces.get(branch), source);
+            }
+        }
+    }
+
+    /**
+     * Events held for a repository, guarded by the debouncer monitor.
+     */
+    private static class Batch {
+
+        private final String key;
+
+        private final String owner;
+
+        private final String repository;
+
+        private final long firstEvent;
+
+        private final Map<String, String> updated = new LinkedHashMap<String, String>();
+
+        private final Map<String, String> deleted = new LinkedHashMap<String, String>();
+
+        /**
+         * Changes of the updated branches, null when not known.
+         */
+        private final Map<String, GiteaBranchChanges> changes = new HashMap<String, GiteaBranchChanges>();
+
+        private final Set<GiteaDelivery> deliveries = new LinkedHashSet<GiteaDelivery>();
+
+        /**
+         * First delivery of each updated branch, the start of its push trace.
+         */
+        private final Map<String, GiteaDelivery> origins = new HashMap<String, GiteaDelivery>();
+
+        /**
+         * Updated branches that were created within the batch.
+         */
+        private final Set<String> created = new HashSet<String>();
+
+        private boolean full;
+
+        private ScheduledFuture<?> flush;
+
+        Batch(String key, String owner, String repository, long firstEvent) {
+            this.key = key;
+            this.owner = owner;
+            this.repository = repository;
+            this.firstEvent = firstEvent;
+        }
+
+    }
+
+    /**
+     * Called after the other event listeners, which handle the events in turn, to release the deliveries.
+     */
+    @Extension(ordinal = -1000)
+    public static class Handled extends SCMEventListener {
+
+        @Override
+        public void onSCMHeadEvent(SCMHeadEvent<?> event) {
+            if (event instanceof GiteaSCMHeadEvent) {
+                handled(event);
+            }
+        }
+
+    }
+
+}
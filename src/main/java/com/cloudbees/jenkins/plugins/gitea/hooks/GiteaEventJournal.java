@@ -0,0 +1,421 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import jenkins.model.Jenkins;
+
+/**
+ * Write-ahead journal of accepted webhook deliveries.
+ *
+ * Deliveries are appended to memory-mapped segment files under {@code JENKINS_HOME/gitea-webhooks/journal} before
+ * they are acknowledged, and flagged as processed once the event listeners handled their updates. On startup the
+ * deliveries that were never flagged are replayed, so that a restart only costs the events that were in flight rather
+ * than a full rescan.
+ *
+ * A record is laid out as {@code length (int), state (byte), crc32 (int), timestamp (long), event (UTF),
+ * delivery id (UTF), body length (int), body}. The length is written last, so a record torn by a crash reads as the
+ * end of the segment. Segments are rotated when full and deleted once all their records have been processed.
+ */
+public class GiteaEventJournal {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaEventJournal.class.getName());
+
+    private static final boolean ENABLED = !Boolean.getBoolean(GiteaEventJournal.class.getName() + ".disabled");
+
+    private static final int SEGMENT_SIZE = Integer.getInteger(GiteaEventJournal.class.getName() + ".segmentSize", 16 * 1024 * 1024);
+
+    /**
+     * Whether every append is forced to disk. Without it records survive a crash of the JVM but not of the host.
+     */
+    private static final boolean FORCE = Boolean.getBoolean(GiteaEventJournal.class.getName() + ".force");
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte ACCEPTED = 1;
+
+    private static final byte PROCESSED = 2;
+
+    /**
+     * length + state + crc32 + timestamp.
+     */
+    private static final int HEADER_SIZE = 4 + 1 + 4 + 8;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private static GiteaEventJournal instance;
+
+    private static boolean failed;
+
+    private final File directory;
+
+    private final int segmentSize;
+
+    private final List<Segment> segments = new ArrayList<Segment>();
+
+    private Segment current;
+
+    /**
+     * Records left unprocessed by the previous run, until {@link #recover()} hands them out.
+     */
+    private List<Record> recovered = new ArrayList<Record>();
+
+    public GiteaEventJournal(@NonNull File directory, int segmentSize) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        long lastId = 0;
+        File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                String name = file.getName();
+                if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                    continue;
+                }
+                long id = Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+                lastId = Math.max(lastId, id);
+                Segment segment = Segment.open(id, file, (int) Math.max(file.length(), HEADER_SIZE));
+                List<Record> pending = segment.scan();
+                if (pending.isEmpty()) {
+                    segment.delete();
+                } else {
+                    segment.sealed = true;
+                    segments.add(segment);
+                    recovered.addAll(pending);
+                }
+            }
+        }
+        current = newSegment(lastId + 1);
+    }
+
+    /**
+     * @return the journal of this Jenkins instance, or null if it is disabled or could not be opened
+     */
+    @CheckForNull
+    public static synchronized GiteaEventJournal get() {
+        if (instance == null && ENABLED && !failed) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null) {
+                return null;
+            }
+            try {
+                instance = new GiteaEventJournal(new File(jenkins.getRootDir(), "gitea-webhooks/journal"), SEGMENT_SIZE);
+            } catch (IOException e) {
+                failed = true;
+                LOGGER.log(Level.WARNING, "Could not open the Gitea webhook journal, deliveries will not survive a restart", e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Replays the deliveries left unprocessed by the previous run.
+     */
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void replay() {
+        GiteaEventJournal journal = get();
+        if (journal == null) {
+            return;
+        }
+        List<Record> records = journal.recover();
+        if (!records.isEmpty()) {
+            LOGGER.log(Level.INFO, "Replaying {0} Gitea webhook deliveries received before the restart", records.size());
+        }
+        for (Record record : records) {
+            HookEventType type = HookEventType.fromString(record.getEvent());
+            GiteaDelivery delivery = new GiteaDelivery(record.getEvent(), record.getDeliveryId(), record.getTimestamp(), record);
+            try {
+                if (type != null) {
+                    type.getProcessor().process(delivery, record.getBody());
+                }
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Could not replay Gitea delivery " + record.getDeliveryId(), e);
+            } finally {
+                delivery.release();
+            }
+        }
+    }
+
+    /**
+     * Appends an accepted delivery.
+     *
+     * @return the record, to be flagged with {@link #markProcessed(Record)} once dispatched, or null if the delivery
+     *         is too large to be journaled
+     * @throws IOException if the record could not be written
+     */
+    @CheckForNull
+    public synchronized Record append(@NonNull String event, @CheckForNull String deliveryId, @NonNull byte[] body)
+            throws IOException {
+        long timestamp = System.currentTimeMillis();
+        byte[] eventBytes = event.getBytes(UTF_8);
+        byte[] deliveryBytes = (deliveryId == null ? "" : deliveryId).getBytes(UTF_8);
+        int length = 2 + eventBytes.length + 2 + deliveryBytes.length + 4 + body.length;
+        if (HEADER_SIZE + length + 4 > segmentSize || eventBytes.length > Short.MAX_VALUE
+                || deliveryBytes.length > Short.MAX_VALUE) {
+            LOGGER.log(Level.WARNING, "Gitea delivery {0} is too large to be journaled ({1} bytes)",
+                    new Object[]{deliveryId, body.length});
+            return null;
+        }
+        // keep room for the zero length marking the end of the segment
+        if (current.buffer.capacity() - current.end < HEADER_SIZE + length + 4) {
+            current.sealed = true;
+            if (current.pending == 0) {
+                current.delete();
+            } else {
+                segments.add(current);
+            }
+            current = newSegment(current.id + 1);
+        }
+        MappedByteBuffer buffer = current.buffer;
+        int offset = current.end;
+        CRC32 crc = new CRC32();
+        buffer.position(offset + HEADER_SIZE);
+        buffer.putShort((short) eventBytes.length).put(eventBytes);
+        buffer.putShort((short) deliveryBytes.length).put(deliveryBytes);
+        buffer.putInt(body.length).put(body);
+        buffer.putInt(0);
+        for (int i = offset + HEADER_SIZE; i < offset + HEADER_SIZE + length; i++) {
+            crc.update(buffer.get(i));
+        }
+        buffer.put(offset + 4, ACCEPTED);
+        buffer.putInt(offset + 5, (int) crc.getValue());
+        buffer.putLong(offset + 9, timestamp);
+        // commit point
+        buffer.putInt(offset, length);
+        if (FORCE) {
+            buffer.force();
+        }
+        current.end = offset + HEADER_SIZE + length;
+        current.pending++;
+        return new Record(current, offset, timestamp, event, deliveryId, body);
+    }
+
+    /**
+     * Flags a record as processed, so that it is not replayed.
+     */
+    public synchronized void markProcessed(@NonNull Record record) {
+        Segment segment = record.segment;
+        if (record.processed || segment.deleted) {
+            return;
+        }
+        record.processed = true;
+        segment.buffer.put(record.offset + 4, PROCESSED);
+        segment.pending--;
+        if (segment.sealed && segment.pending == 0) {
+            segments.remove(segment);
+            segment.delete();
+        }
+    }
+
+    /**
+     * @return the records left unprocessed by the previous run, only once
+     */
+    public synchronized List<Record> recover() {
+        List<Record> result = recovered;
+        recovered = new ArrayList<Record>();
+        return result;
+    }
+
+    /**
+     * @return the number of records appended or recovered and not processed yet
+     */
+    public synchronized int getPending() {
+        int pending = current.pending;
+        for (Segment segment : segments) {
+            pending += segment.pending;
+        }
+        return pending;
+    }
+
+    private Segment newSegment(long id) throws IOException {
+        return Segment.open(id, new File(directory, String.format("%s%019d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), segmentSize);
+    }
+
+    /**
+     * A journal segment file, guarded by the journal monitor.
+     */
+    private static class Segment {
+
+        private final long id;
+
+        private final File file;
+
+        private final MappedByteBuffer buffer;
+
+        /**
+         * Offset of the end of the last record.
+         */
+        private int end;
+
+        private int pending;
+
+        /**
+         * Whether records are no longer appended to this segment.
+         */
+        private boolean sealed;
+
+        private boolean deleted;
+
+        private Segment(long id, File file, MappedByteBuffer buffer) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment open(long id, File file, int size) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                // the mapping stays valid once the channel is closed
+                FileChannel channel = raf.getChannel();
+                return new Segment(id, file, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            } finally {
+                raf.close();
+            }
+        }
+
+        /**
+         * Reads the records of a segment written by a previous run.
+         *
+         * @return the records not flagged as processed
+         */
+        List<Record> scan() {
+            List<Record> result = new ArrayList<Record>();
+            int offset = 0;
+            while (offset + HEADER_SIZE + 4 <= buffer.capacity()) {
+                int length = buffer.getInt(offset);
+                if (length <= 0 || offset + HEADER_SIZE + length > buffer.capacity()) {
+                    break;
+                }
+                byte state = buffer.get(offset + 4);
+                int expectedCrc = buffer.getInt(offset + 5);
+                long timestamp = buffer.getLong(offset + 9);
+                CRC32 crc = new CRC32();
+                for (int i = offset + HEADER_SIZE; i < offset + HEADER_SIZE + length; i++) {
+                    crc.update(buffer.get(i));
+                }
+                if ((int) crc.getValue() != expectedCrc) {
+                    LOGGER.log(Level.WARNING, "Corrupted record at {0} in {1}, ignoring the rest of the segment",
+                            new Object[]{offset, file});
+                    break;
+                }
+                if (state == ACCEPTED) {
+                    buffer.position(offset + HEADER_SIZE);
+                    String event = readString(buffer);
+                    String deliveryId = readString(buffer);
+                    byte[] body = new byte[buffer.getInt()];
+                    buffer.get(body);
+                    result.add(new Record(this, offset, timestamp, event, deliveryId.isEmpty() ? null : deliveryId, body));
+                    pending++;
+                }
+                offset += HEADER_SIZE + length;
+            }
+            end = offset;
+            return result;
+        }
+
+        private static String readString(MappedByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getShort()];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        void delete() {
+            deleted = true;
+            if (!file.delete()) {
+                // e.g. on Windows while still mapped, it will be found empty and deleted on next start
+                LOGGER.log(Level.FINE, "Could not delete {0}", file);
+            }
+        }
+
+    }
+
+    /**
+     * A journaled delivery.
+     */
+    public static class Record {
+
+        private final Segment segment;
+
+        private final int offset;
+
+        private final long timestamp;
+
+        private final String event;
+
+        private final String deliveryId;
+
+        private final byte[] body;
+
+        private boolean processed;
+
+        private Record(Segment segment, int offset, long timestamp, String event, String deliveryId, byte[] body) {
+            this.segment = segment;
+            this.offset = offset;
+            this.timestamp = timestamp;
+            this.event = event;
+            this.deliveryId = deliveryId;
+            this.body = body;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getEvent() {
+            return event;
+        }
+
+        @CheckForNull
+        public String getDeliveryId() {
+            return deliveryId;
+        }
+
+        public byte[] getBody() {
+            return body;
+        }
+
+    }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Immutable branch name to head commit index, for snapshots kept between scans of repositories with many branches.
+ *
+ * A {@code Map<String, String>} of 60000 branches retains a map entry, a hash string and its character array per
+ * branch, around 200 bytes before the name. Here names are kept in a sorted array, shared with the previous index of
+ * the same repository when unchanged, and SHA-1 hashes are packed into two longs and an int, 20 bytes each. Hashes in
+ * any other form, e.g. SHA-256 repositories, are kept as strings next to them.
+ */
+public final class GiteaHeadIndex {
+
+    private static final GiteaHeadIndex EMPTY = new GiteaHeadIndex(new String[0], new long[0], new int[0], null);
+
+    /**
+     * Sorted branch names.
+     */
+    private final String[] names;
+
+    /**
+     * First 16 bytes of the hash of {@code names[i]} in {@code words[2 * i]} and {@code words[2 * i + 1]}.
+     */
+    private final long[] words;
+
+    /**
+     * Last 4 bytes of the hash of {@code names[i]}.
+     */
+    private final int[] tails;
+
+    /**
+     * Hashes that are not 40 hexadecimal digits, by index, {@code null} when there are none.
+     */
+    @CheckForNull
+    private final String[] others;
+
+    private GiteaHeadIndex(String[] names, long[] words, int[] tails, @CheckForNull String[] others) {
+        this.names = names;
+        this.words = words;
+        this.tails = tails;
+        this.others = others;
+    }
+
+    /**
+     * @param heads    branch name to head commit
+     * @param previous the index this one replaces, whose names are reused
+     */
+    @NonNull
+    public static GiteaHeadIndex of(@NonNull Map<String, String> heads, @CheckForNull GiteaHeadIndex previous) {
+        if (heads.isEmpty()) {
+            return EMPTY;
+        }
+        String[] names = heads.keySet().toArray(new String[heads.size()]);
+        Arrays.sort(names);
+        long[] words = new long[names.length * 2];
+        int[] tails = new int[names.length];
+        String[] others = null;
+        for (int i = 0; i < names.length; i++) {
+            String hash = heads.get(names[i]);
+            if (previous != null) {
+                int known = previous.indexOf(names[i]);
+                if (known >= 0) {
+                    names[i] = previous.names[known];
+                }
+            }
+            if (!encode(hash, words, tails, i)) {
+                if (others == null) {
+                    others = new String[names.length];
+                }
+                others[i] = hash;
+            }
+        }
+        return new GiteaHeadIndex(names, words, tails, others);
+    }
+
+    public int size() {
+        return names.length;
+    }
+
+    /**
+     * @return the position of the branch, or a negative value when it is not indexed
+     */
+    public int indexOf(@NonNull String name) {
+        return Arrays.binarySearch(names, name);
+    }
+
+    @NonNull
+    public String name(int index) {
+        return names[index];
+    }
+
+    @NonNull
+    public String hash(int index) {
+        if (others != null && others[index] != null) {
+            return others[index];
+        }
+        char[] hash = new char[40];
+        hex(words[2 * index], hash, 0, 16);
+        hex(words[2 * index + 1], hash, 16, 16);
+        hex(tails[index] & 0xFFFFFFFFL, hash, 32, 8);
+        return new String(hash);
+    }
+
+    /**
+     * @return the head commit of the branch, or {@code null} when it is not indexed
+     */
+    @CheckForNull
+    public String get(@NonNull String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : hash(index);
+    }
+
+    /**
+     * Compares two heads without decoding their hashes.
+     */
+    public boolean sameHash(int index, @NonNull GiteaHeadIndex other, int otherIndex) {
+        String hash = others == null ? null : others[index];
+        String otherHash = other.others == null ? null : other.others[otherIndex];
+        if (hash != null || otherHash != null) {
+            return hash != null && hash.equals(otherHash);
+        }
+        return words[2 * index] == other.words[2 * otherIndex]
+                && words[2 * index + 1] == other.words[2 * otherIndex + 1]
+                && tails[index] == other.tails[otherIndex];
+    }
+
+    private static boolean encode(@CheckForNull String hash, long[] words, int[] tails, int index) {
+        if (hash == null || hash.length() != 40) {
+            return false;
+        }
+        long high = 0;
+        long low = 0;
+        long tail = 0;
+        for (int i = 0; i < 40; i++) {
+            char c = hash.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                // decoding would not give the same string back
+                return false;
+            }
+            if (i < 16) {
+                high = high << 4 | digit;
+            } else if (i < 32) {
+                low = low << 4 | digit;
+            } else {
+                tail = tail << 4 | digit;
+            }
+        }
+        words[2 * index] = high;
+        words[2 * index + 1] = low;
+        tails[index] = (int) tail;
+        return true;
+    }
+
+    private static void hex(long value, char[] chars, int offset, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            chars[offset + i] = Character.forDigit((int) (value & 0xF), 16);
+            value >>>= 4;
+        }
+    }
+
+}
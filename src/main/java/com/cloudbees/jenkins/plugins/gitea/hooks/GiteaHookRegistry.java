@@ -0,0 +1,705 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaApiConnector;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMNavigator;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaWebHook;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.GiteaHook;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.HookConfig;
+import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.init.Terminator;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.Item;
+import hudson.model.Saveable;
+import hudson.model.TaskListener;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.ACL;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.SCMSourceOwners;
+import jenkins.util.Timer;
+
+/**
+ * Keeps track of the repositories and organizations carrying the plugin webhook, persisted in
+ * {@code JENKINS_HOME/gitea-webhooks/registry.xml}.
+ *
+ * Each repository records the items whose {@link GiteaSCMSource}s ask for a hook (its reference count) and the id of
+ * the hook as last seen on Gitea, each organization the organization folders whose {@link GiteaSCMNavigator} asks
+ * for one, unless the owner turns out to be a user. When an organization hook preferred over repository hooks is in place, the repository hooks of that owner
+ * are no longer wanted: existing ones are removed and no new ones are created, so that Gitea delivers each event once. Item changes only update the references; the Gitea side is reconciled in batches,
+ * shortly after changes and periodically, with a bounded number of repositories handled in parallel and a lock per
+ * repository. API calls are only made when the wanted and the known states differ, or when the known state has not
+ * been verified for {@code verifyMillis}.
+ */
+public class GiteaHookRegistry implements Saveable {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaHookRegistry.class.getName());
+
+    private static final long RECURRENCE_PERIOD_MILLIS = Long.getLong(GiteaHookRegistry.class.getName() + ".recurrencePeriodMillis", TimeUnit.HOURS.toMillis(1));
+
+    private static final long VERIFY_MILLIS = Long.getLong(GiteaHookRegistry.class.getName() + ".verifyMillis", TimeUnit.DAYS.toMillis(1));
+
+    /**
+     * Delay between an item change and the reconciliation of the repositories it touched, to batch bulk changes.
+     */
+    private static final long BATCH_DELAY_MILLIS = Long.getLong(GiteaHookRegistry.class.getName() + ".batchDelayMillis", 5000L);
+
+    private static final int MAX_PARALLELISM = Integer.getInteger(GiteaHookRegistry.class.getName() + ".maxParallelism", 4);
+
+    private static final int STRIPES = 64;
+
+    /**
+     * Repository name of organization entries.
+     */
+    private static final String ORGANIZATION = "*";
+
+    /**
+     * Hook id of a repository known not to carry the hook.
+     */
+    static final int ABSENT = -1;
+
+    /**
+     * Hook id of a repository whose hook state is not known.
+     */
+    static final int UNKNOWN = 0;
+
+    private static GiteaHookRegistry instance;
+
+    /**
+     * Repositories by {@link #key(String, String, String)}.
+     */
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private transient Set<String> dirty;
+
+    private transient Object[] locks;
+
+    private transient ExecutorService executor;
+
+    private transient boolean scheduled;
+
+    private GiteaHookRegistry() {
+        readResolve();
+    }
+
+    private Object readResolve() {
+        dirty = new HashSet<>();
+        locks = new Object[STRIPES];
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new Object();
+        }
+        executor = Executors.newFixedThreadPool(MAX_PARALLELISM,
+                new NamingThreadFactory(new DaemonThreadFactory(), GiteaHookRegistry.class.getName()));
+        return this;
+    }
+
+    public static synchronized GiteaHookRegistry get() {
+        if (instance == null) {
+            XmlFile file = getConfigFile();
+            if (file.exists()) {
+                try {
+                    instance = (GiteaHookRegistry) file.read();
+                } catch (IOException | ClassCastException e) {
+                    LOGGER.log(Level.WARNING, "Could not load " + file + ", hooks will be verified again", e);
+                }
+            }
+            if (instance == null) {
+                instance = new GiteaHookRegistry();
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Stops the reconciliation threads, pending reconciliations are done again after the restart.
+     */
+    @Terminator
+    public static void shutdown() {
+        GiteaHookRegistry registry;
+        synchronized (GiteaHookRegistry.class) {
+            registry = instance;
+        }
+        if (registry != null) {
+            registry.executor.shutdownNow();
+        }
+    }
+
+    private static XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.getActiveInstance().getRootDir(), "gitea-webhooks/registry.xml"));
+    }
+
+    @Override
+    public synchronized void save() throws IOException {
+        XmlFile file = getConfigFile();
+        file.write(this);
+        SaveableListener.fireOnChange(this, file);
+    }
+
+    private void saveQuietly() {
+        try {
+            save();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not save the Gitea hook registry", e);
+        }
+    }
+
+    /**
+     * Updates the references of an item after it was created or changed.
+     */
+    public void update(@NonNull SCMSourceOwner owner) {
+        if (updateReferences(owner)) {
+            synchronized (this) {
+                saveQuietly();
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * @return whether a reference changed
+     */
+    private boolean updateReferences(SCMSourceOwner owner) {
+        String item = name(owner);
+        Map<String, GiteaSCMSource> wanted = new HashMap<>();
+        for (SCMSource source : owner.getSCMSources()) {
+            if (source instanceof GiteaSCMSource && ((GiteaSCMSource) source).isAutoRegisterHook()) {
+                GiteaSCMSource giteaSource = (GiteaSCMSource) source;
+                wanted.put(key(giteaSource.getGiteaServerUrl(), giteaSource.getRepoOwner(), giteaSource.getRepository()),
+                        giteaSource);
+            }
+        }
+        Map<String, GiteaSCMNavigator> wantedOrganizations = new HashMap<>();
+        if (owner instanceof SCMNavigatorOwner) {
+            for (SCMNavigator navigator : ((SCMNavigatorOwner) owner).getSCMNavigators()) {
+                if (navigator instanceof GiteaSCMNavigator && ((GiteaSCMNavigator) navigator).isAutoRegisterHooks()) {
+                    GiteaSCMNavigator giteaNavigator = (GiteaSCMNavigator) navigator;
+                    wantedOrganizations.put(key(giteaNavigator.getGiteaServerUrl(), giteaNavigator.getRepoOwner(),
+                            ORGANIZATION), giteaNavigator);
+                }
+            }
+        }
+        Set<String> keep = new HashSet<>(wanted.keySet());
+        keep.addAll(wantedOrganizations.keySet());
+        synchronized (this) {
+            boolean changed = release(item, keep);
+            for (Map.Entry<String, GiteaSCMNavigator> navigator : wantedOrganizations.entrySet()) {
+                Entry entry = entries.get(navigator.getKey());
+                GiteaSCMNavigator giteaNavigator = navigator.getValue();
+                if (entry == null) {
+                    entry = new Entry(giteaNavigator.getGiteaServerUrl(), giteaNavigator.getRepoOwner(), null);
+                    entries.put(navigator.getKey(), entry);
+                }
+                entry.context = owner instanceof Item ? (Item) owner : null;
+                entry.credentialsId = giteaNavigator.getCredentialsId();
+                if (entry.orgHookPreferred != giteaNavigator.isOrgHookPreferred()) {
+                    entry.orgHookPreferred = giteaNavigator.isOrgHookPreferred();
+                    dirty.add(navigator.getKey());
+                    changed = true;
+                }
+                if (entry.items.add(item)) {
+                    dirty.add(navigator.getKey());
+                    changed = true;
+                }
+            }
+            for (Map.Entry<String, GiteaSCMSource> source : wanted.entrySet()) {
+                Entry entry = entries.get(source.getKey());
+                GiteaSCMSource giteaSource = source.getValue();
+                if (entry == null) {
+                    entry = new Entry(giteaSource.getGiteaServerUrl(), giteaSource.getRepoOwner(), giteaSource.getRepository());
+                    entries.put(source.getKey(), entry);
+                }
+                entry.source = giteaSource;
+                entry.credentialsId = giteaSource.getCredentialsId();
+                if (entry.items.add(item)) {
+                    dirty.add(source.getKey());
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+    }
+
+    /**
+     * Drops the references of a deleted item.
+     */
+    public synchronized void remove(@NonNull String item) {
+        if (release(item, Collections.<String>emptySet())) {
+            saveQuietly();
+            schedule();
+        }
+    }
+
+    /**
+     * Moves the references of a renamed item.
+     */
+    public synchronized void rename(@NonNull String oldName, @NonNull String newName) {
+        boolean changed = false;
+        for (Entry entry : entries.values()) {
+            if (entry.items.remove(oldName)) {
+                entry.items.add(newName);
+                changed = true;
+            }
+        }
+        if (changed) {
+            saveQuietly();
+        }
+    }
+
+    /**
+     * Recomputes all the references from the items, e.g. after Jenkins started.
+     */
+    public void rebuild() {
+        final List<SCMSourceOwner> owners = new ArrayList<>();
+        ACL.impersonate(ACL.SYSTEM, new Runnable() {
+            @Override
+            public void run() {
+                for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+                    owners.add(owner);
+                }
+            }
+        });
+        Set<String> names = new HashSet<>();
+        boolean changed = false;
+        for (SCMSourceOwner owner : owners) {
+            names.add(name(owner));
+            changed |= updateReferences(owner);
+        }
+        synchronized (this) {
+            // items deleted while Jenkins was down
+            Set<String> gone = new HashSet<>();
+            for (Entry entry : entries.values()) {
+                for (String item : entry.items) {
+                    if (!names.contains(item)) {
+                        gone.add(item);
+                    }
+                }
+            }
+            for (String item : gone) {
+                changed |= release(item, Collections.<String>emptySet());
+            }
+            if (changed) {
+                saveQuietly();
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * Removes an item from the repositories it is no longer wanted on, called with the monitor held.
+     *
+     * @return whether a reference was dropped
+     */
+    private boolean release(String item, Set<String> keep) {
+        boolean changed = false;
+        for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (!keep.contains(entry.getKey()) && entry.getValue().items.remove(item)) {
+                dirty.add(entry.getKey());
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Schedules the reconciliation of the changed repositories, called with the monitor held.
+     */
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        Timer.get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (GiteaHookRegistry.this) {
+                    scheduled = false;
+                }
+                reconcile(false);
+            }
+        }, BATCH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Brings Gitea in line with the registry.
+     *
+     * @param all whether to also verify the repositories not verified for {@code verifyMillis}, otherwise only the
+     *            changed repositories are handled
+     * @return the number of repositories handled
+     */
+    public int reconcile(boolean all) {
+        long now = System.currentTimeMillis();
+        // organizations first, their hooks decide whether the repository hooks are wanted
+        int handled = reconcile(collect(all, true, now));
+        return handled + reconcile(collect(all, false, now));
+    }
+
+    /**
+     * Collects the entries to reconcile and clears their changed flag.
+     */
+    private synchronized List<Callable<Void>> collect(boolean all, boolean organizations, final long now) {
+        List<Callable<Void>> tasks = new ArrayList<>();
+        for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+            if (entry.getValue().isOrganization() != organizations) {
+                continue;
+            }
+            if (dirty.remove(entry.getKey()) || (all && now - entry.getValue().lastVerified > VERIFY_MILLIS)) {
+                tasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        synchronized (locks[(entry.getKey().hashCode() & 0x7fffffff) % STRIPES]) {
+                            reconcile(entry.getKey(), entry.getValue(), now);
+                        }
+                        return null;
+                    }
+                });
+            }
+        }
+        return tasks;
+    }
+
+    private int reconcile(List<Callable<Void>> tasks) {
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+        LOGGER.log(Level.FINE, "Reconciling {0} Gitea hooks", tasks.size());
+        try {
+            for (Future<Void> future : executor.invokeAll(tasks)) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    LOGGER.log(Level.WARNING, "Could not reconcile a Gitea hook", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RejectedExecutionException e) {
+            LOGGER.log(Level.FINE, "Gitea hooks not reconciled, Jenkins is shutting down", e);
+        }
+        saveQuietly();
+        return tasks.size();
+    }
+
+    private void reconcile(String key, Entry entry, long now) {
+        String rootUrl = Jenkins.getActiveInstance().getRootUrl();
+        if (rootUrl == null) {
+            LOGGER.warning("Can not reconcile Gitea hooks, Jenkins root URL is not set");
+            return;
+        }
+        String url = rootUrl + GiteaSCMWebHook.FULL_PATH;
+        boolean wanted;
+        synchronized (this) {
+            wanted = !entry.items.isEmpty() && !isCoveredByOrganization(entry) && !entry.user;
+        }
+        boolean covered = isCovering(entry);
+        boolean verify = now - entry.lastVerified > VERIFY_MILLIS;
+        if (!verify && (wanted ? entry.hookId > 0 : entry.hookId == ABSENT)) {
+            // already in the wanted state
+            forgetIfUnused(key, entry);
+            return;
+        }
+        GiteaApi giteaApi = api(entry);
+        if (giteaApi == null) {
+            return;
+        }
+        String name = entry.isOrganization() ? entry.owner : entry.owner + "/" + entry.repository;
+        try {
+            if (entry.isOrganization() && !entry.items.isEmpty() && (entry.hookId == UNKNOWN || verify)) {
+                entry.user = !isOrganization(giteaApi);
+                if (entry.user) {
+                    // users only have repository hooks, those of the navigated repositories stay wanted
+                    LOGGER.log(Level.FINE, "{0} is not an organization, no organization hook registered", name);
+                    wanted = false;
+                    entry.hookId = ABSENT;
+                }
+            }
+            GiteaWebHook existing = null;
+            if (!entry.user && (entry.hookId <= 0 || verify)) {
+                for (GiteaWebHook hook : entry.isOrganization() ? giteaApi.getOrgWebHooks() : giteaApi.getWebHooks()) {
+                    if (hook.getConfig() != null && url.equals(hook.getConfig().getUrl())) {
+                        existing = hook;
+                        break;
+                    }
+                }
+                entry.hookId = existing == null ? ABSENT : existing.getId();
+            }
+            if (wanted && entry.hookId <= 0) {
+                LOGGER.info(String.format("Registering hook for %s", name));
+                GiteaWebHook created = entry.isOrganization() ? giteaApi.createOrgWebHook(newHook(url))
+                        : giteaApi.registerCommitWebHook(newHook(url));
+                entry.hookId = created == null ? UNKNOWN : created.getId();
+            } else if (!wanted && entry.hookId > 0) {
+                LOGGER.info(String.format("Removing hook for %s", name));
+                GiteaHook hook = new GiteaHook();
+                hook.setId(entry.hookId);
+                try {
+                    if (entry.isOrganization()) {
+                        giteaApi.removeOrgWebHook(hook);
+                    } else {
+                        giteaApi.removeCommitWebHook(hook);
+                    }
+                } catch (GiteaRequestException e) {
+                    if (e.getHttpCode() != 404) {
+                        throw e;
+                    }
+                }
+                entry.hookId = ABSENT;
+            }
+            entry.lastVerified = entry.hookId == UNKNOWN ? 0 : now;
+        } catch (GiteaRequestException e) {
+            LOGGER.log(Level.WARNING, "Could not reconcile the hook of " + name, e);
+            synchronized (this) {
+                // retried with the next batch
+                dirty.add(key);
+            }
+            return;
+        }
+        if (entry.isOrganization() && covered != isCovering(entry)) {
+            // the repository hooks of the owner are now (no longer) redundant
+            synchronized (this) {
+                for (Map.Entry<String, Entry> other : entries.entrySet()) {
+                    if (!other.getValue().isOrganization() && isSameOwner(entry, other.getValue())) {
+                        dirty.add(other.getKey());
+                    }
+                }
+            }
+        }
+        forgetIfUnused(key, entry);
+    }
+
+    /**
+     * @return whether the owner of the API is an organization rather than a user
+     */
+    private static boolean isOrganization(GiteaApi giteaApi) {
+        try {
+            return giteaApi.getOrganization() != null;
+        } catch (GiteaRequestException e) {
+            if (e.getHttpCode() == 404) {
+                return false;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * @return whether the entry is an organization whose hook replaces the hooks of its repositories
+     */
+    private synchronized boolean isCovering(Entry entry) {
+        return entry.isOrganization() && entry.orgHookPreferred && !entry.items.isEmpty() && entry.hookId > 0;
+    }
+
+    /**
+     * @return whether the entry is a repository whose owner hook replaces its own, called with the monitor held
+     */
+    private boolean isCoveredByOrganization(Entry entry) {
+        if (entry.isOrganization()) {
+            return false;
+        }
+        Entry organization = entries.get(key(entry.serverUrl, entry.owner, ORGANIZATION));
+        return organization != null && isCovering(organization);
+    }
+
+    private static boolean isSameOwner(Entry entry, Entry other) {
+        return entry.owner.equalsIgnoreCase(other.owner)
+                && (entry.serverUrl == null ? other.serverUrl == null : entry.serverUrl.equals(other.serverUrl));
+    }
+
+    private synchronized void forgetIfUnused(String key, Entry entry) {
+        if (entry.items.isEmpty() && entry.hookId == ABSENT && entries.get(key) == entry) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return a client for the repository, using the source that last referenced it
+     */
+    @CheckForNull
+    private GiteaApi api(Entry entry) {
+        if (entry.source != null) {
+            return entry.source.buildGiteaClient();
+        }
+        // organizations, or after a restart for a repository no longer referenced
+        StandardUsernamePasswordCredentials credentials =
+                GiteaApiConnector.lookupScanCredentials(entry.context, entry.serverUrl, entry.credentialsId);
+        return entry.isOrganization() ? new GiteaApiConnector(entry.serverUrl).create(entry.owner, credentials)
+                : new GiteaApiConnector(entry.serverUrl).create(entry.owner, entry.repository, credentials);
+    }
+
+    /**
+     * @return the items using the hook of a repository
+     */
+    public synchronized Set<String> getItems(@CheckForNull String serverUrl, @NonNull String owner, @NonNull String repository) {
+        Entry entry = entries.get(key(serverUrl, owner, repository));
+        return entry == null ? Collections.<String>emptySet() : new TreeSet<>(entry.items);
+    }
+
+    /**
+     * @return the id of the plugin hook of a repository, or a negative or zero value if not known to exist
+     */
+    public synchronized int getHookId(@CheckForNull String serverUrl, @NonNull String owner, @NonNull String repository) {
+        Entry entry = entries.get(key(serverUrl, owner, repository));
+        return entry == null ? UNKNOWN : entry.hookId;
+    }
+
+    static GiteaHook newHook(String url) {
+        GiteaHook hook = new GiteaHook();
+        hook.setActive(true);
+        hook.setType("gitea");
+        HookConfig config = new HookConfig();
+        config.setUrl(url);
+        config.setContent_type("json");
+        hook.setConfig(config);
+        //set hook for all event types
+        hook.setEvents(Arrays.asList(HookEventType.PUSH.getKey(), HookEventType.CREATE.getKey(), HookEventType.PULL_REQUEST.getKey()));
+        return hook;
+    }
+
+    static String key(@CheckForNull String serverUrl, @NonNull String owner, @NonNull String repository) {
+        return (serverUrl == null ? "" : serverUrl) + "::" + (owner + "/" + repository).toLowerCase(Locale.ENGLISH);
+    }
+
+    private static String name(SCMSourceOwner owner) {
+        return owner instanceof Item ? ((Item) owner).getFullName() : String.valueOf(owner);
+    }
+
+    /**
+     * A repository or an organization, and the items using its hook.
+     */
+    static class Entry {
+
+        private final String serverUrl;
+
+        private final String owner;
+
+        /**
+         * The repository name, null for an organization.
+         */
+        @CheckForNull
+        private final String repository;
+
+        private String credentialsId;
+
+        /**
+         * For organizations, whether the hook replaces those of the repositories.
+         */
+        private boolean orgHookPreferred;
+
+        /**
+         * For organizations, whether the owner turned out to be a user, who can not carry an organization hook.
+         */
+        private volatile boolean user;
+
+        private final Set<String> items = new TreeSet<>();
+
+        /**
+         * Id of the hook on Gitea, or {@link #ABSENT} or {@link #UNKNOWN}.
+         */
+        private volatile int hookId = UNKNOWN;
+
+        /**
+         * When the hook state was last read from Gitea.
+         */
+        private volatile long lastVerified;
+
+        /**
+         * The source that last referenced the repository.
+         */
+        private transient GiteaSCMSource source;
+
+        /**
+         * The item credentials are looked up from.
+         */
+        private transient Item context;
+
+        Entry(String serverUrl, String owner, String repository) {
+            this.serverUrl = serverUrl;
+            this.owner = owner;
+            this.repository = repository;
+        }
+
+        boolean isOrganization() {
+            return repository == null;
+        }
+
+    }
+
+    /**
+     * Periodically verifies the hooks not verified for {@code verifyMillis}, and retries failed reconciliations.
+     */
+    @Extension
+    public static class Reconciliation extends AsyncPeriodicWork {
+
+        public Reconciliation() {
+            super("Gitea hook reconciliation");
+        }
+
+        @Override
+        public long getRecurrencePeriod() {
+            return RECURRENCE_PERIOD_MILLIS;
+        }
+
+        @Override
+        protected void execute(TaskListener listener) throws IOException, InterruptedException {
+            int handled = get().reconcile(true);
+            listener.getLogger().println("Reconciled the Gitea hooks of " + handled + " repositories");
+        }
+
+    }
+
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMNavigator;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Item;
+import hudson.model.listeners.ItemListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.SCMSourceOwners;
+
+/**
+ * The repositories hooks are routed to: those of a {@link GiteaSCMSource}, and any repository of an owner scanned by a
+ * {@link GiteaSCMNavigator}, so that new repositories are discovered.
+ *
+ * The lookup is a snapshot, rebuilt when items change and at most {@code maxAgeMillis} after it was taken. Owners and
+ * names are compared ignoring case, a hook for a repository that is not routed is dropped without further decoding.
+ */
+public class GiteaHookRoutes implements GiteaWebhookPayload.RepositoryFilter {
+
+    private static final long MAX_AGE_MILLIS = Long.getLong(GiteaHookRoutes.class.getName() + ".maxAgeMillis", 60000L);
+
+    private static final GiteaHookRoutes INSTANCE = new GiteaHookRoutes();
+
+    private volatile Snapshot snapshot;
+
+    public static GiteaHookRoutes get() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean accepts(@NonNull String owner, @NonNull String repository) {
+        Snapshot routes = snapshot;
+        if (routes == null || System.currentTimeMillis() - routes.timestamp > MAX_AGE_MILLIS) {
+            routes = snapshot = Snapshot.take();
+        }
+        String lowerOwner = owner.toLowerCase(Locale.ENGLISH);
+        return routes.owners.contains(lowerOwner)
+                || routes.repositories.contains(lowerOwner + "/" + repository.toLowerCase(Locale.ENGLISH));
+    }
+
+    public void invalidate() {
+        snapshot = null;
+    }
+
+    private static class Snapshot {
+
+        private final long timestamp = System.currentTimeMillis();
+
+        private final Set<String> owners = new HashSet<String>();
+
+        private final Set<String> repositories = new HashSet<String>();
+
+        static Snapshot take() {
+            final Snapshot snapshot = new Snapshot();
+            ACL.impersonate(ACL.SYSTEM, new Runnable() {
+                @Override
+                public void run() {
+                    for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+                        for (SCMSource source : owner.getSCMSources()) {
+                            if (source instanceof GiteaSCMSource) {
+                                GiteaSCMSource giteaSource = (GiteaSCMSource) source;
+                                snapshot.repositories.add((giteaSource.getRepoOwner() + "/"
+                                        + giteaSource.getRepository()).toLowerCase(Locale.ENGLISH));
+                            }
+                        }
+                    }
+                    Jenkins jenkins = Jenkins.getInstance();
+                    for (SCMNavigatorOwner owner : jenkins == null ? Collections.<SCMNavigatorOwner>emptyList()
+                            : jenkins.getAllItems(SCMNavigatorOwner.class)) {
+                        for (SCMNavigator navigator : owner.getSCMNavigators()) {
+                            if (navigator instanceof GiteaSCMNavigator) {
+                                snapshot.owners.add(((GiteaSCMNavigator) navigator).getRepoOwner()
+                                        .toLowerCase(Locale.ENGLISH));
+                            }
+                        }
+                    }
+                }
+            });
+            return snapshot;
+        }
+
+    }
+
+    /**
+     * Drops the snapshot when jobs are added, changed or removed.
+     */
+    @Extension
+    public static class Listener extends ItemListener {
+
+        @Override
+        public void onCreated(Item item) {
+            get().invalidate();
+        }
+
+        @Override
+        public void onUpdated(Item item) {
+            get().invalidate();
+        }
+
+        @Override
+        public void onDeleted(Item item) {
+            get().invalidate();
+        }
+
+        @Override
+        public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+            get().invalidate();
+        }
+
+        @Override
+        public void onLoaded() {
+            get().invalidate();
+        }
+
+    }
+
+}
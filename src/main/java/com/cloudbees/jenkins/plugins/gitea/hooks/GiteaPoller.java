@@ -0,0 +1,273 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMNavigator;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSourceEvent;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaBranch;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaListing;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaOrganization;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRepository;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMEvent;
+import jenkins.scm.api.SCMNavigator;
+import jenkins.scm.api.SCMNavigatorOwner;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceEvent;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.SCMSourceOwners;
+
+/**
+ * Polls the sources and navigators with polling enabled, for Gitea servers whose webhooks cannot reach us.
+ *
+ * Branch and repository listings are requested with the entity tag of the previous listing, so that unchanged ones
+ * cost a 304 response. Changed listings are diffed against the previous one, and the differences are dispatched like
+ * webhook deliveries: branches through the {@link GiteaEventDebouncer}, repositories as {@link GiteaSCMSourceEvent}s.
+ * The first listing after a restart only sets the baseline, the indexing on startup covers what changed meanwhile.
+ */
+@Extension
+public class GiteaPoller extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaPoller.class.getName());
+
+    private static final long INTERVAL_MILLIS = Long.getLong(GiteaPoller.class.getName() + ".intervalMillis", MIN);
+
+    /**
+     * Last branch listings by server and repository. Only accessed by the polling thread.
+     */
+    private final Map<String, BranchSnapshot> branches = new HashMap<>();
+
+    /**
+     * Last repository listings by server and owner. Only accessed by the polling thread.
+     */
+    private final Map<String, RepositorySnapshot> repositories = new HashMap<>();
+
+    public GiteaPoller() {
+        super("Gitea polling");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return INTERVAL_MILLIS;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        final Map<String, GiteaSCMSource> sources = new LinkedHashMap<>();
+        final Map<String, Object[]> navigators = new LinkedHashMap<>();
+        ACL.impersonate(ACL.SYSTEM, new Runnable() {
+            @Override
+            public void run() {
+                for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+                    for (SCMSource source : owner.getSCMSources()) {
+                        if (source instanceof GiteaSCMSource && ((GiteaSCMSource) source).isPolling()) {
+                            GiteaSCMSource giteaSource = (GiteaSCMSource) source;
+                            String key = key(giteaSource.getGiteaServerUrl(), giteaSource.getRepoOwner(), giteaSource.getRepository());
+                            if (!sources.containsKey(key)) {
+                                sources.put(key, giteaSource);
+                            }
+                        }
+                    }
+                }
+                for (SCMNavigatorOwner owner : Jenkins.getInstance().getAllItems(SCMNavigatorOwner.class)) {
+                    for (SCMNavigator navigator : owner.getSCMNavigators()) {
+                        if (navigator instanceof GiteaSCMNavigator && ((GiteaSCMNavigator) navigator).isPolling()) {
+                            GiteaSCMNavigator giteaNavigator = (GiteaSCMNavigator) navigator;
+                            String key = key(giteaNavigator.getGiteaServerUrl(), giteaNavigator.getRepoOwner(), null);
+                            if (!navigators.containsKey(key)) {
+                                navigators.put(key, new Object[]{owner, giteaNavigator});
+                            }
+                        }
+                    }
+                }
+            }
+        });
+        branches.keySet().retainAll(sources.keySet());
+        repositories.keySet().retainAll(navigators.keySet());
+        int changed = 0;
+        for (Map.Entry<String, Object[]> navigator : navigators.entrySet()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                changed += pollRepositories(navigator.getKey(), (SCMNavigatorOwner) navigator.getValue()[0],
+                        (GiteaSCMNavigator) navigator.getValue()[1]);
+            } catch (GiteaRequestException e) {
+                LOGGER.log(Level.FINE, "Could not poll the repositories of " + navigator.getKey(), e);
+            }
+        }
+        for (Map.Entry<String, GiteaSCMSource> source : sources.entrySet()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                changed += pollBranches(source.getKey(), source.getValue());
+            } catch (GiteaRequestException e) {
+                LOGGER.log(Level.FINE, "Could not poll the branches of " + source.getKey(), e);
+            }
+        }
+        listener.getLogger().format("Polled %d repositories and %d owners, %d changes%n",
+                sources.size(), navigators.size(), changed);
+    }
+
+    /**
+     * @return the number of branches created, updated or deleted since the previous poll
+     */
+    private int pollBranches(String key, GiteaSCMSource source) {
+        BranchSnapshot previous = branches.get(key);
+        GiteaListing<? extends GiteaBranch> listing =
+                source.buildGiteaClient().getBranchesIfModified(previous == null ? null : previous.etag);
+        if (listing == null) {
+            return 0;
+        }
+        Map<String, String> heads = new HashMap<>();
+        for (GiteaBranch branch : listing.getItems()) {
+            if (branch.getCommit() != null) {
+                heads.put(branch.getName(), branch.getCommit().getHash());
+            }
+        }
+        GiteaHeadIndex index = GiteaHeadIndex.of(heads, previous == null ? null : previous.heads);
+        branches.put(key, new BranchSnapshot(listing.getEtag(), index));
+        if (previous == null) {
+            return 0;
+        }
+        String owner = source.getRepoOwner();
+        String repository = source.getRepository();
+        int changed = 0;
+        for (int i = 0; i < index.size(); i++) {
+            int known = previous.heads.indexOf(index.name(i));
+            if (known < 0 || !index.sameHash(i, previous.heads, known)) {
+                GiteaEventDebouncer.get().branch(owner, repository, index.name(i), index.hash(i), known < 0,
+                        null, null);
+                changed++;
+            }
+        }
+        for (int i = 0; i < previous.heads.size(); i++) {
+            if (index.indexOf(previous.heads.name(i)) < 0) {
+                GiteaEventDebouncer.get().branch(owner, repository, previous.heads.name(i), null, false, null, null);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @return the number of repositories created or deleted since the previous poll
+     */
+    private int pollRepositories(String key, SCMNavigatorOwner owner, GiteaSCMNavigator navigator) {
+        RepositorySnapshot previous = repositories.get(key);
+        GiteaApi api = navigator.buildGiteaClient(owner);
+        GiteaOrganization organization = previous == null ? api.getOrganization() : previous.organization;
+        GiteaListing<? extends GiteaRepository> listing =
+                api.getRepositoriesIfModified(organization, previous == null ? null : previous.etag);
+        if (listing == null) {
+            return 0;
+        }
+        Set<String> names = new HashSet<>();
+        for (GiteaRepository repository : listing.getItems()) {
+            names.add(repository.getRepositoryName());
+        }
+        repositories.put(key, new RepositorySnapshot(listing.getEtag(), organization, names));
+        if (previous == null) {
+            return 0;
+        }
+        int changed = 0;
+        for (String name : names) {
+            if (!previous.names.contains(name)) {
+                fire(SCMEvent.Type.CREATED, navigator.getRepoOwner(), name);
+                changed++;
+            }
+        }
+        for (String name : previous.names) {
+            if (!names.contains(name)) {
+                fire(SCMEvent.Type.REMOVED, navigator.getRepoOwner(), name);
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private static void fire(SCMEvent.Type type, String owner, String repository) {
+        LOGGER.log(Level.FINE, "Polling found repository {0}/{1} {2}", new Object[]{owner, repository, type});
+        SCMSourceEvent.fireNow(new GiteaSCMSourceEvent(type, new GiteaSCMSourceEvent.Payload(owner, repository)));
+    }
+
+    private static String key(@CheckForNull String serverUrl, String owner, @CheckForNull String repository) {
+        return (serverUrl == null ? "" : serverUrl) + "|" + (owner + "/" + (repository == null ? "*" : repository))
+                .toLowerCase(Locale.ENGLISH);
+    }
+
+    private static final class BranchSnapshot {
+
+        private final String etag;
+
+        /**
+         * Branch name to head commit.
+         */
+        private final GiteaHeadIndex heads;
+
+        BranchSnapshot(String etag, GiteaHeadIndex heads) {
+            this.etag = etag;
+            this.heads = heads;
+        }
+
+    }
+
+    private static final class RepositorySnapshot {
+
+        private final String etag;
+
+        @CheckForNull
+        private final GiteaOrganization organization;
+
+        private final Set<String> names;
+
+        RepositorySnapshot(String etag, @CheckForNull GiteaOrganization organization, Set<String> names) {
+            this.etag = etag;
+            this.organization = organization;
+            this.names = names;
+        }
+
+    }
+
+}
@@ -24,6 +24,7 @@
 package com.cloudbees.jenkins.plugins.gitea.hooks;
 
 import java.io.IOException;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import hudson.security.csrf.CrumbExclusion;
@@ -33,7 +34,9 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaApiMetrics;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
 import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.StaplerRequest;
 
@@ -53,6 +56,29 @@ public class GiteaSCMWebHook extends CrumbExclusion implements UnprotectedRootAc
 
     public static final String FULL_PATH = PATH + "/notify";
 
+    private static final int MAX_PAYLOAD_BYTES = Integer.getInteger(GiteaSCMWebHook.class.getName() + ".maxPayloadBytes", 10 * 1024 * 1024);
+
+    /**
+     * Drops repeated deliveries of the same event.
+     */
+    private final GiteaWebhookDeduplicator deduplicator = new GiteaWebhookDeduplicator();
+
+    public GiteaSCMWebHook() {
+        // the drops, in the API metrics
+        GiteaApiMetrics.register("webhook", "duplicateDeliveries", new GiteaApiMetrics.Counter() {
+            @Override
+            public long get() {
+                return deduplicator.getDuplicateDeliveries();
+            }
+        });
+        GiteaApiMetrics.register("webhook", "duplicateContents", new GiteaApiMetrics.Counter() {
+            @Override
+            public long get() {
+                return deduplicator.getDuplicateContents();
+            }
+        });
+    }
+
     @Override
     public boolean process(HttpServletRequest req, HttpServletResponse resp, FilterChain chain)
     throws IOException, ServletException {
@@ -72,13 +98,15 @@ public class GiteaSCMWebHook extends CrumbExclusion implements UnprotectedRootAc
     /**
      * Receives Gitea push notifications.
      *
-     * @param req Stapler request. It contains the payload in the body content
-     *          and a header param "X-Event-Key" pointing to the event type.
+     * @param req Stapler request. It contains the payload in the body content, up to 10MB by default,
+     *          and a header param "X-Gitea-Event" pointing to the event type.
+     *          Payloads of repositories no job is interested in are acknowledged and dropped.
+     *          Deliveries already seen, by "X-Gitea-Delivery" id or by content, are acknowledged and dropped.
+     *          Others are journaled before being acknowledged, see {@link GiteaEventJournal}.
      * @return the HTTP response object
      * @throws IOException if there is any issue reading the HTTP content payload.
      */
     public HttpResponse doNotify(StaplerRequest req) throws IOException {
-        String body = IOUtils.toString(req.getInputStream());
         String eventKey = req.getHeader("X-Gitea-Event");
         if (eventKey == null) {
             return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "X-Gitea-Event HTTP header not found");
@@ -88,7 +116,49 @@ public class GiteaSCMWebHook extends CrumbExclusion implements UnprotectedRootAc
             LOGGER.info("Received unknown Gitea hook: " + eventKey + ". Skipping.");
             return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "X-Gitea-Event HTTP header invalid: " + eventKey);
         }
-        type.getProcessor().process(body);
+        byte[] body = req.getContentLength() > MAX_PAYLOAD_BYTES ? null
+                : GiteaWebhookPayload.read(req.getInputStream(), MAX_PAYLOAD_BYTES);
+        if (body == null) {
+            return HttpResponses.error(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE,
+                    "Payload larger than " + MAX_PAYLOAD_BYTES + " bytes");
+        }
+        String deliveryId = req.getHeader("X-Gitea-Delivery");
+        if (deduplicator.isDuplicateDelivery(deliveryId)) {
+            LOGGER.log(Level.FINE, "Dropping already received Gitea delivery {0}", deliveryId);
+            return HttpResponses.ok();
+        }
+        HookProcessor processor = type.getProcessor();
+        GiteaWebhookEvent event = processor.decode(body);
+        if (event == null) {
+            return HttpResponses.ok();
+        }
+        String subject = GiteaWebhookPayload.changeSubject(event);
+        String change = event.getChangeKey();
+        if (deduplicator.isDuplicateContent(subject, change)) {
+            LOGGER.log(Level.FINE, "Dropping Gitea delivery {0}, change {1} of {2} already received",
+                    new Object[]{deliveryId, change, subject});
+            return HttpResponses.ok();
+        }
+        GiteaWebhookHealth.get().delivered(event.getRepository().getOwner().getUsername(), event.getRepository().getName());
+        GiteaEventJournal.Record record = null;
+        GiteaEventJournal journal = GiteaEventJournal.get();
+        if (journal != null) {
+            try {
+                record = journal.append(eventKey, deliveryId, body);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not journal Gitea delivery " + deliveryId, e);
+            }
+        }
+        GiteaDelivery delivery = new GiteaDelivery(eventKey, deliveryId, System.currentTimeMillis(), record);
+        try {
+            processor.process(delivery, event);
+        } catch (RuntimeException e) {
+            // let Gitea redeliver it
+            deduplicator.forget(deliveryId, subject, change);
+            throw e;
+        } finally {
+            delivery.release();
+        }
         return HttpResponses.ok();
     }
 
@@ -0,0 +1,164 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.api.GiteaRequestException;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.GiteaHook;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.security.ACL;
+import jenkins.scm.api.SCMSource;
+import jenkins.scm.api.SCMSourceOwner;
+import jenkins.scm.api.SCMSourceOwners;
+
+/**
+ * Scans Gitea repositories as a safety net for missed webhook deliveries, more or less often depending on the
+ * {@link GiteaWebhookHealth} of their hooks: every 15 minutes when broken, every 2 hours when not known and once a
+ * day when healthy. This replaces a fixed periodic scan interval on the multibranch projects.
+ *
+ * Optionally ({@code -D...GiteaScanScheduler.ping=true}), repositories whose hook has been silent for
+ * {@code pingAfterMillis} get a test delivery through the Gitea hook test endpoint, and are considered broken if it
+ * does not arrive.
+ */
+@Extension
+public class GiteaScanScheduler extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaScanScheduler.class.getName());
+
+    private static final boolean DISABLED = Boolean.getBoolean(GiteaScanScheduler.class.getName() + ".disabled");
+
+    private static final long HEALTHY_INTERVAL_MILLIS = Long.getLong(GiteaScanScheduler.class.getName() + ".healthyIntervalMillis", TimeUnit.DAYS.toMillis(1));
+
+    private static final long UNKNOWN_INTERVAL_MILLIS = Long.getLong(GiteaScanScheduler.class.getName() + ".unknownIntervalMillis", TimeUnit.HOURS.toMillis(2));
+
+    private static final long BROKEN_INTERVAL_MILLIS = Long.getLong(GiteaScanScheduler.class.getName() + ".brokenIntervalMillis", TimeUnit.MINUTES.toMillis(15));
+
+    private static final boolean PING = Boolean.getBoolean(GiteaScanScheduler.class.getName() + ".ping");
+
+    private static final long PING_AFTER_MILLIS = Long.getLong(GiteaScanScheduler.class.getName() + ".pingAfterMillis", TimeUnit.HOURS.toMillis(6));
+
+    /**
+     * Maximum number of repositories whose scan is requested per run, to spread the load.
+     */
+    private static final int MAX_SCANS_PER_RUN = Integer.getInteger(GiteaScanScheduler.class.getName() + ".maxScansPerRun", 20);
+
+    private final long started = System.currentTimeMillis();
+
+    public GiteaScanScheduler() {
+        super("Gitea adaptive scan");
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return MIN;
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        if (DISABLED) {
+            return;
+        }
+        final Map<String, List<Object[]>> repositories = new LinkedHashMap<>();
+        ACL.impersonate(ACL.SYSTEM, new Runnable() {
+            @Override
+            public void run() {
+                for (SCMSourceOwner owner : SCMSourceOwners.all()) {
+                    for (SCMSource source : owner.getSCMSources()) {
+                        if (source instanceof GiteaSCMSource) {
+                            GiteaSCMSource giteaSource = (GiteaSCMSource) source;
+                            String key = (giteaSource.getGiteaServerUrl() + " " + giteaSource.getRepoOwner() + "/"
+                                    + giteaSource.getRepository()).toLowerCase(Locale.ENGLISH);
+                            List<Object[]> users = repositories.get(key);
+                            if (users == null) {
+                                users = new ArrayList<>();
+                                repositories.put(key, users);
+                            }
+                            users.add(new Object[]{owner, giteaSource});
+                        }
+                    }
+                }
+            }
+        });
+        GiteaWebhookHealth health = GiteaWebhookHealth.get();
+        long now = System.currentTimeMillis();
+        int scans = 0;
+        for (Map.Entry<String, List<Object[]>> repository : repositories.entrySet()) {
+            GiteaSCMSource first = (GiteaSCMSource) repository.getValue().get(0)[1];
+            String owner = first.getRepoOwner();
+            String name = first.getRepository();
+            GiteaWebhookHealth.Status status = health.getStatus(owner, name);
+            long interval = status == GiteaWebhookHealth.Status.BROKEN ? BROKEN_INTERVAL_MILLIS
+                    : status == GiteaWebhookHealth.Status.UNKNOWN ? UNKNOWN_INTERVAL_MILLIS : HEALTHY_INTERVAL_MILLIS;
+            long lastScan = health.getLastScan(owner, name);
+            if (lastScan == 0) {
+                // not scanned since startup, spread the first scans over the interval
+                lastScan = started - (repository.getKey().hashCode() & 0x7fffffff) % interval;
+            }
+            if (now - lastScan >= interval && scans < MAX_SCANS_PER_RUN) {
+                listener.getLogger().format("Scanning %s/%s, webhook %s%n", owner, name, status);
+                for (Object[] user : repository.getValue()) {
+                    ((SCMSourceOwner) user[0]).onSCMSourceUpdated((SCMSource) user[1]);
+                }
+                health.scanRequested(owner, name);
+                scans++;
+            } else if (PING && status != GiteaWebhookHealth.Status.BROKEN) {
+                long silentSince = Math.max(started, Math.max(health.getLastDelivery(owner, name), health.getLastPing(owner, name)));
+                if (now - silentSince > PING_AFTER_MILLIS) {
+                    ping(first, health, listener);
+                }
+            }
+        }
+    }
+
+    private void ping(GiteaSCMSource source, GiteaWebhookHealth health, TaskListener listener) {
+        int hookId = GiteaHookRegistry.get().getHookId(source.getGiteaServerUrl(), source.getRepoOwner(), source.getRepository());
+        if (hookId <= 0) {
+            // no repository hook of ours, e.g. covered by an organization hook
+            return;
+        }
+        GiteaHook hook = new GiteaHook();
+        hook.setId(hookId);
+        try {
+            source.buildGiteaClient().testWebHook(hook);
+            health.pinged(source.getRepoOwner(), source.getRepository());
+            listener.getLogger().format("Requested a test delivery for %s/%s%n", source.getRepoOwner(), source.getRepository());
+        } catch (GiteaRequestException e) {
+            LOGGER.log(Level.FINE, "Could not test the hook of " + source.getRepoOwner() + "/" + source.getRepository(), e);
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Remembers recently accepted webhook deliveries so that copies of the same event can be dropped.
+ *
+ * Gitea retries deliveries it believes failed (same {@code X-Gitea-Delivery} id), and a repository covered by both an
+ * organization hook and a repository hook gets one delivery per hook for the same change (different ids, same content).
+ * Delivery ids are kept for {@code ttlMillis}. For content, only the latest change of each subject (a ref or a pull
+ * request of a repository) is kept for {@code ttlMillis}, and a delivery is dropped when it repeats that latest change:
+ * a change repeating an earlier one, like a branch deleted and pushed again at the same commit, is accepted. At most
+ * {@code maxEntries} keys of each kind are kept.
+ */
+public class GiteaWebhookDeduplicator {
+
+    private static final long TTL_MILLIS = Long.getLong(GiteaWebhookDeduplicator.class.getName() + ".ttlMillis", TimeUnit.MINUTES.toMillis(10));
+
+    private static final int MAX_ENTRIES = Integer.getInteger(GiteaWebhookDeduplicator.class.getName() + ".maxEntries", 10000);
+
+    private final long ttlMillis;
+
+    private final int maxEntries;
+
+    /**
+     * Key to expiry time, in insertion order so that the oldest entries come first.
+     */
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<String, Long>();
+
+    /**
+     * Subject to its latest change and the expiry time of that change, oldest first.
+     */
+    private final LinkedHashMap<String, Object[]> latest = new LinkedHashMap<String, Object[]>();
+
+    private final AtomicLong duplicateDeliveries = new AtomicLong();
+
+    private final AtomicLong duplicateContents = new AtomicLong();
+
+    public GiteaWebhookDeduplicator() {
+        this(TTL_MILLIS, MAX_ENTRIES);
+    }
+
+    public GiteaWebhookDeduplicator(long ttlMillis, int maxEntries) {
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Records a delivery id.
+     *
+     * @param deliveryId the {@code X-Gitea-Delivery} header, may be null for older Gitea versions
+     * @return true if the delivery was already seen and must be dropped
+     */
+    public boolean isDuplicateDelivery(@CheckForNull String deliveryId) {
+        if (deliveryId == null || !record("delivery:" + deliveryId)) {
+            return false;
+        }
+        duplicateDeliveries.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Records the latest change of a subject, identifying the change independently of the delivery.
+     *
+     * @param subject the repository and the ref or pull request changed, may be null if the payload does not identify
+     *                a single change
+     * @param change  the change, may be null if the payload does not identify a single change
+     * @return true if the change is the latest one of the subject, already delivered, and must be dropped
+     */
+    public boolean isDuplicateContent(@CheckForNull String subject, @CheckForNull String change) {
+        if (subject == null || change == null || !recordLatest(subject, change)) {
+            return false;
+        }
+        duplicateContents.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Forgets a delivery that could not be processed, so that a retry of it is accepted.
+     */
+    public synchronized void forget(@CheckForNull String deliveryId, @CheckForNull String subject,
+                                    @CheckForNull String change) {
+        if (deliveryId != null) {
+            seen.remove("delivery:" + deliveryId);
+        }
+        if (subject != null) {
+            Object[] previous = latest.get(subject);
+            if (previous != null && previous[0].equals(change)) {
+                latest.remove(subject);
+            }
+        }
+    }
+
+    /**
+     * @return true if the change is the latest one of the subject and has not expired
+     */
+    private synchronized boolean recordLatest(String subject, String change) {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<String, Object[]>> it = latest.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Object[]> entry = it.next();
+            if ((Long) entry.getValue()[1] > now && latest.size() < maxEntries) {
+                break;
+            }
+            it.remove();
+        }
+        Object[] previous = latest.get(subject);
+        if (previous != null && previous[0].equals(change)) {
+            // left in place, the duplicate does not extend the window of the change
+            return true;
+        }
+        // moved last, the entries stay ordered by expiry
+        latest.remove(subject);
+        latest.put(subject, new Object[]{change, now + ttlMillis});
+        return false;
+    }
+
+    /**
+     * @return true if the key was already recorded and has not expired
+     */
+    private synchronized boolean record(String key) {
+        long now = System.currentTimeMillis();
+        // all entries share the same TTL, so expired entries are always at the head
+        Iterator<Map.Entry<String, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            if (entry.getValue() > now && seen.size() < maxEntries) {
+                break;
+            }
+            it.remove();
+        }
+        Long expiry = seen.get(key);
+        if (expiry != null && expiry > now) {
+            return true;
+        }
+        seen.put(key, now + ttlMillis);
+        return false;
+    }
+
+    /**
+     * @return the number of deliveries dropped because their id was already seen
+     */
+    public long getDuplicateDeliveries() {
+        return duplicateDeliveries.get();
+    }
+
+    /**
+     * @return the number of deliveries dropped because the same change was already delivered
+     */
+    public long getDuplicateContents() {
+        return duplicateContents.get();
+    }
+
+}
@@ -0,0 +1,271 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Tracks, per repository, whether webhook deliveries can be relied upon.
+ *
+ * A repository is {@link Status#BROKEN} when a full scan found a branch moved past the head last announced by a
+ * delivery, or when a test delivery requested through the Gitea hook test endpoint did not arrive within
+ * {@code pingTimeoutMillis}. It is {@link Status#HEALTHY} once deliveries have been received, and {@link Status#UNKNOWN}
+ * before, or when the repository has been silent for much longer than its usual gap between deliveries. The state is
+ * kept in memory and rebuilt after a restart.
+ */
+public class GiteaWebhookHealth {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaWebhookHealth.class.getName());
+
+    private static final long PING_TIMEOUT_MILLIS = Long.getLong(GiteaWebhookHealth.class.getName() + ".pingTimeoutMillis", TimeUnit.MINUTES.toMillis(10));
+
+    /**
+     * A repository silent for this many times its average gap between deliveries, and at least
+     * {@code minSilenceMillis}, is no longer considered healthy.
+     */
+    private static final int SILENCE_FACTOR = Integer.getInteger(GiteaWebhookHealth.class.getName() + ".silenceFactor", 10);
+
+    private static final long MIN_SILENCE_MILLIS = Long.getLong(GiteaWebhookHealth.class.getName() + ".minSilenceMillis", TimeUnit.HOURS.toMillis(6));
+
+    /**
+     * Number of branch heads remembered per repository.
+     */
+    private static final int MAX_ANNOUNCED = 100;
+
+    private static final GiteaWebhookHealth INSTANCE = new GiteaWebhookHealth();
+
+    public enum Status {
+        HEALTHY, UNKNOWN, BROKEN
+    }
+
+    private final ConcurrentMap<String, Stats> repositories = new ConcurrentHashMap<>();
+
+    public static GiteaWebhookHealth get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Records a delivery for a repository.
+     */
+    public void delivered(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        long now = System.currentTimeMillis();
+        synchronized (stats) {
+            if (stats.lastDelivery > 0) {
+                long gap = now - stats.lastDelivery;
+                stats.averageGap = stats.averageGap == 0 ? gap : (stats.averageGap * 7 + gap) / 8;
+            }
+            stats.lastDelivery = now;
+            stats.deliveries++;
+        }
+    }
+
+    /**
+     * Records the head of a branch announced by a delivery.
+     */
+    public void announced(@NonNull String owner, @NonNull String repository, @NonNull String branch, @NonNull String sha) {
+        Stats stats = stats(owner, repository);
+        long now = System.currentTimeMillis();
+        synchronized (stats) {
+            stats.announced.put(branch, new Head(sha, now));
+        }
+    }
+
+    /**
+     * Records a full scan of a repository and checks that the deliveries announced the heads it found.
+     *
+     * Heads announced after the scan started listing the branches are newer than what it may have found, they are
+     * neither compared nor replaced.
+     *
+     * @param heads the branch heads found by the scan
+     * @param started when the scan started listing the branches
+     */
+    public void scanned(@NonNull String owner, @NonNull String repository, @NonNull Map<String, String> heads,
+                        long started) {
+        Stats stats = stats(owner, repository);
+        int missed = 0;
+        synchronized (stats) {
+            for (Map.Entry<String, String> head : heads.entrySet()) {
+                Head announced = stats.announced.get(head.getKey());
+                if (announced != null && announced.time >= started) {
+                    continue;
+                }
+                if (announced != null && !announced.sha.equals(head.getValue())) {
+                    missed++;
+                }
+                // what deliveries announce next is compared to what is known now
+                stats.announced.put(head.getKey(), new Head(head.getValue(), 0));
+            }
+            stats.missed = missed;
+            stats.lastScan = System.currentTimeMillis();
+        }
+        if (missed > 0) {
+            LOGGER.log(Level.WARNING, "The scan of {0}/{1} found {2} branch updates no webhook delivery announced",
+                    new Object[]{owner, repository, missed});
+        }
+    }
+
+    /**
+     * Records that a test delivery was requested.
+     */
+    public void pinged(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        synchronized (stats) {
+            stats.lastPing = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Records that a scan was requested, so that it is not requested again before it ran.
+     */
+    public void scanRequested(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        synchronized (stats) {
+            stats.lastScan = System.currentTimeMillis();
+        }
+    }
+
+    @NonNull
+    public Status getStatus(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        long now = System.currentTimeMillis();
+        synchronized (stats) {
+            if (stats.missed > 0) {
+                return Status.BROKEN;
+            }
+            if (stats.lastPing > stats.lastDelivery && now - stats.lastPing > PING_TIMEOUT_MILLIS) {
+                return Status.BROKEN;
+            }
+            if (stats.deliveries == 0) {
+                return Status.UNKNOWN;
+            }
+            long silence = now - stats.lastDelivery;
+            if (stats.averageGap > 0 && silence > Math.max(MIN_SILENCE_MILLIS, stats.averageGap * SILENCE_FACTOR)) {
+                return Status.UNKNOWN;
+            }
+            return Status.HEALTHY;
+        }
+    }
+
+    /**
+     * @return when a delivery was last received for the repository, 0 if none was
+     */
+    public long getLastDelivery(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        synchronized (stats) {
+            return stats.lastDelivery;
+        }
+    }
+
+    /**
+     * @return when the repository was last scanned or a scan was requested, 0 if never
+     */
+    public long getLastScan(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        synchronized (stats) {
+            return stats.lastScan;
+        }
+    }
+
+    /**
+     * @return when a test delivery was last requested, 0 if never
+     */
+    public long getLastPing(@NonNull String owner, @NonNull String repository) {
+        Stats stats = stats(owner, repository);
+        synchronized (stats) {
+            return stats.lastPing;
+        }
+    }
+
+    private Stats stats(String owner, String repository) {
+        String key = (owner + "/" + repository).toLowerCase(Locale.ENGLISH);
+        Stats stats = repositories.get(key);
+        if (stats == null) {
+            Stats created = new Stats();
+            stats = repositories.putIfAbsent(key, created);
+            if (stats == null) {
+                stats = created;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Liveness of a repository, guarded by its own monitor.
+     */
+    private static class Stats {
+
+        private long lastDelivery;
+
+        private long deliveries;
+
+        /**
+         * Moving average of the time between deliveries.
+         */
+        private long averageGap;
+
+        private long lastScan;
+
+        private long lastPing;
+
+        /**
+         * Branch updates the last scan found and no delivery announced.
+         */
+        private int missed;
+
+        private final Map<String, Head> announced = new LinkedHashMap<String, Head>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Head> eldest) {
+                return size() > MAX_ANNOUNCED;
+            }
+        };
+
+    }
+
+    /**
+     * The head of a branch and when a delivery announced it, 0 when found by a scan.
+     */
+    private static class Head {
+
+        private final String sha;
+
+        private final long time;
+
+        Head(String sha, long time) {
+            this.sha = sha;
+            this.time = time;
+        }
+
+    }
+
+}
@@ -23,9 +23,17 @@
  */
 package com.cloudbees.jenkins.plugins.gitea.hooks;
 
+import java.nio.charset.Charset;
 import java.util.List;
 
+import com.cloudbees.jenkins.plugins.gitea.GiteaBranchChanges;
 import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaFlightRecorder;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
 
 import hudson.security.ACL;
 import jenkins.scm.api.SCMSource;
@@ -35,21 +43,106 @@ import jenkins.scm.api.SCMSourceOwners;
 /**
  * Abstract hook processor.
  * 
- * Add new hook processors by extending this class and implement {@link #process(String)}, extract owner and repository
- * name from the hook payload and then call {@link #scmSourceReIndex(String, String)} to launch a branch/PR reindexing
- * on the mathing SCMSource.
- * 
- * TODO: Improvement - We could schedule a build only in the affected job instead of running a full reindex (since we
- *       have the branch containing the commit in the hook payload). A full reindex would be forced only when the incoming
- *       hook is resolved to a non-existent job (new branches or new PRs).
+ * Add new hook processors by extending this class: implement {@link #decode(byte[])} to read the payload (see
+ * {@link GiteaWebhookPayload}), and {@link #process(GiteaWebhookEvent)} to call
+ * {@link #branchUpdated(String, String, String, String, boolean)} to fetch the affected branch, or
+ * {@link #scmSourceReIndex(String, String)} to launch a branch/PR reindexing on the matching SCMSource. Both go through
+ * the {@link GiteaEventDebouncer}, so bursts of events on a repository result in a single update.
  */
 public abstract class HookProcessor {
 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The delivery being processed, null when the processor is invoked directly.
+     */
+    private GiteaDelivery delivery;
+
+    /**
+     * Decodes a payload, skipping the repositories no job is interested in.
+     *
+     * @param payload the hook payload
+     * @return the decoded payload, or null if it is unreadable or of no interest
+     */
+    @CheckForNull
+    public abstract GiteaWebhookEvent decode(@NonNull byte[] payload);
+
+    /**
+     * @param event the decoded hook payload
+     */
+    protected abstract void process(@NonNull GiteaWebhookEvent event);
+
+    /**
+     *
+     * @param payload the hook payload
+     */
+    public void process(String payload) {
+        if (payload != null) {
+            process(null, payload.getBytes(UTF_8));
+        }
+    }
+
     /**
+     * Processes the payload of a delivery, which is kept open until the updates it queues have been dispatched.
      *
+     * @param delivery the delivery
      * @param payload the hook payload
      */
-    public abstract void process(String payload);
+    public void process(@CheckForNull GiteaDelivery delivery, @NonNull byte[] payload) {
+        GiteaWebhookEvent event = decode(payload);
+        if (event != null) {
+            process(delivery, event);
+        }
+    }
+
+    /**
+     * Processes an already decoded payload of a delivery.
+     *
+     * @param delivery the delivery
+     * @param event the decoded hook payload
+     */
+    public void process(@CheckForNull GiteaDelivery delivery, @NonNull GiteaWebhookEvent event) {
+        this.delivery = delivery;
+        GiteaFlightRecorder.Span span = GiteaFlightRecorder.begin(GiteaFlightRecorder.Type.WEBHOOK);
+        String outcome = "failed";
+        try {
+            process(event);
+            outcome = "processed";
+        } finally {
+            if (span != null) {
+                span.end(delivery != null ? delivery.getEvent() : getClass().getSimpleName(),
+                        event.getRepository().getOwner().getUsername() + "/" + event.getRepository().getName(), outcome);
+            }
+        }
+    }
+
+    /**
+     * To be called by implementations once a branch and its new head have been extracted from the payload.
+     *
+     * @param owner the repository owner as configured in the SCMSource
+     * @param repository the repository name as configured in the SCMSource
+     * @param branch the branch name
+     * @param sha the new head of the branch, null or all zeros if the branch was deleted
+     * @param created whether the branch was created
+     */
+    protected void branchUpdated(String owner, String repository, String branch, String sha, boolean created) {
+        branchUpdated(owner, repository, branch, sha, created, null);
+    }
+
+    /**
+     * Same as {@link #branchUpdated(String, String, String, String, boolean)}, with the changes listed by the payload
+     * so that sources can skip updates that do not need a build.
+     *
+     * @param changes the changes pushed on the branch, if known
+     */
+    protected void branchUpdated(String owner, String repository, String branch, String sha, boolean created,
+                                 @CheckForNull GiteaBranchChanges changes) {
+        if (!isNullSha(sha)) {
+            GiteaWebhookHealth.get().announced(owner, repository, branch, sha);
+        }
+        GiteaEventDebouncer.get().branch(owner, repository, branch, isNullSha(sha) ? null : sha, created,
+                created ? null : changes, delivery);
+    }
 
     /**
      * To be called by implementations once the owner and the repository have been extracted from the payload.
@@ -58,6 +151,20 @@ public abstract class HookProcessor {
      * @param repository the repository name as configured in the SCMSource
      */
     protected void scmSourceReIndex(final String owner, final String repository) {
+        GiteaEventDebouncer.get().reindex(owner, repository, delivery);
+    }
+
+    protected static boolean isNullSha(String sha) {
+        return GiteaBranchChanges.isNullSha(sha);
+    }
+
+    /**
+     * Launches a branch/PR reindexing on every SCMSource matching the repository.
+     *
+     * @param owner the repository owner as configured in the SCMSource
+     * @param repository the repository name as configured in the SCMSource
+     */
+    static void reIndex(final String owner, final String repository) {
         ACL.impersonate(ACL.SYSTEM, new Runnable() {
             @Override 
             public void run() {
@@ -1,26 +1,29 @@
 package com.cloudbees.jenkins.plugins.gitea.hooks;
 
 import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
-import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPullRequestEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
 
 import java.util.logging.Logger;
 
 public class PullRequestHookProcessor extends HookProcessor {
 
-    private static final Logger LOGGER = Logger.getLogger(PushHookProcessor.class.getName());
+    private static final Logger LOGGER = Logger.getLogger(PullRequestHookProcessor.class.getName());
 
     @Override
-    public void process(String payload) {
-        if (payload != null) {
-            GiteaPushEvent push = GiteaWebhookPayload.pushEventFromPayload(payload);
-            if (push != null) {
-                String owner = push.getRepository().getOwner().getUsername();
-                String repository = push.getRepository().getName();
-
-                LOGGER.info(String.format("Received hook from Gitea. Processing push event on %s/%s", owner, repository));
-                scmSourceReIndex(owner, repository);
-            }
-        }
+    public GiteaWebhookEvent decode(byte[] payload) {
+        return GiteaWebhookPayload.pullRequestEventFromPayload(payload, GiteaHookRoutes.get());
+    }
+
+    @Override
+    protected void process(GiteaWebhookEvent event) {
+        GiteaPullRequestEvent pullRequest = (GiteaPullRequestEvent) event;
+        String owner = pullRequest.getRepository().getOwner().getUsername();
+        String repository = pullRequest.getRepository().getName();
+
+        LOGGER.info(String.format("Received hook from Gitea. Processing pull request #%d %s event on %s/%s",
+                pullRequest.getNumber(), pullRequest.getAction(), owner, repository));
+        scmSourceReIndex(owner, repository);
     }
 
 }
@@ -25,25 +25,36 @@ package com.cloudbees.jenkins.plugins.gitea.hooks;
 
 import java.util.logging.Logger;
 
+import com.cloudbees.jenkins.plugins.gitea.GiteaBranchChanges;
 import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaWebhookPayload;
 import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
 
 public class PushHookProcessor extends HookProcessor {
 
     private static final Logger LOGGER = Logger.getLogger(PushHookProcessor.class.getName());
 
+    private static final String BRANCH_REF_PREFIX = "refs/heads/";
+
     @Override
-    public void process(String payload) {
-        if (payload != null) {
-            // TODO: generalize this for BB server
-            GiteaPushEvent push = GiteaWebhookPayload.pushEventFromPayload(payload);
-            if (push != null) {
-                String owner = push.getRepository().getOwner().getUsername();
-                String repository = push.getRepository().getName();
-
-                LOGGER.info(String.format("Received hook from Gitea. Processing push event on %s/%s", owner, repository));
-                scmSourceReIndex(owner, repository);
-            }
+    public GiteaWebhookEvent decode(byte[] payload) {
+        return GiteaWebhookPayload.pushEventFromPayload(payload, GiteaHookRoutes.get());
+    }
+
+    @Override
+    protected void process(GiteaWebhookEvent event) {
+        // TODO: generalize this for BB server
+        GiteaPushEvent push = (GiteaPushEvent) event;
+        String owner = push.getRepository().getOwner().getUsername();
+        String repository = push.getRepository().getName();
+
+        LOGGER.info(String.format("Received hook from Gitea. Processing push event on %s/%s", owner, repository));
+        String ref = push.getRef();
+        if (ref != null && ref.startsWith(BRANCH_REF_PREFIX) && push.getAfter() != null) {
+            branchUpdated(owner, repository, ref.substring(BRANCH_REF_PREFIX.length()), push.getAfter(),
+                    isNullSha(push.getBefore()), GiteaBranchChanges.of(push));
+        } else {
+            scmSourceReIndex(owner, repository);
         }
     }
 
@@ -2,6 +2,7 @@ package com.cloudbees.jenkins.plugins.gitea.notification;
 
 import com.cloudbees.jenkins.plugins.gitea.GiteaApiConnector;
 import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import com.cloudbees.jenkins.plugins.gitea.server.client.GiteaFlightRecorder;
 import com.cloudbees.jenkins.plugins.gitea.Messages;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaApi;
 import com.cloudbees.jenkins.plugins.gitea.api.GiteaRepository;
@@ -40,6 +41,7 @@ import java.util.logging.Logger;
  * Job (associated to a PR) scheduled: PENDING
  * Build doing a checkout: PENDING
  * Build done: SUCCESS, FAILURE, WARNING or ERROR
+ * Build aborted by a newer one: ERROR, described as superseded
  *
  */
 public class GiteaBuildStatusNotification {
@@ -97,6 +99,8 @@ public class GiteaBuildStatusNotification {
                                 statusOptions = createCommitStatus(repo, StatusState.WARNING, url, Messages.GiteaBuildStatusNotification_CommitStatus_Unstable(), job, buildFailureLabelId);
                             } else if (Result.FAILURE.equals(result)) {
                                 statusOptions = createCommitStatus(repo, StatusState.FAILURE, url, Messages.GiteaBuildStatusNotification_CommitStatus_Failure(), job, buildFailureLabelId);
+                            } else if (Result.ABORTED.equals(result) && GiteaBuildSuperseder.isSuperseded(build)) {
+                                statusOptions = createCommitStatus(repo, StatusState.ERROR, url, Messages.GiteaBuildStatusNotification_CommitStatus_Superseded(), job, buildFailureLabelId);
                             } else if (!Result.SUCCESS.equals(result) && result != null) { // ABORTED etc.
                                 statusOptions = createCommitStatus(repo, StatusState.ERROR, url, Messages.GiteaBuildStatusNotification_CommitStatus_Other(), job, buildFailureLabelId);
                             } else {
@@ -105,7 +109,16 @@ public class GiteaBuildStatusNotification {
                             }
                             if (statusOptions != null && revisionToNotify != null) {
                                 LOGGER.info("create status for sha: " + revisionToNotify);
-                                giteaApi.createStatus(statusOptions, revisionToNotify);
+                                GiteaFlightRecorder.Span span = GiteaFlightRecorder.begin(GiteaFlightRecorder.Type.STATUS);
+                                String outcome = "failed";
+                                try {
+                                    giteaApi.createStatus(statusOptions, revisionToNotify);
+                                    outcome = String.valueOf(statusOptions.getState());
+                                } finally {
+                                    if (span != null) {
+                                        span.end(revisionToNotify, source.getRepoOwner() + "/" + source.getRepository(), outcome);
+                                    }
+                                }
                             }
                             if (result != null) {
                                 listener.getLogger().format("%n" + Messages.GiteaBuildStatusNotification_CommitStatusSet() + "%n%n");
@@ -0,0 +1,159 @@
+package com.cloudbees.jenkins.plugins.gitea.notification;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import hudson.Extension;
+import hudson.model.Computer;
+import hudson.model.Executor;
+import hudson.model.InvisibleAction;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.Result;
+import hudson.model.Run;
+import hudson.model.queue.QueueListener;
+import jenkins.branch.MultiBranchProject;
+import jenkins.model.CauseOfInterruption;
+import jenkins.plugins.git.AbstractGitSCMSource.SCMRevisionImpl;
+import jenkins.scm.api.SCMRevision;
+import jenkins.scm.api.SCMRevisionAction;
+import jenkins.scm.api.SCMSource;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Aborts the running builds of a branch job once a build of a newer head of the branch is scheduled, for the sources
+ * with {@link GiteaSCMSource#isSupersedeBuilds()} enabled. The commit status of the aborted builds is then set to
+ * error and described as superseded, rather than as a broken build.
+ *
+ * Queued builds need no cancelling: a job is queued at most once, and its build checks out the latest head.
+ */
+public class GiteaBuildSuperseder {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaBuildSuperseder.class.getName());
+
+    /**
+     * Number of most recent builds of a job checked for running ones.
+     */
+    private static final int MAX_RUNNING_BUILDS = Integer.getInteger(GiteaBuildSuperseder.class.getName() + ".maxRunningBuilds", 10);
+
+    private GiteaBuildSuperseder() {}
+
+    /**
+     * @return true if the build was aborted because a newer head of its branch was scheduled
+     */
+    public static boolean isSuperseded(@Nonnull Run<?, ?> build) {
+        return build.getAction(SupersededAction.class) != null;
+    }
+
+    /**
+     * @return the head commit of the branch of the job as last seen by its multibranch project, or null if unknown
+     */
+    @CheckForNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static String latestHash(@Nonnull Job<?, ?> job) {
+        ItemGroup<?> parent = job.getParent();
+        if (!(parent instanceof MultiBranchProject)) {
+            return null;
+        }
+        SCMRevision revision = ((MultiBranchProject) parent).getProjectFactory().getRevision(job);
+        return revision instanceof SCMRevisionImpl ? ((SCMRevisionImpl) revision).getHash() : null;
+    }
+
+    /**
+     * Aborts the running builds of the job which checked out another commit than the given one.
+     */
+    private static void supersede(@Nonnull Job<?, ?> job, @Nonnull String hash) {
+        for (Run<?, ?> build : job.getBuilds().limit(MAX_RUNNING_BUILDS)) {
+            if (!build.isBuilding() || isSuperseded(build)) {
+                continue;
+            }
+            SCMRevisionAction action = build.getAction(SCMRevisionAction.class);
+            if (action == null || !(action.getRevision() instanceof SCMRevisionImpl)
+                    || hash.equals(((SCMRevisionImpl) action.getRevision()).getHash())) {
+                // not checked out yet, or already building the latest head
+                continue;
+            }
+            Executor executor = build.getExecutor();
+            if (executor == null) {
+                continue;
+            }
+            LOGGER.log(Level.INFO, "Aborting {0}, superseded by commit {1}", new Object[]{build, hash});
+            build.addAction(new SupersededAction(hash));
+            executor.interrupt(Result.ABORTED, new SupersededCause(hash));
+        }
+    }
+
+    /**
+     * Supersedes the running builds of a job when a new build of it is scheduled.
+     */
+    @Extension
+    public static class JobScheduledListener extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            if (!(wi.task instanceof Job)) {
+                return;
+            }
+            final Job<?, ?> job = (Job) wi.task;
+            SCMSource source = SCMSource.SourceByItem.findSource(job);
+            if (!(source instanceof GiteaSCMSource) || !((GiteaSCMSource) source).isSupersedeBuilds()) {
+                return;
+            }
+            // keep loading builds and interrupting executors out of the queue lock
+            Computer.threadPoolForRemoting.submit(new Runnable() {
+                @Override
+                public void run() {
+                    String hash = latestHash(job);
+                    if (hash != null) {
+                        supersede(job, hash);
+                    }
+                }
+            });
+        }
+
+    }
+
+    /**
+     * Marks a build aborted because a newer head was scheduled.
+     */
+    public static class SupersededAction extends InvisibleAction {
+
+        private final String hash;
+
+        public SupersededAction(String hash) {
+            this.hash = hash;
+        }
+
+        /**
+         * @return the commit whose build superseded this one
+         */
+        public String getHash() {
+            return hash;
+        }
+
+    }
+
+    /**
+     * Reported in the log of the aborted builds.
+     */
+    public static class SupersededCause extends CauseOfInterruption {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String hash;
+
+        public SupersededCause(String hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public String getShortDescription() {
+            return "Superseded by a build of commit " + hash;
+        }
+
+    }
+
+}
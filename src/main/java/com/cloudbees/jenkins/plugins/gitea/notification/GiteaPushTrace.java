@@ -0,0 +1,172 @@
+package com.cloudbees.jenkins.plugins.gitea.notification;
+
+import hudson.model.InvisibleAction;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+
+/**
+ * Timings of a push, from the webhook delivery to the start of the build of the pushed head.
+ *
+ * Created when the update of the branch is dispatched, it travels with the {@link com.cloudbees.jenkins.plugins.gitea.GiteaSCMHeadEvent}
+ * and is then attached to the queue item of the branch job, and so to its build. Times are in milliseconds since the
+ * epoch, 0 when the stage has not been reached.
+ */
+@ExportedBean
+public class GiteaPushTrace extends InvisibleAction {
+
+    @CheckForNull
+    private final String deliveryId;
+
+    private final String event;
+
+    private final String owner;
+
+    private final String repository;
+
+    private final String branch;
+
+    private final String hash;
+
+    @CheckForNull
+    private String server;
+
+    private final long acceptedAt;
+
+    private final long routedAt;
+
+    private long resolvedAt;
+
+    private long scheduledAt;
+
+    private long startedAt;
+
+    public GiteaPushTrace(@CheckForNull String deliveryId, @Nonnull String event, long acceptedAt,
+                          @Nonnull String owner, @Nonnull String repository, @Nonnull String branch,
+                          @Nonnull String hash, long routedAt) {
+        this.deliveryId = deliveryId;
+        this.event = event;
+        this.acceptedAt = acceptedAt;
+        this.owner = owner;
+        this.repository = repository;
+        this.branch = branch;
+        this.hash = hash;
+        this.routedAt = routedAt;
+    }
+
+    /**
+     * @return the {@code X-Gitea-Delivery} id of the delivery, if Gitea sent one
+     */
+    @CheckForNull
+    @Exported
+    public String getDeliveryId() {
+        return deliveryId;
+    }
+
+    @Exported
+    public String getEvent() {
+        return event;
+    }
+
+    @Exported
+    public String getOwner() {
+        return owner;
+    }
+
+    @Exported
+    public String getRepository() {
+        return repository;
+    }
+
+    @Exported
+    public String getBranch() {
+        return branch;
+    }
+
+    @Exported
+    public String getHash() {
+        return hash;
+    }
+
+    /**
+     * @return the URL of the Gitea server of the source the head was resolved by, if it was resolved
+     */
+    @CheckForNull
+    @Exported
+    public synchronized String getServer() {
+        return server;
+    }
+
+    /**
+     * @return when the webhook delivery was accepted
+     */
+    @Exported
+    public long getAcceptedAt() {
+        return acceptedAt;
+    }
+
+    /**
+     * @return when the update of the branch left the debouncer as an event
+     */
+    @Exported
+    public long getRoutedAt() {
+        return routedAt;
+    }
+
+    /**
+     * @return when a matching source first resolved the pushed head from the event
+     */
+    @Exported
+    public synchronized long getResolvedAt() {
+        return resolvedAt;
+    }
+
+    /**
+     * @return when a build of the branch job was scheduled
+     */
+    @Exported
+    public synchronized long getScheduledAt() {
+        return scheduledAt;
+    }
+
+    /**
+     * @return when that build started
+     */
+    @Exported
+    public synchronized long getStartedAt() {
+        return startedAt;
+    }
+
+    synchronized void resolved(@CheckForNull String server) {
+        if (resolvedAt == 0) {
+            this.server = server;
+            this.resolvedAt = System.currentTimeMillis();
+        }
+    }
+
+    synchronized void scheduled() {
+        if (scheduledAt == 0) {
+            scheduledAt = System.currentTimeMillis();
+        }
+    }
+
+    synchronized boolean started() {
+        if (startedAt != 0) {
+            return false;
+        }
+        startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return event + " " + deliveryId + " of " + owner + "/" + repository + " " + branch + "@" + hash
+                + ": routed +" + (routedAt - acceptedAt) + "ms"
+                + ", resolved +" + (resolvedAt == 0 ? "?" : (resolvedAt - acceptedAt) + "ms")
+                + ", scheduled +" + (scheduledAt == 0 ? "?" : (scheduledAt - acceptedAt) + "ms")
+                + ", started +" + (startedAt == 0 ? "?" : (startedAt - acceptedAt) + "ms");
+    }
+
+}
@@ -0,0 +1,318 @@
+package com.cloudbees.jenkins.plugins.gitea.notification;
+
+import com.cloudbees.jenkins.plugins.gitea.GiteaSCMSource;
+import hudson.Extension;
+import hudson.model.ItemGroup;
+import hudson.model.Job;
+import hudson.model.Queue;
+import hudson.model.RootAction;
+import hudson.model.Run;
+import hudson.model.TaskListener;
+import hudson.model.listeners.RunListener;
+import hudson.model.queue.QueueListener;
+import jenkins.branch.Branch;
+import jenkins.branch.MultiBranchProject;
+import jenkins.model.Jenkins;
+import jenkins.scm.api.SCMSource;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Follows pushes from their webhook delivery to the start of their build, see {@link GiteaPushTrace}.
+ *
+ * The trace of the latest push of each branch waits here until a build of the branch job is scheduled. When that
+ * build starts, the latency of every stage since the delivery was accepted is added to the histograms of the server
+ * and repository, served as JSON to administrators at {@code /gitea-push-latency/}.
+ */
+public class GiteaPushTracker {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaPushTracker.class.getName());
+
+    /**
+     * Push to build start latency objective, builds starting later are counted as misses.
+     */
+    private static final long SLO_MILLIS = Long.getLong(GiteaPushTracker.class.getName() + ".sloMillis", 30000L);
+
+    /**
+     * Traces of pushes whose build has not been scheduled after this long are dropped.
+     */
+    private static final long EXPIRY_MILLIS = Long.getLong(GiteaPushTracker.class.getName() + ".expiryMillis", 60 * 60 * 1000L);
+
+    /**
+     * Upper bounds of the latency buckets in milliseconds, the last bucket being unbounded.
+     */
+    private static final long[] BUCKETS = {1000, 2000, 5000, 10000, 15000, 20000, 30000, 45000, 60000, 120000, 300000};
+
+    private static final String[] STAGES = {"routed", "resolved", "scheduled", "started"};
+
+    /**
+     * Traces waiting for a build, by "owner/repository/branch".
+     */
+    private static final ConcurrentMap<String, GiteaPushTrace> PENDING = new ConcurrentHashMap<>();
+
+    /**
+     * Stage latencies by server then "owner/repository".
+     */
+    private static final ConcurrentMap<String, Latencies> LATENCIES = new ConcurrentHashMap<>();
+
+    private GiteaPushTracker() {}
+
+    /**
+     * Starts tracing the update of a branch, as it leaves the debouncer.
+     *
+     * @return the trace, to be carried by the event
+     */
+    @Nonnull
+    public static GiteaPushTrace routed(@CheckForNull String deliveryId, @Nonnull String event, long acceptedAt,
+                                        @Nonnull String owner, @Nonnull String repository, @Nonnull String branch,
+                                        @Nonnull String hash) {
+        long now = System.currentTimeMillis();
+        GiteaPushTrace trace = new GiteaPushTrace(deliveryId, event, acceptedAt, owner, repository, branch, hash, now);
+        PENDING.put(key(owner, repository, branch), trace);
+        for (Iterator<GiteaPushTrace> it = PENDING.values().iterator(); it.hasNext(); ) {
+            if (it.next().getRoutedAt() < now - EXPIRY_MILLIS) {
+                it.remove();
+            }
+        }
+        return trace;
+    }
+
+    /**
+     * Records that the pushed head was resolved for a source, which will be offered the event carrying the trace.
+     */
+    public static void resolved(@CheckForNull GiteaPushTrace trace, @Nonnull GiteaSCMSource source) {
+        if (trace != null) {
+            trace.resolved(source.getGiteaServerUrl());
+        }
+    }
+
+    private static String key(String owner, String repository, String branch) {
+        return owner.toLowerCase(Locale.ENGLISH) + "/" + repository.toLowerCase(Locale.ENGLISH) + "/" + branch;
+    }
+
+    /**
+     * @return the name of the branch built by the job, or null if it is not a branch job
+     */
+    @CheckForNull
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static String branchName(@Nonnull Job<?, ?> job) {
+        ItemGroup<?> parent = job.getParent();
+        if (!(parent instanceof MultiBranchProject)) {
+            return null;
+        }
+        Branch branch = ((MultiBranchProject) parent).getProjectFactory().getBranch(job);
+        return branch == null ? null : branch.getHead().getName();
+    }
+
+    /**
+     * Attaches the trace of the latest push of a branch to the queue item of its job.
+     */
+    @Extension
+    public static class JobScheduledListener extends QueueListener {
+
+        @Override
+        public void onEnterWaiting(Queue.WaitingItem wi) {
+            if (!(wi.task instanceof Job) || PENDING.isEmpty()) {
+                return;
+            }
+            Job<?, ?> job = (Job) wi.task;
+            SCMSource source = SCMSource.SourceByItem.findSource(job);
+            String branch = branchName(job);
+            if (!(source instanceof GiteaSCMSource) || branch == null) {
+                return;
+            }
+            GiteaSCMSource giteaSource = (GiteaSCMSource) source;
+            String key = key(giteaSource.getRepoOwner(), giteaSource.getRepository(), branch);
+            GiteaPushTrace trace = PENDING.get(key);
+            if (trace == null || trace.getResolvedAt() == 0 || !PENDING.remove(key, trace)) {
+                // not scheduled because of the push
+                return;
+            }
+            trace.scheduled();
+            wi.addAction(trace);
+        }
+
+    }
+
+    /**
+     * Completes the trace of a build when it starts, the queue item actions having been copied to the build.
+     */
+    @Extension
+    public static class JobStartedListener extends RunListener<Run<?, ?>> {
+
+        @Override
+        public void onStarted(Run<?, ?> build, TaskListener listener) {
+            GiteaPushTrace trace = build.getAction(GiteaPushTrace.class);
+            if (trace == null || !trace.started()) {
+                return;
+            }
+            LOGGER.log(Level.FINE, "Traced {0}: {1}", new Object[]{build, trace});
+            String server = String.valueOf(trace.getServer());
+            String repository = trace.getOwner() + "/" + trace.getRepository();
+            String key = server + " " + repository;
+            Latencies latencies = LATENCIES.get(key);
+            if (latencies == null) {
+                Latencies created = new Latencies(server, repository);
+                latencies = LATENCIES.putIfAbsent(key, created);
+                if (latencies == null) {
+                    latencies = created;
+                }
+            }
+            latencies.record(trace);
+        }
+
+    }
+
+    /**
+     * Serves the latency histograms.
+     */
+    @Extension
+    public static class LatencyAction implements RootAction {
+
+        @Override
+        public String getIconFileName() {
+            return null;
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "Gitea push latency";
+        }
+
+        @Override
+        public String getUrlName() {
+            return "gitea-push-latency";
+        }
+
+        public HttpResponse doIndex() {
+            Jenkins.getActiveInstance().checkPermission(Jenkins.ADMINISTER);
+            return new HttpResponse() {
+                @Override
+                public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node)
+                        throws IOException, ServletException {
+                    rsp.setContentType("application/json;charset=UTF-8");
+                    rsp.getWriter().print(toJSON().toString(2));
+                }
+            };
+        }
+
+        private static JSONObject toJSON() {
+            Map<String, Map<String, JSONObject>> servers = new TreeMap<>();
+            for (Latencies latencies : LATENCIES.values()) {
+                Map<String, JSONObject> repositories = servers.get(latencies.server);
+                if (repositories == null) {
+                    repositories = new TreeMap<>();
+                    servers.put(latencies.server, repositories);
+                }
+                repositories.put(latencies.repository, latencies.toJSON());
+            }
+            JSONObject result = new JSONObject();
+            for (Map.Entry<String, Map<String, JSONObject>> server : servers.entrySet()) {
+                JSONObject repositories = new JSONObject();
+                repositories.putAll(server.getValue());
+                result.put(server.getKey(), repositories);
+            }
+            return result;
+        }
+
+    }
+
+    /**
+     * Latency histograms of the stages of the pushes to a repository, measured from the accepted delivery.
+     */
+    private static class Latencies {
+
+        private final String server;
+
+        private final String repository;
+
+        private final AtomicLong count = new AtomicLong();
+
+        private final AtomicLong sloMisses = new AtomicLong();
+
+        /**
+         * Counts by stage then latency bucket, the last bucket of a stage counting the latencies above every bound.
+         */
+        private final AtomicLongArray buckets = new AtomicLongArray(STAGES.length * (BUCKETS.length + 1));
+
+        private final AtomicLongArray totals = new AtomicLongArray(STAGES.length);
+
+        Latencies(String server, String repository) {
+            this.server = server;
+            this.repository = repository;
+        }
+
+        void record(GiteaPushTrace trace) {
+            long[] stages = {trace.getRoutedAt(), trace.getResolvedAt(), trace.getScheduledAt(), trace.getStartedAt()};
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                long latency = Math.max(0, stages[stage] - trace.getAcceptedAt());
+                int bucket = 0;
+                while (bucket < BUCKETS.length && latency > BUCKETS[bucket]) {
+                    bucket++;
+                }
+                buckets.incrementAndGet(stage * (BUCKETS.length + 1) + bucket);
+                totals.addAndGet(stage, latency);
+            }
+            count.incrementAndGet();
+            if (trace.getStartedAt() - trace.getAcceptedAt() > SLO_MILLIS) {
+                sloMisses.incrementAndGet();
+            }
+        }
+
+        /**
+         * Estimates a latency percentile of a stage as the upper bound of its bucket, -1 above every bound.
+         */
+        private long percentile(int stage, long total, double percentile) {
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKETS.length; bucket++) {
+                seen += buckets.get(stage * (BUCKETS.length + 1) + bucket);
+                if (seen >= rank) {
+                    return BUCKETS[bucket];
+                }
+            }
+            return -1;
+        }
+
+        JSONObject toJSON() {
+            long total = count.get();
+            JSONObject json = new JSONObject();
+            json.put("count", total);
+            json.put("sloMillis", SLO_MILLIS);
+            json.put("sloMisses", sloMisses.get());
+            for (int stage = 0; stage < STAGES.length; stage++) {
+                JSONObject histogram = new JSONObject();
+                for (int bucket = 0; bucket <= BUCKETS.length; bucket++) {
+                    histogram.put(bucket < BUCKETS.length ? "le" + BUCKETS[bucket] : "inf",
+                            buckets.get(stage * (BUCKETS.length + 1) + bucket));
+                }
+                JSONObject latencies = new JSONObject();
+                latencies.put("meanMillis", total == 0 ? 0 : totals.get(stage) / total);
+                latencies.put("p50Millis", total == 0 ? 0 : percentile(stage, total, 50));
+                latencies.put("p99Millis", total == 0 ? 0 : percentile(stage, total, 99));
+                latencies.put("histogramMillis", histogram);
+                json.put(STAGES[stage], latencies);
+            }
+            return json;
+        }
+
+    }
+
+}
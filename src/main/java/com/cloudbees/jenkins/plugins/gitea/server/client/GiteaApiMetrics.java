@@ -0,0 +1,454 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.metrics.api.Metrics;
+import jenkins.model.Jenkins;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Counts, response bytes and latency histograms of the Gitea API requests, by server, logical endpoint and status
+ * class.
+ *
+ * Recording is lock-free: a request updates a few atomic counters of a recorder that is only created the first time its
+ * combination of server, endpoint and status class is seen. The latency histograms have fixed buckets, so percentiles
+ * are estimated as the upper bound of the bucket they fall into.
+ *
+ * The metrics are exposed as JSON by {@link GiteaApiMetricsAction} and, when the Metrics plugin is installed, as gauges
+ * named {@code gitea.api.<server>.<endpoint>.<status class>.*}. The calls made and coalesced by the
+ * {@link GiteaSingleFlight} of each server are reported along, under {@code singleFlight}, and other components can
+ * report {@link Counter}s of their own, by group.
+ */
+public final class GiteaApiMetrics {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaApiMetrics.class.getName());
+
+    /**
+     * Whether the recording is disabled.
+     */
+    private static final boolean DISABLED = Boolean.getBoolean(GiteaApiMetrics.class.getName() + ".disabled");
+
+    /**
+     * Upper bounds of the latency buckets in milliseconds, the last bucket being unbounded.
+     */
+    private static final long[] BUCKETS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+    /**
+     * Status class of requests that got no response.
+     */
+    public static final String ERROR = "error";
+
+    private static final Pattern API_PATH = Pattern.compile(
+            "/api/v1/(?:(repos)/[^/]+/[^/]+(?:/([a-z]+)(/.*)?)?|(orgs|users)/[^/]+(?:/([a-z]+).*)?|(user))/?");
+
+    private static final Pattern REPOSITORY_PATH = Pattern.compile(
+            "/api/v1/(?:repos/([^/?]+/[^/?]+)|(?:orgs|users)/([^/?]+))|([^/?]+/[^/?]+)\\.git/");
+
+    private static final ConcurrentMap<String, Recorder> RECORDERS = new ConcurrentHashMap<String, Recorder>();
+
+    private static final ConcurrentMap<String, GiteaSingleFlight> SINGLE_FLIGHTS = new ConcurrentHashMap<String, GiteaSingleFlight>();
+
+    /**
+     * Counters by group, then by name.
+     */
+    private static final ConcurrentMap<String, ConcurrentMap<String, Counter>> COUNTERS =
+            new ConcurrentHashMap<String, ConcurrentMap<String, Counter>>();
+
+    private GiteaApiMetrics() {
+    }
+
+    /**
+     * Records a request.
+     *
+     * @param server the Gitea server URL
+     * @param path   the request path
+     * @param status the response status, or -1 if no response was received
+     * @param bytes  the length of the response body
+     * @param nanos  the time taken by the request
+     */
+    public static void record(@CheckForNull String server, @NonNull String path, int status, long bytes, long nanos) {
+        if (DISABLED) {
+            return;
+        }
+        String endpoint = endpoint(path);
+        String statusClass = status < 100 ? ERROR : (status / 100) + "xx";
+        String key = server + ' ' + endpoint + ' ' + statusClass;
+        Recorder recorder = RECORDERS.get(key);
+        if (recorder == null) {
+            Recorder created = new Recorder(String.valueOf(server), endpoint, statusClass);
+            recorder = RECORDERS.putIfAbsent(key, created);
+            if (recorder == null) {
+                recorder = created;
+                MetricsBridge.register(recorder);
+            }
+        }
+        recorder.record(bytes, nanos);
+    }
+
+    /**
+     * Reports the calls made and coalesced by the single flight of a server.
+     *
+     * @param server       the Gitea server URL
+     * @param singleFlight the single flight of its connection
+     */
+    static void register(@CheckForNull String server, @NonNull final GiteaSingleFlight singleFlight) {
+        String name = String.valueOf(server);
+        if (DISABLED || SINGLE_FLIGHTS.putIfAbsent(name, singleFlight) != null) {
+            return;
+        }
+        String prefix = MetricRegistry.name("gitea.api", name.replaceFirst("^https?://", ""), "singleFlight");
+        MetricsBridge.register(MetricRegistry.name(prefix, "calls"), new Counter() {
+            @Override
+            public long get() {
+                return singleFlight.getCalls();
+            }
+        });
+        MetricsBridge.register(MetricRegistry.name(prefix, "coalesced"), new Counter() {
+            @Override
+            public long get() {
+                return singleFlight.getCoalesced();
+            }
+        });
+    }
+
+    /**
+     * Reports a counter, in the JSON under its group and, when the Metrics plugin is installed, as the gauge
+     * {@code gitea.<group>.<name>}. A counter registered again under the same name is ignored.
+     *
+     * @param group   the group of the counter, such as {@code webhook}
+     * @param name    the name of the counter within its group
+     * @param counter the counter
+     */
+    public static void register(@NonNull String group, @NonNull String name, @NonNull Counter counter) {
+        if (DISABLED) {
+            return;
+        }
+        ConcurrentMap<String, Counter> counters = COUNTERS.get(group);
+        if (counters == null) {
+            ConcurrentMap<String, Counter> created = new ConcurrentHashMap<String, Counter>();
+            counters = COUNTERS.putIfAbsent(group, created);
+            if (counters == null) {
+                counters = created;
+            }
+        }
+        if (counters.putIfAbsent(name, counter) == null) {
+            MetricsBridge.register(MetricRegistry.name("gitea", group, name), counter);
+        }
+    }
+
+    /**
+     * Maps a request path to its logical endpoint, such as {@code branches}, {@code raw}, {@code org} or {@code git}
+     * for git ref discovery.
+     */
+    @NonNull
+    static String endpoint(@NonNull String path) {
+        int query = path.indexOf('?');
+        String file = query < 0 ? path : path.substring(0, query);
+        if (file.endsWith(".git/info/refs") || file.endsWith(".git/git-upload-pack")) {
+            return "git";
+        }
+        int api = path.indexOf("/api/v1/");
+        Matcher matcher = API_PATH.matcher(path.substring(Math.max(api, 0), query < 0 ? path.length() : query));
+        if (api < 0 || !matcher.matches()) {
+            return "other";
+        }
+        if (matcher.group(1) != null) {
+            String resource = matcher.group(2);
+            if (resource == null) {
+                return "repo";
+            }
+            if ("branches".equals(resource) && matcher.group(3) != null && matcher.group(3).length() > 1) {
+                return "branch";
+            }
+            return resource;
+        }
+        if (matcher.group(4) != null) {
+            String resource = matcher.group(5);
+            if (resource == null) {
+                return "orgs".equals(matcher.group(4)) ? "org" : "user";
+            }
+            return resource;
+        }
+        return "user";
+    }
+
+    /**
+     * Extracts the repository ({@code owner/name}), or the owner, a request path is about.
+     */
+    @CheckForNull
+    static String repository(@NonNull String path) {
+        Matcher matcher = REPOSITORY_PATH.matcher(path);
+        if (!matcher.find()) {
+            return null;
+        }
+        return matcher.group(1) != null ? matcher.group(1) : matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+    }
+
+    /**
+     * Returns the metrics recorded so far, by server then by endpoint, followed by the counters by group.
+     */
+    @NonNull
+    public static JSONObject toJSON() {
+        Map<String, Map<String, JSONArray>> servers = new TreeMap<String, Map<String, JSONArray>>();
+        for (Recorder recorder : RECORDERS.values()) {
+            Map<String, JSONArray> endpoints = servers.get(recorder.server);
+            if (endpoints == null) {
+                endpoints = new TreeMap<String, JSONArray>();
+                servers.put(recorder.server, endpoints);
+            }
+            JSONArray statuses = endpoints.get(recorder.endpoint);
+            if (statuses == null) {
+                statuses = new JSONArray();
+                endpoints.put(recorder.endpoint, statuses);
+            }
+            statuses.add(recorder.toJSON());
+        }
+        for (String server : SINGLE_FLIGHTS.keySet()) {
+            if (!servers.containsKey(server)) {
+                servers.put(server, new TreeMap<String, JSONArray>());
+            }
+        }
+        JSONObject result = new JSONObject();
+        for (Map.Entry<String, Map<String, JSONArray>> server : servers.entrySet()) {
+            JSONObject endpoints = new JSONObject();
+            for (Map.Entry<String, JSONArray> endpoint : server.getValue().entrySet()) {
+                endpoints.put(endpoint.getKey(), endpoint.getValue());
+            }
+            GiteaSingleFlight singleFlight = SINGLE_FLIGHTS.get(server.getKey());
+            if (singleFlight != null) {
+                JSONObject flights = new JSONObject();
+                flights.put("calls", singleFlight.getCalls());
+                flights.put("coalesced", singleFlight.getCoalesced());
+                endpoints.put("singleFlight", flights);
+            }
+            result.put(server.getKey(), endpoints);
+        }
+        Map<String, ConcurrentMap<String, Counter>> groups = new TreeMap<String, ConcurrentMap<String, Counter>>(COUNTERS);
+        for (Map.Entry<String, ConcurrentMap<String, Counter>> group : groups.entrySet()) {
+            JSONObject counters = new JSONObject();
+            for (Map.Entry<String, Counter> counter : new TreeMap<String, Counter>(group.getValue()).entrySet()) {
+                counters.put(counter.getKey(), counter.getValue().get());
+            }
+            result.put(group.getKey(), counters);
+        }
+        return result;
+    }
+
+    /**
+     * A figure reported besides the requests.
+     */
+    public interface Counter {
+
+        long get();
+
+    }
+
+    /**
+     * Requests of one server and endpoint answered with one status class.
+     */
+    static final class Recorder {
+
+        final String server;
+
+        final String endpoint;
+
+        final String statusClass;
+
+        final AtomicLong count = new AtomicLong();
+
+        final AtomicLong bytes = new AtomicLong();
+
+        final AtomicLong nanos = new AtomicLong();
+
+        final AtomicLong maxNanos = new AtomicLong();
+
+        /**
+         * Counts by latency bucket, the last one counting requests slower than every bound.
+         */
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKETS.length + 1);
+
+        Recorder(String server, String endpoint, String statusClass) {
+            this.server = server;
+            this.endpoint = endpoint;
+            this.statusClass = statusClass;
+        }
+
+        void record(long bytes, long nanos) {
+            this.count.incrementAndGet();
+            this.bytes.addAndGet(bytes);
+            this.nanos.addAndGet(nanos);
+            long max;
+            while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+                // retry
+            }
+            long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+            int bucket = 0;
+            while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+                bucket++;
+            }
+            buckets.incrementAndGet(bucket);
+        }
+
+        long meanMillis() {
+            long count = this.count.get();
+            return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(nanos.get() / count);
+        }
+
+        /**
+         * Estimates a latency percentile as the upper bound of its bucket, or the maximum for the unbounded bucket.
+         */
+        long percentileMillis(double percentile) {
+            long total = 0;
+            long[] counts = new long[buckets.length()];
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = buckets.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(total * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return BUCKETS[i];
+                }
+            }
+            return TimeUnit.NANOSECONDS.toMillis(maxNanos.get());
+        }
+
+        JSONObject toJSON() {
+            JSONObject histogram = new JSONObject();
+            for (int i = 0; i < BUCKETS.length; i++) {
+                histogram.put("le" + BUCKETS[i], buckets.get(i));
+            }
+            histogram.put("inf", buckets.get(BUCKETS.length));
+            JSONObject json = new JSONObject();
+            json.put("status", statusClass);
+            json.put("count", count.get());
+            json.put("bytes", bytes.get());
+            json.put("meanMillis", meanMillis());
+            json.put("p50Millis", percentileMillis(50));
+            json.put("p99Millis", percentileMillis(99));
+            json.put("maxMillis", TimeUnit.NANOSECONDS.toMillis(maxNanos.get()));
+            json.put("histogramMillis", histogram);
+            return json;
+        }
+
+    }
+
+    /**
+     * Registers the recorders with the Metrics plugin. Only loaded when the plugin is installed, as it is optional.
+     */
+    private static final class MetricsBridge {
+
+        static void register(final Recorder recorder) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+                return;
+            }
+            try {
+                Gauges.register(recorder);
+            } catch (LinkageError | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not register the metrics of " + recorder.endpoint, e);
+            }
+        }
+
+        static void register(String name, Counter counter) {
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins == null || jenkins.getPlugin("metrics") == null) {
+                return;
+            }
+            try {
+                Gauges.register(name, counter);
+            } catch (LinkageError | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not register the metric " + name, e);
+            }
+        }
+
+    }
+
+    private static final class Gauges {
+
+        static void register(final Recorder recorder) {
+            MetricRegistry registry = Metrics.metricRegistry();
+            String prefix = MetricRegistry.name("gitea.api", recorder.server.replaceFirst("^https?://", ""),
+                    recorder.endpoint, recorder.statusClass);
+            registry.register(MetricRegistry.name(prefix, "count"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return recorder.count.get();
+                }
+            });
+            registry.register(MetricRegistry.name(prefix, "bytes"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return recorder.bytes.get();
+                }
+            });
+            registry.register(MetricRegistry.name(prefix, "meanMillis"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return recorder.meanMillis();
+                }
+            });
+            registry.register(MetricRegistry.name(prefix, "p99Millis"), new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return recorder.percentileMillis(99);
+                }
+            });
+        }
+
+        static void register(String name, final Counter counter) {
+            Metrics.metricRegistry().register(name, new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return counter.get();
+                }
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HttpStatus;
+
+/**
+ * Circuit breaker guarding a single Gitea server.
+ *
+ * After {@code failureThreshold} consecutive failures (I/O errors or 502, 503 and 504 responses, which say that the
+ * server as a whole is unavailable, unlike other 5xx responses) the circuit opens and requests fail
+ * immediately instead of waiting on socket timeouts. Once {@code openMillis} have elapsed the circuit half-opens and lets
+ * a single probe request through: its success closes the circuit, its failure opens it again.
+ */
+public class GiteaCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaCircuitBreaker.class.getName());
+
+    private static final int FAILURE_THRESHOLD = Integer.getInteger(GiteaCircuitBreaker.class.getName() + ".failureThreshold", 5);
+
+    private static final long OPEN_MILLIS = Long.getLong(GiteaCircuitBreaker.class.getName() + ".openMillis", TimeUnit.SECONDS.toMillis(30));
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final String serverURL;
+
+    private final int failureThreshold;
+
+    private final long openMillis;
+
+    private State state = State.CLOSED;
+
+    private int consecutiveFailures;
+
+    private long openedAt;
+
+    private boolean probeInFlight;
+
+    public GiteaCircuitBreaker(String serverURL) {
+        this(serverURL, FAILURE_THRESHOLD, OPEN_MILLIS);
+    }
+
+    public GiteaCircuitBreaker(String serverURL, int failureThreshold, long openMillis) {
+        this.serverURL = serverURL;
+        this.failureThreshold = Math.max(1, failureThreshold);
+        this.openMillis = openMillis;
+    }
+
+    /**
+     * Checks whether a request may be sent. Every successful call must be followed by {@link #onResult(int)}.
+     *
+     * @throws OpenException if the circuit is open
+     */
+    public synchronized void beforeRequest() throws OpenException {
+        switch (state) {
+            case CLOSED:
+                return;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < openMillis) {
+                    throw new OpenException(serverURL);
+                }
+                state = State.HALF_OPEN;
+                LOGGER.log(Level.INFO, "Probing {0} after {1} ms", new Object[]{serverURL, openMillis});
+                probeInFlight = true;
+                return;
+            case HALF_OPEN:
+            default:
+                if (probeInFlight) {
+                    throw new OpenException(serverURL);
+                }
+                probeInFlight = true;
+        }
+    }
+
+    /**
+     * Records the outcome of a request allowed by {@link #beforeRequest()}.
+     *
+     * @param status the response status, or a value less than or equal to 0 if no response was received
+     */
+    public synchronized void onResult(int status) {
+        if (!isFailure(status)) {
+            if (state != State.CLOSED) {
+                LOGGER.log(Level.INFO, "{0} is back, closing the circuit", serverURL);
+            }
+            state = State.CLOSED;
+            consecutiveFailures = 0;
+            probeInFlight = false;
+            return;
+        }
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            if (state != State.OPEN) {
+                LOGGER.log(Level.WARNING, "{0} failed {1} times in a row, failing fast for {2} ms",
+                        new Object[]{serverURL, consecutiveFailures, openMillis});
+            }
+            state = State.OPEN;
+            openedAt = System.currentTimeMillis();
+            probeInFlight = false;
+        }
+    }
+
+    /**
+     * Gives back a request allowed by {@link #beforeRequest()} that was never sent.
+     */
+    public synchronized void onCancelled() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    static boolean isFailure(int status) {
+        return status <= 0 || status == HttpStatus.SC_BAD_GATEWAY || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Thrown instead of sending a request while the circuit is open.
+     */
+    public static class OpenException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public OpenException(String serverURL) {
+            super("Circuit open for " + serverURL + ", not sending the request");
+        }
+
+    }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import jenkins.model.Jenkins;
+
+/**
+ * Persistent cache of Gitea API responses that stay valid across restarts: results keyed by commit, and responses
+ * with their entity tag, revalidated with a conditional request. Stored in {@code JENKINS_HOME/gitea-cache} when
+ * enabled with {@code -Dcom.cloudbees.jenkins.plugins.gitea.server.client.GiteaDiskCache.enabled=true}.
+ *
+ * The store is a single memory-mapped file of {@code maxBytes} where entries are appended, each with a sequence
+ * number and a CRC, an update or removal superseding the earlier entries of its key. An in-memory index maps the keys
+ * to their latest entry. On startup the file is scanned up to the first entry that is torn, corrupt or out of
+ * sequence, which is where appending resumes, so a crash at worst loses the last entries. Each append clears the
+ * magic following the entry, so that the entries a previous run left beyond that point are never read back. When the file is full it is
+ * compacted: the most recently used live entries, up to half of the file, are copied to a new file which then
+ * atomically replaces it.
+ */
+public final class GiteaDiskCache {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaDiskCache.class.getName());
+
+    private static final String PREFIX = GiteaDiskCache.class.getName();
+
+    private static final boolean ENABLED = Boolean.getBoolean(PREFIX + ".enabled");
+
+    /**
+     * Size of the store file.
+     */
+    private static final long MAX_BYTES = Long.getLong(PREFIX + ".maxBytes", 64L * 1024 * 1024);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final long FILE_MAGIC = 0x4749544541434831L; // "GITEACH1"
+
+    private static final int ENTRY_MAGIC = 0x47544345; // "GTCE"
+
+    private static final int FILE_HEADER = 8;
+
+    /**
+     * Magic, key length, value length (-1 for a removal), CRC and sequence number.
+     */
+    private static final int ENTRY_HEADER = 24;
+
+    private static final int MAX_KEY_BYTES = 4096;
+
+    private static GiteaDiskCache instance;
+
+    private static boolean opened;
+
+    private final File file;
+
+    private final int capacity;
+
+    private FileChannel channel;
+
+    private MappedByteBuffer buffer;
+
+    /**
+     * Offset and length of the latest entry of each key, least recently used first.
+     */
+    private final LinkedHashMap<String, int[]> index = new LinkedHashMap<String, int[]>(1024, 0.75f, true);
+
+    private int end;
+
+    private long sequence;
+
+    private long liveBytes;
+
+    GiteaDiskCache(@NonNull File file, long maxBytes) throws IOException {
+        this.file = file;
+        this.capacity = (int) Math.min(Integer.MAX_VALUE, Math.max(maxBytes, 64 * 1024));
+        File compacting = compactingFile();
+        if (compacting.exists() && !compacting.delete()) {
+            LOGGER.log(Level.WARNING, "Could not delete the interrupted compaction {0}", compacting);
+        }
+        map(file);
+        recover();
+        // above whatever a crash may have left after the recovered entries, so that it is never read back
+        sequence = Math.max(sequence, System.currentTimeMillis() * 1000);
+    }
+
+    /**
+     * Returns the cache, opening it on first use.
+     *
+     * @return the cache, or null if it is disabled or could not be opened
+     */
+    @CheckForNull
+    public static synchronized GiteaDiskCache get() {
+        if (!opened && ENABLED) {
+            opened = true;
+            Jenkins jenkins = Jenkins.getInstance();
+            if (jenkins != null) {
+                File directory = new File(jenkins.getRootDir(), "gitea-cache");
+                try {
+                    Files.createDirectories(directory.toPath());
+                    instance = new GiteaDiskCache(new File(directory, "responses.dat"), MAX_BYTES);
+                } catch (IOException | RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Could not open the Gitea response cache in " + directory, e);
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * @return the value of the key, or null if not cached
+     */
+    @CheckForNull
+    public synchronized byte[] get(@NonNull String key) {
+        int[] entry = index.get(key);
+        if (entry == null) {
+            return null;
+        }
+        byte[] value = new byte[buffer.getInt(entry[0] + 8)];
+        ByteBuffer view = buffer.duplicate();
+        view.position(entry[0] + ENTRY_HEADER + buffer.getInt(entry[0] + 4));
+        view.get(value);
+        return value;
+    }
+
+    /**
+     * Caches a value, replacing the previous one. Values that would not fit in half of the store are not cached.
+     */
+    public synchronized void put(@NonNull String key, @NonNull byte[] value) {
+        append(key.getBytes(UTF_8), value);
+    }
+
+    /**
+     * Forgets a key.
+     */
+    public synchronized void remove(@NonNull String key) {
+        if (index.containsKey(key)) {
+            append(key.getBytes(UTF_8), null);
+        }
+    }
+
+    private void append(byte[] key, @CheckForNull byte[] value) {
+        int length = ENTRY_HEADER + key.length + (value == null ? 0 : value.length);
+        if (key.length > MAX_KEY_BYTES || length > capacity / 2 - FILE_HEADER) {
+            return;
+        }
+        if (end + length > capacity) {
+            try {
+                compact(length);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not compact " + file + ", clearing it", e);
+                clear();
+            }
+        }
+        if (end + length + 4 <= capacity) {
+            // ends the scan of the next startup here, whatever a previous run left after the entry
+            buffer.putInt(end + length, 0);
+        }
+        write(buffer, end, key, value, ++sequence);
+        String name = new String(key, UTF_8);
+        int[] previous = value == null ? index.remove(name) : index.put(name, new int[]{end, length});
+        if (previous != null) {
+            liveBytes -= previous[1];
+        }
+        if (value != null) {
+            liveBytes += length;
+        }
+        end += length;
+    }
+
+    private static void write(ByteBuffer buffer, int offset, byte[] key, @CheckForNull byte[] value, long sequence) {
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + ENTRY_HEADER);
+        view.put(key);
+        if (value != null) {
+            view.put(value);
+        }
+        int valueLength = value == null ? -1 : value.length;
+        buffer.putInt(offset + 4, key.length);
+        buffer.putInt(offset + 8, valueLength);
+        buffer.putInt(offset + 12, crc(buffer, offset, key.length, valueLength, sequence));
+        buffer.putLong(offset + 16, sequence);
+        // last, so that a torn entry never has a valid magic and CRC
+        buffer.putInt(offset, ENTRY_MAGIC);
+    }
+
+    private static int crc(ByteBuffer buffer, int offset, int keyLength, int valueLength, long sequence) {
+        CRC32 crc = new CRC32();
+        byte[] header = ByteBuffer.allocate(16).putInt(keyLength).putInt(valueLength).putLong(sequence).array();
+        crc.update(header);
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset + ENTRY_HEADER);
+        byte[] chunk = new byte[8192];
+        for (int remaining = keyLength + Math.max(valueLength, 0); remaining > 0; ) {
+            int count = Math.min(remaining, chunk.length);
+            view.get(chunk, 0, count);
+            crc.update(chunk, 0, count);
+            remaining -= count;
+        }
+        return (int) crc.getValue();
+    }
+
+    private void map(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        } catch (IOException | RuntimeException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Rebuilds the index from the entries of the file, up to the first invalid one.
+     */
+    private void recover() {
+        index.clear();
+        liveBytes = 0;
+        sequence = 0;
+        end = FILE_HEADER;
+        if (buffer.getLong(0) != FILE_MAGIC) {
+            buffer.putLong(0, FILE_MAGIC);
+            buffer.putInt(end, 0);
+            return;
+        }
+        int entries = 0;
+        while (end + ENTRY_HEADER <= capacity && buffer.getInt(end) == ENTRY_MAGIC) {
+            int keyLength = buffer.getInt(end + 4);
+            int valueLength = buffer.getInt(end + 8);
+            long entrySequence = buffer.getLong(end + 16);
+            long length = (long) ENTRY_HEADER + keyLength + Math.max(valueLength, 0);
+            if (keyLength <= 0 || keyLength > MAX_KEY_BYTES || valueLength < -1 || end + length > capacity
+                    || entrySequence <= sequence
+                    || buffer.getInt(end + 12) != crc(buffer, end, keyLength, valueLength, entrySequence)) {
+                break;
+            }
+            byte[] key = new byte[keyLength];
+            ByteBuffer view = buffer.duplicate();
+            view.position(end + ENTRY_HEADER);
+            view.get(key);
+            String name = new String(key, UTF_8);
+            int[] previous = valueLength < 0 ? index.remove(name) : index.put(name, new int[]{end, (int) length});
+            if (previous != null) {
+                liveBytes -= previous[1];
+            }
+            if (valueLength >= 0) {
+                liveBytes += length;
+            }
+            sequence = entrySequence;
+            end += (int) length;
+            entries++;
+        }
+        if (end + 4 <= capacity) {
+            // whatever follows was torn or left over, the next entry overwrites it
+            buffer.putInt(end, 0);
+        }
+        LOGGER.log(Level.FINE, "Recovered {0} entries, {1} live, from {2}",
+                new Object[]{entries, index.size(), file});
+    }
+
+    /**
+     * Rewrites the most recently used entries to a new file, leaving at least the given room.
+     */
+    private void compact(int needed) throws IOException {
+        long budget = capacity / 2 - FILE_HEADER - needed;
+        for (Iterator<Map.Entry<String, int[]>> it = index.entrySet().iterator();
+             it.hasNext() && liveBytes > budget; ) {
+            liveBytes -= it.next().getValue()[1];
+            it.remove();
+        }
+        File compacting = compactingFile();
+        List<int[]> entries = new ArrayList<int[]>(index.values());
+        int[] offsets = new int[entries.size()];
+        int offset = FILE_HEADER;
+        long next = sequence;
+        RandomAccessFile raf = new RandomAccessFile(compacting, "rw");
+        try {
+            MappedByteBuffer target = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            for (int i = 0; i < offsets.length; i++) {
+                int from = entries.get(i)[0];
+                byte[] key = new byte[buffer.getInt(from + 4)];
+                byte[] value = new byte[buffer.getInt(from + 8)];
+                ByteBuffer view = buffer.duplicate();
+                view.position(from + ENTRY_HEADER);
+                view.get(key);
+                view.get(value);
+                write(target, offset, key, value, ++next);
+                offsets[i] = offset;
+                offset += entries.get(i)[1];
+            }
+            if (offset + 4 <= capacity) {
+                target.putInt(offset, 0);
+            }
+            target.putLong(0, FILE_MAGIC);
+            target.force();
+        } finally {
+            raf.close();
+        }
+        Files.move(compacting.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+        map(file);
+        for (int i = 0; i < offsets.length; i++) {
+            entries.get(i)[0] = offsets[i];
+        }
+        sequence = next;
+        end = offset;
+        LOGGER.log(Level.FINE, "Compacted {0} to {1} entries", new Object[]{file, index.size()});
+    }
+
+    /**
+     * Drops every entry, when the store could not be compacted.
+     */
+    private void clear() {
+        long last = sequence;
+        buffer.putLong(0, 0);
+        recover();
+        sequence = last;
+    }
+
+    private File compactingFile() {
+        return new File(file.getPath() + ".compacting");
+    }
+
+}
@@ -0,0 +1,302 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Emits Java Flight Recorder events for the Gitea API requests, the probes, the webhook processing and the commit
+ * status publishing, each with its endpoint, repository, duration and outcome.
+ *
+ * The plugin still runs on Java 7, so the event types are defined at runtime through {@code jdk.jfr.EventFactory},
+ * reflectively. When the JVM has no flight recorder, or when no recording is running, {@link #begin(Type)} returns
+ * null after reading a single volatile flag, and callers skip the event:
+ *
+ * <pre>
+ * GiteaFlightRecorder.Span span = GiteaFlightRecorder.begin(GiteaFlightRecorder.Type.PROBE);
+ * try {
+ *     ...
+ * } finally {
+ *     if (span != null) {
+ *         span.end(endpoint, repository, outcome);
+ *     }
+ * }
+ * </pre>
+ */
+public final class GiteaFlightRecorder {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaFlightRecorder.class.getName());
+
+    /**
+     * Whether the events are disabled even when a recording is running.
+     */
+    private static final boolean DISABLED = Boolean.getBoolean(GiteaFlightRecorder.class.getName() + ".disabled");
+
+    /**
+     * Kinds of events.
+     */
+    public enum Type {
+        HTTP_REQUEST("HttpRequest", "Gitea HTTP Request", "A request sent to the Gitea API"),
+        PROBE("Probe", "Gitea Probe", "A check of a file of a branch by the branch source criteria"),
+        WEBHOOK("Webhook", "Gitea Webhook", "The processing of a Gitea webhook delivery"),
+        STATUS("CommitStatus", "Gitea Commit Status", "The publishing of the commit status of a build");
+
+        private final String name;
+
+        private final String label;
+
+        private final String description;
+
+        /**
+         * The {@code jdk.jfr.EventFactory} of the event type, created on first use.
+         */
+        private volatile Object factory;
+
+        Type(String name, String label, String description) {
+            this.name = "com.cloudbees.jenkins.plugins.gitea." + name;
+            this.label = label;
+            this.description = description;
+        }
+
+        private Object factory() throws ReflectiveOperationException {
+            Object factory = this.factory;
+            if (factory == null) {
+                synchronized (this) {
+                    factory = this.factory;
+                    if (factory == null) {
+                        factory = Jfr.create(name, label, description);
+                        this.factory = factory;
+                    }
+                }
+            }
+            return factory;
+        }
+
+    }
+
+    /**
+     * Whether a recording is running, kept up to date by a {@code jdk.jfr.FlightRecorderListener}.
+     */
+    private static volatile boolean recording;
+
+    static {
+        if (!DISABLED) {
+            try {
+                Jfr.listen();
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Java Flight Recorder not available, no Gitea events will be recorded", e);
+            }
+        }
+    }
+
+    private GiteaFlightRecorder() {
+    }
+
+    /**
+     * Starts timing an event.
+     *
+     * @param type the kind of event
+     * @return the event to end, or null if no recording is running
+     */
+    @CheckForNull
+    public static Span begin(@NonNull Type type) {
+        if (!recording) {
+            return null;
+        }
+        try {
+            Object event = Jfr.NEW_EVENT.invoke(type.factory());
+            Jfr.BEGIN.invoke(event);
+            return new Span(event);
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            failed(e);
+            return null;
+        }
+    }
+
+    private static void failed(Throwable e) {
+        LOGGER.log(Level.WARNING, "Could not record Gitea flight recorder events, giving up", e);
+        recording = false;
+        Jfr.broken = true;
+    }
+
+    /**
+     * An event being timed.
+     */
+    public static final class Span {
+
+        private final Object event;
+
+        private Span(Object event) {
+            this.event = event;
+        }
+
+        /**
+         * Ends the event and commits it, unless the recording settings filter it out.
+         *
+         * @param endpoint   the endpoint, file or event the event is about
+         * @param repository the repository, as {@code owner/name}
+         * @param outcome    the status, result or exception
+         */
+        public void end(@CheckForNull String endpoint, @CheckForNull String repository, @CheckForNull String outcome) {
+            try {
+                Jfr.END.invoke(event);
+                if ((Boolean) Jfr.SHOULD_COMMIT.invoke(event)) {
+                    Jfr.SET.invoke(event, 0, endpoint);
+                    Jfr.SET.invoke(event, 1, repository);
+                    Jfr.SET.invoke(event, 2, outcome);
+                    Jfr.COMMIT.invoke(event);
+                }
+            } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+                failed(e);
+            }
+        }
+
+    }
+
+    /**
+     * Reflective access to {@code jdk.jfr}, only initialized when the package exists.
+     */
+    private static final class Jfr {
+
+        private static final Class<?> FLIGHT_RECORDER = type("jdk.jfr.FlightRecorder");
+
+        private static final Class<?> ANNOTATION_ELEMENT = type("jdk.jfr.AnnotationElement");
+
+        private static final Class<?> VALUE_DESCRIPTOR = type("jdk.jfr.ValueDescriptor");
+
+        private static final Method CREATE = method("jdk.jfr.EventFactory", "create", List.class, List.class);
+
+        private static final Method NEW_EVENT = method("jdk.jfr.EventFactory", "newEvent");
+
+        private static final Method BEGIN = method("jdk.jfr.Event", "begin");
+
+        private static final Method END = method("jdk.jfr.Event", "end");
+
+        private static final Method SHOULD_COMMIT = method("jdk.jfr.Event", "shouldCommit");
+
+        private static final Method SET = method("jdk.jfr.Event", "set", int.class, Object.class);
+
+        private static final Method COMMIT = method("jdk.jfr.Event", "commit");
+
+        private static volatile boolean broken;
+
+        private static Class<?> type(String name) {
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                throw new NoClassDefFoundError(name);
+            }
+        }
+
+        private static Method method(String type, String name, Class<?>... parameters) {
+            try {
+                return type(type).getMethod(name, parameters);
+            } catch (NoSuchMethodException e) {
+                throw new NoSuchMethodError(type + "." + name);
+            }
+        }
+
+        /**
+         * Follows the recordings being started and stopped.
+         */
+        static void listen() throws ReflectiveOperationException {
+            if (!(Boolean) FLIGHT_RECORDER.getMethod("isAvailable").invoke(null)) {
+                return;
+            }
+            Class<?> listenerType = type("jdk.jfr.FlightRecorderListener");
+            Object listener = Proxy.newProxyInstance(GiteaFlightRecorder.class.getClassLoader(),
+                    new Class<?>[]{listenerType}, new InvocationHandler() {
+                        @Override
+                        public Object invoke(Object proxy, Method method, Object[] args) {
+                            if (method.getDeclaringClass() == Object.class) {
+                                switch (method.getName()) {
+                                    case "equals":
+                                        return proxy == args[0];
+                                    case "hashCode":
+                                        return System.identityHashCode(proxy);
+                                    default:
+                                        return "GiteaFlightRecorder listener";
+                                }
+                            }
+                            refresh();
+                            return null;
+                        }
+                    });
+            FLIGHT_RECORDER.getMethod("addListener", listenerType).invoke(null, listener);
+            refresh();
+        }
+
+        private static void refresh() {
+            boolean running = false;
+            try {
+                if ((Boolean) FLIGHT_RECORDER.getMethod("isInitialized").invoke(null)) {
+                    Object recorder = FLIGHT_RECORDER.getMethod("getFlightRecorder").invoke(null);
+                    for (Object recording : (List<?>) FLIGHT_RECORDER.getMethod("getRecordings").invoke(recorder)) {
+                        if ("RUNNING".equals(String.valueOf(recording.getClass().getMethod("getState").invoke(recording)))) {
+                            running = true;
+                            break;
+                        }
+                    }
+                }
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                LOGGER.log(Level.FINE, "Could not list the flight recordings", e);
+            }
+            recording = running && !broken;
+        }
+
+        static Object create(String name, String label, String description) throws ReflectiveOperationException {
+            List<Object> annotations = Arrays.asList(
+                    annotation("jdk.jfr.Name", name),
+                    annotation("jdk.jfr.Label", label),
+                    annotation("jdk.jfr.Description", description),
+                    annotation("jdk.jfr.Category", new String[]{"Jenkins", "Gitea"}));
+            List<Object> fields = Arrays.asList(
+                    field("endpoint", "Endpoint"),
+                    field("repository", "Repository"),
+                    field("outcome", "Outcome"));
+            return CREATE.invoke(null, annotations, fields);
+        }
+
+        private static Object annotation(String type, Object value) throws ReflectiveOperationException {
+            return ANNOTATION_ELEMENT.getConstructor(Class.class, Object.class).newInstance(type(type), value);
+        }
+
+        private static Object field(String name, String label) throws ReflectiveOperationException {
+            return VALUE_DESCRIPTOR.getConstructor(Class.class, String.class, List.class)
+                    .newInstance(String.class, name, Collections.singletonList(annotation("jdk.jfr.Label", label)));
+        }
+
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Encoding and decoding of the git smart HTTP ref discovery, used to list branches without the branches endpoint of
+ * the API, which loads the head commit of every branch.
+ *
+ * With protocol version 2 the advertisement only carries capabilities, and the refs are requested with an
+ * {@code ls-refs} command limited to {@code refs/heads/}. Servers that ignore the {@code Git-Protocol} header answer
+ * with a version 0 advertisement, which lists all the refs at once.
+ *
+ * @see <a href="https://git-scm.com/docs/protocol-v2">protocol-v2</a>
+ */
+final class GiteaGitRefs {
+
+    static final String HEADS = "refs/heads/";
+
+    static final String UPLOAD_PACK = "git-upload-pack";
+
+    static final String REQUEST_TYPE = "application/x-git-upload-pack-request";
+
+    static final String RESULT_TYPE = "application/x-git-upload-pack-result";
+
+    static final String PROTOCOL_HEADER = "Git-Protocol";
+
+    static final String PROTOCOL_VERSION_2 = "version=2";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String FLUSH = "0000";
+
+    private static final String DELIMITER = "0001";
+
+    private GiteaGitRefs() {}
+
+    /**
+     * @return the request listing the refs under {@link #HEADS}, without peeled tags or symbolic targets
+     */
+    @NonNull
+    static byte[] lsRefsRequest() {
+        StringBuilder request = new StringBuilder();
+        packet(request, "command=ls-refs\n");
+        request.append(DELIMITER);
+        packet(request, "ref-prefix " + HEADS + "\n");
+        request.append(FLUSH);
+        return request.toString().getBytes(UTF_8);
+    }
+
+    /**
+     * @return whether the advertisement announces protocol version 2
+     */
+    static boolean isVersion2(@NonNull byte[] advertisement) throws IOException {
+        Packets packets = new Packets(advertisement);
+        String line = packets.next();
+        if (line != null && line.startsWith("# service=")) {
+            // the flush ending the service announcement
+            packets.next();
+            line = packets.next();
+        }
+        return "version 2".equals(line);
+    }
+
+    /**
+     * Decodes an {@code ls-refs} response.
+     *
+     * @return the head commits by branch name
+     */
+    @NonNull
+    static Map<String, String> parseLsRefs(@NonNull byte[] response) throws IOException {
+        Map<String, String> heads = new LinkedHashMap<>();
+        Packets packets = new Packets(response);
+        for (String line = packets.next(); line != null; line = packets.next()) {
+            // "<oid> <name>", followed by attributes when requested
+            int name = line.indexOf(' ');
+            int attributes = line.indexOf(' ', name + 1);
+            branch(heads, line.substring(0, Math.max(name, 0)),
+                    line.substring(name + 1, attributes < 0 ? line.length() : attributes));
+        }
+        return heads;
+    }
+
+    /**
+     * Decodes a version 0 advertisement.
+     *
+     * @return the head commits by branch name
+     */
+    @NonNull
+    static Map<String, String> parseAdvertisement(@NonNull byte[] advertisement) throws IOException {
+        Map<String, String> heads = new LinkedHashMap<>();
+        Packets packets = new Packets(advertisement);
+        String line = packets.next();
+        if (line != null && line.startsWith("# service=")) {
+            line = packets.next();
+            if (line == null) {
+                line = packets.next();
+            }
+        }
+        for (; line != null; line = packets.next()) {
+            // the first ref carries the capabilities after a NUL
+            int capabilities = line.indexOf('\0');
+            if (capabilities >= 0) {
+                line = line.substring(0, capabilities);
+            }
+            int name = line.indexOf(' ');
+            branch(heads, line.substring(0, Math.max(name, 0)), line.substring(name + 1));
+        }
+        return heads;
+    }
+
+    private static void branch(Map<String, String> heads, String hash, String ref) throws IOException {
+        if (hash.isEmpty()) {
+            throw new IOException("Invalid ref line: " + ref);
+        }
+        // peeled tags and the capabilities^{} placeholder of empty repositories do not match
+        if (ref.startsWith(HEADS) && !ref.endsWith("^{}")) {
+            heads.put(ref.substring(HEADS.length()), hash);
+        }
+    }
+
+    private static void packet(StringBuilder out, String payload) {
+        out.append(String.format(Locale.ENGLISH, "%04x", payload.getBytes(UTF_8).length + 4)).append(payload);
+    }
+
+    /**
+     * Reads pkt-lines: a 4 hex digits length, including itself, then the payload.
+     */
+    private static final class Packets {
+
+        private final byte[] data;
+
+        private int position;
+
+        Packets(byte[] data) {
+            this.data = data;
+        }
+
+        /**
+         * @return the payload of the next data packet without its line feed, or null at a flush, delimiter or
+         * response end packet and at the end of the data
+         * @throws IOException if the data is not a pkt-line stream or if the packet is an error
+         */
+        @CheckForNull
+        String next() throws IOException {
+            if (position + 4 > data.length) {
+                return null;
+            }
+            int length;
+            try {
+                length = Integer.parseInt(new String(data, position, 4, UTF_8), 16);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid pkt-line length at offset " + position, e);
+            }
+            if (length < 4) {
+                position += 4;
+                return null;
+            }
+            if (position + length > data.length) {
+                throw new IOException("Truncated pkt-line at offset " + position);
+            }
+            int end = position + length;
+            if (data[end - 1] == '\n') {
+                end--;
+            }
+            String payload = new String(data, position + 4, end - position - 4, UTF_8);
+            position += length;
+            if (payload.startsWith("ERR ")) {
+                throw new IOException("Git server error: " + payload.substring(4));
+            }
+            return payload;
+        }
+
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.io.IOUtils;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Fully buffered response of a Gitea API call.
+ *
+ * The underlying connection is released as soon as the body has been read, so instances can be shared between threads
+ * and kept around after the request has completed.
+ */
+public final class GiteaHttpResponse {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private final int status;
+
+    private final String statusText;
+
+    /**
+     * Response headers, keyed by lower-cased header name.
+     */
+    private final Map<String, String> headers;
+
+    private final byte[] body;
+
+    public GiteaHttpResponse(int status, String statusText, @NonNull Map<String, String> headers, @CheckForNull byte[] body) {
+        this.status = status;
+        this.statusText = statusText;
+        this.headers = new TreeMap<String, String>();
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            this.headers.put(header.getKey().toLowerCase(Locale.ENGLISH), header.getValue());
+        }
+        this.body = body == null ? EMPTY : body;
+    }
+
+    /**
+     * Reads status, headers and body of an executed method.
+     * The caller is still responsible for releasing the method connection.
+     */
+    static GiteaHttpResponse read(HttpMethod method) throws IOException {
+        Map<String, String> headers = new TreeMap<String, String>();
+        for (Header header : method.getResponseHeaders()) {
+            headers.put(header.getName(), header.getValue());
+        }
+        byte[] body = null;
+        InputStream in = method.getResponseBodyAsStream();
+        if (in != null) {
+            try {
+                body = IOUtils.toByteArray(in);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        }
+        return new GiteaHttpResponse(method.getStatusCode(), method.getStatusText(), headers, body);
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public String getStatusText() {
+        return statusText;
+    }
+
+    /**
+     * @param name the header name, case insensitive
+     * @return the header value or null if the response does not carry it
+     */
+    @CheckForNull
+    public String getHeader(@NonNull String name) {
+        return headers.get(name.toLowerCase(Locale.ENGLISH));
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    @NonNull
+    public byte[] getBody() {
+        return body;
+    }
+
+    @NonNull
+    public String getBodyAsString() {
+        return new String(body, UTF_8);
+    }
+
+}
@@ -0,0 +1,278 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Limits the traffic sent to a single Gitea server.
+ *
+ * Every request needs a token from a token bucket (requests per second, with a burst allowance) and one of a limited
+ * number of in-flight slots. In adaptive mode the number of slots follows an AIMD scheme: it grows by one slot per
+ * window of healthy responses and is halved when latency goes over a threshold or the server answers with a 5xx or a 429.
+ * A {@code Retry-After} header on a 429 or 503 response holds every new request until the given time.
+ */
+public class GiteaRequestGovernor {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaRequestGovernor.class.getName());
+
+    private static final String PREFIX = GiteaRequestGovernor.class.getName();
+
+    /**
+     * Sustained number of requests per second, 0 or less disables the token bucket.
+     */
+    private static final double REQUESTS_PER_SECOND = Double.parseDouble(System.getProperty(PREFIX + ".requestsPerSecond", "50"));
+
+    /**
+     * Number of requests that can be sent at once after an idle period.
+     */
+    private static final int BURST = Integer.getInteger(PREFIX + ".burst", 50);
+
+    /**
+     * Maximum number of requests in flight against the server.
+     */
+    private static final int MAX_IN_FLIGHT = Integer.getInteger(PREFIX + ".maxInFlight", 16);
+
+    /**
+     * Whether the in-flight limit adapts to the server latency and error rate.
+     */
+    private static final boolean ADAPTIVE = Boolean.getBoolean(PREFIX + ".adaptive");
+
+    /**
+     * Latency above which a response counts as a congestion signal in adaptive mode.
+     */
+    private static final long LATENCY_THRESHOLD_MILLIS = Long.getLong(PREFIX + ".latencyThresholdMillis", 2000L);
+
+    /**
+     * Longest {@code Retry-After} delay that will be honoured.
+     */
+    private static final long MAX_RETRY_AFTER_MILLIS = Long.getLong(PREFIX + ".maxRetryAfterMillis", TimeUnit.MINUTES.toMillis(5));
+
+    private final String serverURL;
+
+    private final double permitsPerMilli;
+
+    private final int burst;
+
+    private final int maxInFlight;
+
+    private final boolean adaptive;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition changed = lock.newCondition();
+
+    /**
+     * Tokens currently available in the bucket.
+     */
+    private double tokens;
+
+    private long lastRefill;
+
+    /**
+     * Current in-flight limit, fractional so that additive increase can be spread over a window of responses.
+     */
+    private double limit;
+
+    private int inFlight;
+
+    /**
+     * Time before which no request may be sent, as requested by the server through {@code Retry-After}.
+     */
+    private long blockedUntil;
+
+    /**
+     * Time of the last multiplicative decrease, so that a single burst of errors only halves the limit once.
+     */
+    private long lastDecrease;
+
+    public GiteaRequestGovernor(String serverURL) {
+        this(serverURL, REQUESTS_PER_SECOND, BURST, MAX_IN_FLIGHT, ADAPTIVE);
+    }
+
+    public GiteaRequestGovernor(String serverURL, double requestsPerSecond, int burst, int maxInFlight, boolean adaptive) {
+        this.serverURL = serverURL;
+        this.permitsPerMilli = requestsPerSecond / 1000d;
+        this.burst = Math.max(1, burst);
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.adaptive = adaptive;
+        this.tokens = this.burst;
+        this.lastRefill = System.currentTimeMillis();
+        this.limit = this.maxInFlight;
+    }
+
+    /**
+     * Waits until the request may be sent.
+     * Every successful call must be paired with a call to {@link #release(long, int)}.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (true) {
+                long now = System.currentTimeMillis();
+                refill(now);
+                long wait;
+                if (blockedUntil > now) {
+                    wait = blockedUntil - now;
+                } else if (inFlight >= Math.max(1, (int) limit)) {
+                    // woken up by release()
+                    wait = 0;
+                } else if (permitsPerMilli > 0 && tokens < 1) {
+                    wait = Math.max(1, (long) Math.ceil((1 - tokens) / permitsPerMilli));
+                } else {
+                    if (permitsPerMilli > 0) {
+                        tokens -= 1;
+                    }
+                    inFlight++;
+                    return;
+                }
+                if (wait > 0) {
+                    changed.await(wait, TimeUnit.MILLISECONDS);
+                } else {
+                    changed.await();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases the in-flight slot taken by {@link #acquire()} and feeds the outcome to the adaptive limit.
+     *
+     * @param latencyMillis how long the request took
+     * @param status        the response status, or a value less than or equal to 0 if no response was received
+     */
+    public void release(long latencyMillis, int status) {
+        lock.lock();
+        try {
+            inFlight--;
+            if (adaptive) {
+                boolean congested = status <= 0 || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+                        || status == 429 || latencyMillis > LATENCY_THRESHOLD_MILLIS;
+                long now = System.currentTimeMillis();
+                if (congested) {
+                    // at most one decrease per latency window, the responses of a burst report the same congestion
+                    if (now - lastDecrease > Math.max(latencyMillis, LATENCY_THRESHOLD_MILLIS)) {
+                        limit = Math.max(1, limit / 2);
+                        lastDecrease = now;
+                        LOGGER.log(Level.FINE, "Reducing concurrency against {0} to {1}", new Object[]{serverURL, (int) limit});
+                    }
+                } else if (limit < maxInFlight) {
+                    limit = Math.min(maxInFlight, limit + 1 / limit);
+                }
+            }
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds new requests when the server asked us to back off.
+     *
+     * @param status     the response status
+     * @param retryAfter the value of the {@code Retry-After} header, either delay seconds or an HTTP date
+     */
+    public void onRetryAfter(int status, @CheckForNull String retryAfter) {
+        if (retryAfter == null || (status != 429 && status != HttpStatus.SC_SERVICE_UNAVAILABLE)) {
+            return;
+        }
+        long delay = parseRetryAfter(retryAfter.trim(), System.currentTimeMillis());
+        if (delay <= 0) {
+            return;
+        }
+        delay = Math.min(delay, MAX_RETRY_AFTER_MILLIS);
+        lock.lock();
+        try {
+            blockedUntil = Math.max(blockedUntil, System.currentTimeMillis() + delay);
+            LOGGER.log(Level.INFO, "{0} asked to retry after {1} ms, holding requests", new Object[]{serverURL, delay});
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the delay in milliseconds, or -1 if the value cannot be parsed
+     */
+    static long parseRetryAfter(String retryAfter, long now) {
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter));
+        } catch (NumberFormatException e) {
+            try {
+                Date date = DateUtil.parseDate(retryAfter);
+                return date.getTime() - now;
+            } catch (DateParseException e1) {
+                LOGGER.log(Level.FINE, "Invalid Retry-After header: {0}", retryAfter);
+                return -1;
+            }
+        }
+    }
+
+    private void refill(long now) {
+        if (permitsPerMilli > 0 && now > lastRefill) {
+            tokens = Math.min(burst, tokens + (now - lastRefill) * permitsPerMilli);
+        }
+        lastRefill = now;
+    }
+
+    /**
+     * @return the current in-flight limit
+     */
+    public int getLimit() {
+        lock.lock();
+        try {
+            return Math.max(1, (int) limit);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of requests currently in flight
+     */
+    public int getInFlight() {
+        lock.lock();
+        try {
+            return inFlight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Accounts for the Gitea API requests made by a scan, so that the scan can report what it cost in its log.
+ *
+ * A context is bound to the scanning thread between {@link #open()} and {@link #close()}; every request made by that
+ * thread through {@link GiteaServerConnection} is recorded in it, and in the contexts it is nested in, such as the
+ * organization scan a repository scan runs within.
+ */
+public final class GiteaScanContext implements AutoCloseable {
+
+    /**
+     * Number of slowest requests listed by {@link #report(PrintStream)}.
+     */
+    private static final int SLOWEST = Integer.getInteger(GiteaScanContext.class.getName() + ".slowestRequests", 5);
+
+    private static final ThreadLocal<GiteaScanContext> CURRENT = new ThreadLocal<GiteaScanContext>();
+
+    private static final Comparator<Request> BY_DURATION = new Comparator<Request>() {
+        @Override
+        public int compare(Request o1, Request o2) {
+            return Long.compare(o1.nanos, o2.nanos);
+        }
+    };
+
+    @CheckForNull
+    private final GiteaScanContext parent;
+
+    private final long start = System.nanoTime();
+
+    private final Map<String, long[]> endpoints = new TreeMap<String, long[]>();
+
+    private final PriorityQueue<Request> slowest = new PriorityQueue<Request>(Math.max(1, SLOWEST), BY_DURATION);
+
+    private int calls;
+
+    private long bytes;
+
+    private long waitingNanos;
+
+    private long throttledNanos;
+
+    private int cacheHits;
+
+    private GiteaScanContext(@CheckForNull GiteaScanContext parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Starts accounting for the requests made by the current thread.
+     *
+     * @return the context, to be closed when the scan is over
+     */
+    @NonNull
+    public static GiteaScanContext open() {
+        GiteaScanContext context = new GiteaScanContext(CURRENT.get());
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Stops accounting, restoring the context this one was nested in.
+     */
+    @Override
+    public void close() {
+        if (parent == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(parent);
+        }
+    }
+
+    /**
+     * Records a request made by the current thread, if it is scanning.
+     *
+     * @param method         the HTTP method
+     * @param path           the request path
+     * @param status         the response status, or -1 if no response was received
+     * @param bytes          the length of the response body
+     * @param throttledNanos the time spent waiting for the {@link GiteaRequestGovernor}
+     * @param nanos          the time spent waiting for the request, throttling included
+     */
+    static void record(String method, String path, int status, long bytes, long throttledNanos, long nanos) {
+        GiteaScanContext context = CURRENT.get();
+        if (context == null) {
+            return;
+        }
+        Request request = new Request(method, path, status, nanos);
+        String endpoint = GiteaApiMetrics.endpoint(path);
+        for (; context != null; context = context.parent) {
+            context.add(endpoint, request, bytes, throttledNanos);
+        }
+    }
+
+    /**
+     * Records a request saved by the current thread, answered by another caller or by an unchanged entity tag.
+     */
+    static void cacheHit() {
+        for (GiteaScanContext context = CURRENT.get(); context != null; context = context.parent) {
+            synchronized (context) {
+                context.cacheHits++;
+            }
+        }
+    }
+
+    private synchronized void add(String endpoint, Request request, long bytes, long throttledNanos) {
+        long[] totals = endpoints.get(endpoint);
+        if (totals == null) {
+            totals = new long[3];
+            endpoints.put(endpoint, totals);
+        }
+        totals[0]++;
+        totals[1] += bytes;
+        totals[2] += request.nanos;
+        calls++;
+        this.bytes += bytes;
+        this.waitingNanos += request.nanos;
+        this.throttledNanos += throttledNanos;
+        if (request.status == 304) {
+            cacheHits++;
+        }
+        if (SLOWEST > 0) {
+            slowest.add(request);
+            if (slowest.size() > SLOWEST) {
+                slowest.poll();
+            }
+        }
+    }
+
+    /**
+     * Prints the calls by endpoint, the bytes transferred, the time spent waiting on Gitea against the time spent
+     * locally, the cache hits and the slowest requests.
+     */
+    public synchronized void report(@NonNull PrintStream logger) {
+        long elapsed = System.nanoTime() - start;
+        logger.format("Gitea API: %d calls, %s, %s waiting on Gitea (%s throttled), %s local processing, "
+                        + "%d cache hits%n", calls, bytes(bytes), millis(waitingNanos), millis(throttledNanos),
+                millis(Math.max(0, elapsed - waitingNanos)), cacheHits);
+        for (Map.Entry<String, long[]> endpoint : endpoints.entrySet()) {
+            long[] totals = endpoint.getValue();
+            logger.format("    %-10s %5d calls %10s %8s%n", endpoint.getKey(), totals[0], bytes(totals[1]),
+                    millis(totals[2]));
+        }
+        if (!slowest.isEmpty()) {
+            List<Request> requests = new ArrayList<Request>(slowest);
+            Collections.sort(requests, Collections.reverseOrder(BY_DURATION));
+            logger.println("  Slowest requests:");
+            for (Request request : requests) {
+                logger.format("    %8s %s %s %s%n", millis(request.nanos), request.method, request.path,
+                        request.status < 0 ? "failed" : String.valueOf(request.status));
+            }
+        }
+    }
+
+    private static String millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms";
+    }
+
+    private static String bytes(long bytes) {
+        return bytes < 1024 ? bytes + " B" : String.format("%.1f KB", bytes / 1024.0);
+    }
+
+    private static final class Request {
+
+        private final String method;
+
+        private final String path;
+
+        private final int status;
+
+        private final long nanos;
+
+        Request(String method, String path, int status, long nanos) {
+            this.method = method;
+            this.path = path;
+            this.status = status;
+            this.nanos = nanos;
+        }
+
+    }
+
+}
@@ -24,47 +24,62 @@
 package com.cloudbees.jenkins.plugins.gitea.server.client;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.cloudbees.jenkins.plugins.gitea.api.*;
 import com.cloudbees.jenkins.plugins.gitea.server.client.repository.*;
-import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
+import org.apache.commons.httpclient.HttpMethodBase;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.NameValuePair;
 import org.apache.commons.httpclient.UsernamePasswordCredentials;
-import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
-import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.codehaus.jackson.JsonGenerationException;
+import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.JsonMappingException;
 import org.codehaus.jackson.map.ObjectMapper;
 
 import com.cloudbees.jenkins.plugins.gitea.server.client.branch.GiteaServerBranch;
+import com.cloudbees.jenkins.plugins.gitea.server.client.branch.GiteaServerCommit;
 import com.cloudbees.plugins.credentials.common.StandardUsernamePasswordCredentials;
 
-import hudson.ProxyConfiguration;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
 import hudson.util.Secret;
-import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
 import org.codehaus.jackson.map.type.CollectionType;
 
 /**
  * Gitea API client.
  * Developed and tested with Gitea TODO version
+ *
+ * Instances are immutable and safe to share between threads. Use {@link com.cloudbees.jenkins.plugins.gitea.GiteaApiConnector}
+ * to get shared instances rather than building new ones for every call.
  */
 public class GiteaServerAPIClient implements GiteaApi {
 
     private static final Logger LOGGER = Logger.getLogger(GiteaServerAPIClient.class.getName());
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
     private static final String API_BASE_PATH = "/api/v1";
     private static final String API_REPOSITORIES_PATH = API_BASE_PATH + "/users/%s/repos";
     private static final String API_ORG_REPOSITORIES_PATH = API_BASE_PATH + "/orgs/%s/repos";
@@ -75,57 +90,127 @@ public class GiteaServerAPIClient implements GiteaApi {
     private static final String API_USER_PATH = API_BASE_PATH + "/users/%s";
     private static final String API_AUTHENTICATED_USER_PATH = API_BASE_PATH + "/user";
     private static final String API_CONTENT_PATH = API_BASE_PATH + "/repos/%s/%s/raw/%s/%s";
+    private static final String API_COMPARE_PATH = API_BASE_PATH + "/repos/%s/%s/compare/%s...%s";
     private static final String API_ISSUES_PATH = API_BASE_PATH + "/repos/%s/%s/issues";
     private static final String API_STATUS_CREATE_PATH = API_BASE_PATH + "/repos/%s/%s/statuses/%s";
-    private static final String API_REPO_HOOK_DELETE_PATH = "/repos/%s/%s/hooks/%d";
+    private static final String API_REPO_HOOK_PATH = API_BASE_PATH + "/repos/%s/%s/hooks/%d";
+    private static final String API_ORG_HOOK_DELETE_PATH = API_BASE_PATH + "/orgs/%s/hooks/%d";
+    private static final String GIT_REPOSITORY_PATH = "/%s/%s.git";
+
+    /**
+     * Prefix of the entity tags computed from the listings Gitea did not tag itself.
+     */
+    private static final String LOCAL_ETAG_PREFIX = "local:";
+
+    /**
+     * Maximum number of attempts of idempotent requests.
+     */
+    private static final int MAX_ATTEMPTS = Integer.getInteger(GiteaServerAPIClient.class.getName() + ".maxAttempts", 3);
+
+    /**
+     * Ceiling of the first retry delay, doubled on every attempt.
+     */
+    private static final long RETRY_BASE_MILLIS = Long.getLong(GiteaServerAPIClient.class.getName() + ".retryBaseMillis", 500L);
+
+    /**
+     * Upper bound of retry delays.
+     */
+    private static final long RETRY_MAX_MILLIS = Long.getLong(GiteaServerAPIClient.class.getName() + ".retryMaxMillis", 10000L);
 
 
     /**
      * Repository owner.
      * This must be null if organization is not null.
      */
-    private String owner;
+    private final String owner;
 
     /**
      * Thre repository that this object is managing.
      */
-    private String repositoryName;
+    private final String repositoryName;
 
     /**
      * Indicates if the client is using user-centric API endpoints or project API otherwise.
      */
-    private boolean userCentric = false;
+    private final boolean userCentric = false;
 
     /**
      * Credentials to access API services.
      * Almost @NonNull (but null is accepted for anonymous access).
      */
-    private UsernamePasswordCredentials credentials;
+    private final UsernamePasswordCredentials credentials;
+
+    /**
+     * Digest of {@link #credentials}, used to detect rotated credentials without keeping another copy of the secret.
+     */
+    private final String credentialsFingerprint;
+
+    private final String baseURL;
 
-    private String baseURL;
+    /**
+     * Transport shared with all the other clients of the same server.
+     */
+    private final GiteaServerConnection connection;
 
     public GiteaServerAPIClient(String baseURL, String username, String password, String owner, String repositoryName) {
-        if (!StringUtils.isBlank(username) && !StringUtils.isBlank(password)) {
-            this.credentials = new UsernamePasswordCredentials(username, password);
-        }
-        this.owner = owner;
-        this.repositoryName = repositoryName;
-        this.baseURL = baseURL;
+        this(GiteaServerConnection.of(baseURL), owner, repositoryName,
+                !StringUtils.isBlank(username) && !StringUtils.isBlank(password)
+                        ? new UsernamePasswordCredentials(username, password) : null);
     }
 
     public GiteaServerAPIClient(String baseURL, String owner, String repositoryName, StandardUsernamePasswordCredentials creds) {
-        if (creds != null) {
-            this.credentials = new UsernamePasswordCredentials(creds.getUsername(), Secret.toString(creds.getPassword()));
-        }
-        this.owner = owner;
-        this.repositoryName = repositoryName;
-        this.baseURL = baseURL;
+        this(GiteaServerConnection.of(baseURL), owner, repositoryName,
+                creds != null ? new UsernamePasswordCredentials(creds.getUsername(), Secret.toString(creds.getPassword())) : null);
     }
 
     public GiteaServerAPIClient(String baseURL, String owner, StandardUsernamePasswordCredentials creds) {
         this(baseURL, owner, null, creds);
     }
 
+    public GiteaServerAPIClient(@NonNull GiteaServerConnection connection, String owner, String repositoryName,
+                                @CheckForNull UsernamePasswordCredentials credentials) {
+        this.connection = connection;
+        this.baseURL = connection.getBaseURL();
+        this.owner = owner;
+        this.repositoryName = repositoryName;
+        this.credentials = credentials;
+        this.credentialsFingerprint = credentials == null
+                ? fingerprint(null, null) : fingerprint(credentials.getUserName(), credentials.getPassword());
+    }
+
+    /**
+     * Computes the fingerprint used to tell apart clients built with different credentials.
+     *
+     * @param username the user name, or null for anonymous access
+     * @param password the password, or null for anonymous access
+     * @return a hex encoded SHA-256 digest of the credentials
+     */
+    @NonNull
+    public static String fingerprint(@CheckForNull String username, @CheckForNull String password) {
+        if (username == null && password == null) {
+            return "anonymous";
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(StringUtils.defaultString(username).getBytes("UTF-8"));
+            digest.update((byte) 0);
+            digest.update(StringUtils.defaultString(password).getBytes("UTF-8"));
+            return Util.toHexString(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException("UTF-8 is not available", e);
+        }
+    }
+
+    public String getCredentialsFingerprint() {
+        return credentialsFingerprint;
+    }
+
+    public GiteaServerConnection getConnection() {
+        return connection;
+    }
+
     /**
      * Gitea manages two top level entities, owner and/or organization.
      * Only one of them makes sense for a specific client object.
@@ -148,9 +233,8 @@ public class GiteaServerAPIClient implements GiteaApi {
         if (repositoryName == null) {
             return null;
         }
-        String response = getRequest(String.format(API_REPOSITORY_PATH, getOwner(), repositoryName));
         try {
-            return parse(response, GiteaServerRepository.class);
+            return getObject(String.format(API_REPOSITORY_PATH, getOwner(), repositoryName), GiteaServerRepository.class);
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "invalid repository response.", e);
         }
@@ -163,8 +247,7 @@ public class GiteaServerAPIClient implements GiteaApi {
         String url = String.format(API_BRANCHES_PATH, getOwner(), repositoryName, 0);
 
         try {
-            String response = getRequest(url);
-            List<GiteaServerBranch> branches = parseCollection(response, GiteaServerBranch.class);
+            List<GiteaServerBranch> branches = getCollection(url, GiteaServerBranch.class);
 
             return branches;
         } catch (IOException e) {
@@ -173,14 +256,44 @@ public class GiteaServerAPIClient implements GiteaApi {
         return Collections.EMPTY_LIST;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public GiteaListing<GiteaServerBranch> getBranchesIfModified(String etag) {
+        return getListingIfModified(String.format(API_BRANCHES_PATH, getOwner(), repositoryName), etag,
+                GiteaServerBranch.class);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public List<GiteaServerBranch> getBranchesFromRefs() {
+        String path = String.format(GIT_REPOSITORY_PATH, getOwner(), repositoryName);
+        GiteaHttpResponse response = gitRequest(path + "/info/refs?service=" + GiteaGitRefs.UPLOAD_PACK, null);
+        Map<String, String> heads;
+        try {
+            if (GiteaGitRefs.isVersion2(response.getBody())) {
+                response = gitRequest(path + "/" + GiteaGitRefs.UPLOAD_PACK, GiteaGitRefs.lsRefsRequest());
+                heads = GiteaGitRefs.parseLsRefs(response.getBody());
+            } else {
+                // servers without protocol version 2 advertise all the refs right away
+                heads = GiteaGitRefs.parseAdvertisement(response.getBody());
+            }
+        } catch (IOException e) {
+            throw new GiteaRequestException(response.getStatus(), "Invalid ref discovery of " + path + ": " + e, e);
+        }
+        List<GiteaServerBranch> branches = new ArrayList<>(heads.size());
+        for (Map.Entry<String, String> head : heads.entrySet()) {
+            branches.add(new GiteaServerBranch(head.getKey(), new GiteaServerCommit(head.getValue())));
+        }
+        return branches;
+    }
+
     @Override
     public GiteaServerBranch getBranch(String name) {
         if (repositoryName == null) {
             return null;
         }
-        String response = getRequest(String.format(API_BRANCH_PATH, getOwner(), repositoryName, name));
         try {
-            return parse(response, GiteaServerBranch.class);
+            return getObject(String.format(API_BRANCH_PATH, getOwner(), repositoryName, name), GiteaServerBranch.class);
         } catch (IOException e) {
             LOGGER.log(Level.WARNING, "invalid branch response.", e);
         }
@@ -189,12 +302,14 @@ public class GiteaServerAPIClient implements GiteaApi {
     }
 
     @Override
-    public void registerCommitWebHook(GiteaWebHook hook) {
+    public GiteaHook registerCommitWebHook(GiteaWebHook hook) {
         try {
-            postRequest(String.format(API_REPOSITORY_PATH, getOwner(), repositoryName) + "/hooks", asJson(hook));
+            return parse(postRequest(String.format(API_REPOSITORY_PATH, getOwner(), repositoryName) + "/hooks", asJson(hook)),
+                    GiteaHook.class);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "cannot register webhook", e);
         }
+        return null;
     }
 
     @Override
@@ -216,7 +331,16 @@ public class GiteaServerAPIClient implements GiteaApi {
 
     @Override
     public void removeCommitWebHook(GiteaWebHook hook) {
-        deleteRequest(String.format(API_REPO_HOOK_DELETE_PATH, getOwner(), repositoryName, hook.getId()));
+        deleteRequest(String.format(API_REPO_HOOK_PATH, getOwner(), repositoryName, hook.getId()));
+    }
+
+    @Override
+    public void testWebHook(GiteaWebHook hook) {
+        try {
+            postRequest(String.format(API_REPO_HOOK_PATH, getOwner(), repositoryName, hook.getId()) + "/tests", "");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError(e);
+        }
     }
 
     @Override
@@ -224,8 +348,7 @@ public class GiteaServerAPIClient implements GiteaApi {
         try {
             String url = String.format(API_REPOSITORY_PATH, getOwner(), repositoryName) + "/hooks";
             LOGGER.info("getWebHooks url: " + url);
-            String response = getRequest(url);
-            List<GiteaHook> repositoryHooks = parseCollection(response, GiteaHook.class);
+            List<GiteaHook> repositoryHooks = getCollection(url, GiteaHook.class);
             return repositoryHooks;
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "invalid hooks response", e);
@@ -241,9 +364,8 @@ public class GiteaServerAPIClient implements GiteaApi {
         if (userCentric) {
             return null;
         } else {
-            String response = getRequest(String.format(API_ORGANIZATION_PATH, getOwner()));
             try {
-                return parse(response, GiteaServerOrganization.class);
+                return getObject(String.format(API_ORGANIZATION_PATH, getOwner()), GiteaServerOrganization.class);
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "invalid organization response.", e);
             }
@@ -252,12 +374,29 @@ public class GiteaServerAPIClient implements GiteaApi {
     }
 
     @Override
-    public void createOrgWebHook(GiteaWebHook hook) {
+    public GiteaHook createOrgWebHook(GiteaWebHook hook) {
         try {
-            postRequest(String.format(API_ORGANIZATION_PATH, getOwner()) + "/hooks", asJson(hook));
+            return parse(postRequest(String.format(API_ORGANIZATION_PATH, getOwner()) + "/hooks", asJson(hook)),
+                    GiteaHook.class);
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "cannot register webhook", e);
         }
+        return null;
+    }
+
+    @Override
+    public List<GiteaHook> getOrgWebHooks() {
+        try {
+            return getCollection(String.format(API_ORGANIZATION_PATH, getOwner()) + "/hooks", GiteaHook.class);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "invalid hooks response", e);
+        }
+        return Collections.EMPTY_LIST;
+    }
+
+    @Override
+    public void removeOrgWebHook(GiteaWebHook hook) {
+        deleteRequest(String.format(API_ORG_HOOK_DELETE_PATH, getOwner(), hook.getId()));
     }
 
     @Override
@@ -276,8 +415,7 @@ public class GiteaServerAPIClient implements GiteaApi {
         String url = String.format(API_REPOSITORIES_PATH, getOwner());
 
         try {
-            String response = getRequest(url);
-            List<GiteaServerRepository> repos = parseCollection(response, GiteaServerRepository.class);
+            List<GiteaServerRepository> repos = getCollection(url, GiteaServerRepository.class);
 
             return repos;
         } catch (IOException e) {
@@ -292,8 +430,7 @@ public class GiteaServerAPIClient implements GiteaApi {
         String url = String.format(API_ORG_REPOSITORIES_PATH, organization.getName());
 
         try {
-            String response = getRequest(url);
-            List<GiteaServerRepository> repos = parseCollection(response, GiteaServerRepository.class);
+            List<GiteaServerRepository> repos = getCollection(url, GiteaServerRepository.class);
 
             return repos;
         } catch (IOException e) {
@@ -302,14 +439,21 @@ public class GiteaServerAPIClient implements GiteaApi {
         return Collections.EMPTY_LIST;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public GiteaListing<GiteaServerRepository> getRepositoriesIfModified(GiteaOrganization organization, String etag) {
+        String url = organization == null ? String.format(API_REPOSITORIES_PATH, getOwner())
+                : String.format(API_ORG_REPOSITORIES_PATH, organization.getName());
+        return getListingIfModified(url, etag, GiteaServerRepository.class);
+    }
+
     /** {@inheritDoc} */
     public GiteaUser getUser() {
         if (userCentric) {
             return null;
         } else {
-            String response = getRequest(String.format(API_USER_PATH, getOwner()));
             try {
-                return parse(response, GiteaServerRepositoryOwner.class);
+                return getObject(String.format(API_USER_PATH, getOwner()), GiteaServerRepositoryOwner.class);
             } catch (IOException e) {
                 LOGGER.log(Level.WARNING, "invalid user response.", e);
             }
@@ -319,13 +463,78 @@ public class GiteaServerAPIClient implements GiteaApi {
 
     /** {@inheritDoc} */
     @Override
-    public boolean checkPathExists(String branch, String path) {
-        String url = String.format(API_CONTENT_PATH, getOwner(), repositoryName, branch, path);
+    public boolean checkPathExists(String branch, String path) throws IOException {
+        return checkPathExists(branch, null, path);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * When the commit is known the path is looked up at that commit rather than at the branch, which may have moved
+     * since it was listed, and the answer is kept in the {@link GiteaDiskCache}, when enabled, as the files of a commit
+     * never change. Failures are thrown rather than answered as a missing path, so that a scan while the server is
+     * unavailable, or its circuit open, aborts instead of removing the branches.
+     */
+    @Override
+    public boolean checkPathExists(String branch, @CheckForNull String hash, String path) throws IOException {
+        GiteaDiskCache cache = hash == null ? null : GiteaDiskCache.get();
+        String key = cache == null ? null
+                : "probe " + baseURL + " " + getOwner() + "/" + repositoryName + " " + hash + " " + path + " " + credentialsFingerprint;
+        byte[] cached = cache == null ? null : cache.get(key);
+        if (cached != null && cached.length == 1) {
+            GiteaScanContext.cacheHit();
+            return cached[0] == 1;
+        }
+        final String url = String.format(API_CONTENT_PATH, getOwner(), repositoryName, hash == null ? branch : hash, path);
         LOGGER.info("checkPathExists url: " + url);
-        int status = getRequestStatus(url);
+        int status = connection.getSingleFlight().execute(flightKey(url, "status"), new Callable<Integer>() {
+            @Override
+            public Integer call() throws IOException {
+                return executeIdempotent(false, url).getStatus();
+            }
+        });
+        if (status >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+            throw new IOException("Could not check " + path + " on " + getOwner() + "/" + repositoryName
+                    + ", HTTP status " + status);
+        }
+        if (cache != null && (status == HttpStatus.SC_OK || status == HttpStatus.SC_NOT_FOUND)) {
+            // other answers say nothing about the commit
+            cache.put(key, new byte[]{(byte) (status == HttpStatus.SC_OK ? 1 : 0)});
+        }
         return status == HttpStatus.SC_OK;
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public List<String> getChangedPaths(String base, String head) {
+        JsonNode compare;
+        try {
+            compare = getObject(String.format(API_COMPARE_PATH, getOwner(), repositoryName, base, head), JsonNode.class);
+        } catch (IOException | GiteaRequestException e) {
+            // the compare API needs Gitea 1.19+
+            LOGGER.log(Level.FINE, "Could not compare " + base + "..." + head, e);
+            return null;
+        }
+        JsonNode commits = compare.path("commits");
+        if (!commits.isArray() || compare.path("total_commits").asInt(commits.size()) > commits.size()) {
+            return null;
+        }
+        Set<String> paths = new LinkedHashSet<>();
+        for (JsonNode commit : commits) {
+            JsonNode files = commit.path("files");
+            if (!files.isArray()) {
+                return null;
+            }
+            for (JsonNode file : files) {
+                String path = file.path("filename").getTextValue();
+                if (path != null) {
+                    paths.add(path);
+                }
+            }
+        }
+        return new ArrayList<>(paths);
+    }
+
     @Override
     public boolean isPrivate() {
         GiteaRepository repo = getRepository();
@@ -333,13 +542,47 @@ public class GiteaServerAPIClient implements GiteaApi {
     }
 
 
-    private <T> T parse(String response, Class<T> clazz) throws IOException {
+    /**
+     * Fetches and parses an object. Concurrent identical calls share a single request and the parsed result, which
+     * must therefore be treated as read-only.
+     */
+    private <T> T getObject(final String path, final Class<T> clazz) throws IOException {
+        return connection.getSingleFlight().execute(flightKey(path, clazz.getName()), new Callable<T>() {
+            @Override
+            public T call() throws IOException {
+                return parse(getRequest(path), clazz);
+            }
+        });
+    }
+
+    /**
+     * Fetches and parses a list, see {@link #getObject(String, Class)}.
+     */
+    private <T> List<T> getCollection(final String path, final Class<T> clazz) throws IOException {
+        return connection.getSingleFlight().execute(flightKey(path, "List<" + clazz.getName() + ">"), new Callable<List<T>>() {
+            @Override
+            public List<T> call() throws IOException {
+                return parseCollection(getValidatedRequest(path), clazz);
+            }
+        });
+    }
+
+    private String flightKey(String path, String type) {
+        return path + "|" + type + "|" + credentialsFingerprint;
+    }
+
+    /**
+     * Parses an object. Package-private for the benchmarks.
+     */
+    static <T> T parse(String response, Class<T> clazz) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         return mapper.readValue(response, clazz);
     }
 
-
-    private <T> List<T> parseCollection(String response, Class<T> clazz) throws IOException {
+    /**
+     * Parses a list. Package-private for the benchmarks.
+     */
+    static <T> List<T> parseCollection(String response, Class<T> clazz) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         final CollectionType javaType =
                 mapper.getTypeFactory().constructCollectionType(List.class, clazz);
@@ -347,76 +590,226 @@ public class GiteaServerAPIClient implements GiteaApi {
     }
 
     private String getRequest(String path) {
-        HttpClient client = getHttpClient();
-        client.getState().setCredentials(AuthScope.ANY, credentials);
-        GetMethod httpget = new GetMethod(this.baseURL + path);
-        client.getParams().setAuthenticationPreemptive(true);
-        String response = null;
-        InputStream responseBodyAsStream = null;
+        GiteaHttpResponse response;
         try {
-            client.executeMethod(httpget);
-            responseBodyAsStream = httpget.getResponseBodyAsStream();
-            response = IOUtils.toString(responseBodyAsStream, "UTF-8");
-            if (httpget.getStatusCode() != HttpStatus.SC_OK) {
-                throw new GiteaRequestException(httpget.getStatusCode(), "HTTP request error. GiteaStatusOptions: " + httpget.getStatusCode() + ": " + httpget.getStatusText() + ".\n" + response);
-            }
-        } catch (HttpException e) {
+            response = executeIdempotent(false, path);
+        } catch (IOException e) {
             throw new GiteaRequestException(0, "Communication error: " + e, e);
+        }
+        if (response.getStatus() != HttpStatus.SC_OK) {
+            throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
+        }
+        return response.getBodyAsString();
+    }
+
+    /**
+     * Same as {@link #getRequest(String)}, revalidating the response kept in the {@link GiteaDiskCache} if any.
+     */
+    private String getValidatedRequest(String path) {
+        GiteaDiskCache cache = GiteaDiskCache.get();
+        if (cache == null) {
+            return getRequest(path);
+        }
+        String key = diskCacheKey(path);
+        String[] cached = cachedResponse(cache, key);
+        GiteaHttpResponse response;
+        try {
+            response = executeIdempotent(false, path, cached == null ? null : cached[0]);
         } catch (IOException e) {
             throw new GiteaRequestException(0, "Communication error: " + e, e);
-        } finally {
-            httpget.releaseConnection();
-            if (responseBodyAsStream != null) {
-                IOUtils.closeQuietly(responseBodyAsStream);
-            }
         }
-        if (response == null) {
-            throw new GiteaRequestException(0, "HTTP request error " + httpget.getStatusCode() + ":" + httpget.getStatusText());
+        if (response.getStatus() == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            return cached[1];
+        }
+        if (response.getStatus() != HttpStatus.SC_OK) {
+            throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
         }
-        return response;
+        cacheResponse(cache, key, response);
+        return response.getBodyAsString();
     }
 
-    private HttpClient getHttpClient() {
-        HttpClient client = new HttpClient();
+    private String diskCacheKey(String path) {
+        return "response " + baseURL + path + " " + credentialsFingerprint;
+    }
 
-        client.getParams().setConnectionManagerTimeout(10 * 1000);
-        client.getParams().setSoTimeout(60 * 1000);
+    /**
+     * @return the entity tag and body of the cached response, or null if none
+     */
+    @CheckForNull
+    private static String[] cachedResponse(@CheckForNull GiteaDiskCache cache, String key) {
+        byte[] cached = cache == null ? null : cache.get(key);
+        if (cached == null) {
+            return null;
+        }
+        String value = new String(cached, UTF_8);
+        int separator = value.indexOf('\n');
+        return separator < 0 ? null : new String[]{value.substring(0, separator), value.substring(separator + 1)};
+    }
 
-        Jenkins jenkins = Jenkins.getInstance();
-        ProxyConfiguration proxy = null;
-        if (jenkins != null) {
-            proxy = jenkins.proxy;
+    /**
+     * Keeps a response tagged by Gitea, the only ones that can be revalidated.
+     */
+    private static void cacheResponse(@CheckForNull GiteaDiskCache cache, String key, GiteaHttpResponse response) {
+        if (cache == null) {
+            return;
         }
-        if (proxy != null) {
-            LOGGER.info("Jenkins proxy: " + proxy.name + ":" + proxy.port);
-            client.getHostConfiguration().setProxy(proxy.name, proxy.port);
-            String username = proxy.getUserName();
-            String password = proxy.getPassword();
-            if (username != null && !"".equals(username.trim())) {
-                LOGGER.info("Using proxy authentication (user=" + username + ")");
-                client.getState().setProxyCredentials(AuthScope.ANY,
-                    new UsernamePasswordCredentials(username, password));
-            }
+        String tag = response.getHeader("ETag");
+        if (tag == null || tag.indexOf('\n') >= 0) {
+            cache.remove(key);
+        } else {
+            cache.put(key, (tag + "\n" + response.getBodyAsString()).getBytes(UTF_8));
         }
-        return client;
     }
 
-    private int getRequestStatus(String path) {
-        HttpClient client = getHttpClient();
-        client.getState().setCredentials(AuthScope.ANY, credentials);
-        GetMethod httpget = new GetMethod(this.baseURL + path);
-        client.getParams().setAuthenticationPreemptive(true);
+    /**
+     * Fetches and parses a list unless it has not been modified since the listing with the given entity tag.
+     *
+     * The entity tag is sent as {@code If-None-Match} so that Gitea can answer 304 without a body. When Gitea does not
+     * tag the response, a digest of the body stands for the tag, which still saves parsing and diffing the listing.
+     */
+    @CheckForNull
+    private <T> GiteaListing<T> getListingIfModified(String path, @CheckForNull String etag, Class<T> clazz) {
+        GiteaDiskCache cache = GiteaDiskCache.get();
+        String key = diskCacheKey(path);
+        // without a previous listing, a listing kept across restarts may still be current
+        String[] cached = etag == null ? cachedResponse(cache, key) : null;
+        GiteaHttpResponse response;
         try {
-            client.executeMethod(httpget);
-            return httpget.getStatusCode();
-        } catch (HttpException e) {
-            LOGGER.log(Level.SEVERE, "Communication error", e);
+            response = executeIdempotent(false, path, cached != null ? cached[0]
+                    : etag == null || etag.startsWith(LOCAL_ETAG_PREFIX) ? null : etag);
+        } catch (IOException e) {
+            throw new GiteaRequestException(0, "Communication error: " + e, e);
+        }
+        if (response.getStatus() == HttpStatus.SC_NOT_MODIFIED) {
+            if (cached == null) {
+                return null;
+            }
+            try {
+                return new GiteaListing<>(parseCollection(cached[1], clazz), cached[0]);
+            } catch (IOException e) {
+                throw new GiteaRequestException(response.getStatus(), "Invalid cached listing of " + path + ": " + e, e);
+            }
+        }
+        if (response.getStatus() != HttpStatus.SC_OK) {
+            throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
+        }
+        cacheResponse(cache, key, response);
+        String tag = response.getHeader("ETag");
+        if (tag == null) {
+            tag = LOCAL_ETAG_PREFIX + Util.getDigestOf(response.getBodyAsString());
+        }
+        if (tag.equals(etag)) {
+            GiteaScanContext.cacheHit();
+            return null;
+        }
+        try {
+            return new GiteaListing<>(parseCollection(response.getBodyAsString(), clazz), tag);
         } catch (IOException e) {
-            LOGGER.log(Level.SEVERE, "Communication error", e);
-        } finally {
-            httpget.releaseConnection();
+            throw new GiteaRequestException(response.getStatus(), "Invalid listing of " + path + ": " + e, e);
+        }
+    }
+
+    /**
+     * Executes a GET or DELETE request, retrying transient failures with a jittered exponential backoff.
+     *
+     * Connection errors, 429, 502, 503 and 504 responses are retried up to {@link #MAX_ATTEMPTS} times, unless the
+     * circuit of the server is open or the thread has been interrupted.
+     */
+    private GiteaHttpResponse executeIdempotent(boolean delete, String path) throws IOException {
+        return executeIdempotent(delete, path, null);
+    }
+
+    /**
+     * Same as {@link #executeIdempotent(boolean, String)}, conditional on the resource not matching an entity tag.
+     */
+    private GiteaHttpResponse executeIdempotent(boolean delete, String path, @CheckForNull String ifNoneMatch) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            HttpMethodBase method = delete ? new DeleteMethod(this.baseURL + path) : new GetMethod(this.baseURL + path);
+            if (ifNoneMatch != null) {
+                method.setRequestHeader("If-None-Match", ifNoneMatch);
+            }
+            try {
+                GiteaHttpResponse response = connection.execute(method, credentials);
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(response.getStatus())) {
+                    return response;
+                }
+                LOGGER.log(Level.FINE, "Attempt {0} of {1} {2} answered {3}, retrying",
+                        new Object[]{attempt, method.getName(), path, response.getStatus()});
+            } catch (GiteaCircuitBreaker.OpenException e) {
+                throw e;
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                LOGGER.log(Level.FINE, "Attempt " + attempt + " of " + method.getName() + " " + path + " failed, retrying", e);
+            }
+            backoff(attempt);
+        }
+    }
+
+    /**
+     * Executes a git smart HTTP request, the ref advertisement without a request body and an upload-pack command
+     * with one, retrying transient failures as {@link #executeIdempotent(boolean, String)} does.
+     *
+     * @return the response, always a 200
+     */
+    private GiteaHttpResponse gitRequest(String path, @CheckForNull byte[] request) {
+        for (int attempt = 1; ; attempt++) {
+            HttpMethodBase method;
+            if (request == null) {
+                method = new GetMethod(this.baseURL + path);
+            } else {
+                PostMethod post = new PostMethod(this.baseURL + path);
+                post.setRequestEntity(new ByteArrayRequestEntity(request, GiteaGitRefs.REQUEST_TYPE));
+                post.setRequestHeader("Accept", GiteaGitRefs.RESULT_TYPE);
+                method = post;
+            }
+            method.setRequestHeader(GiteaGitRefs.PROTOCOL_HEADER, GiteaGitRefs.PROTOCOL_VERSION_2);
+            try {
+                GiteaHttpResponse response = connection.execute(method, credentials);
+                if (attempt >= MAX_ATTEMPTS || !isRetryable(response.getStatus())) {
+                    if (response.getStatus() != HttpStatus.SC_OK) {
+                        throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
+                    }
+                    return response;
+                }
+                LOGGER.log(Level.FINE, "Attempt {0} of {1} {2} answered {3}, retrying",
+                        new Object[]{attempt, method.getName(), path, response.getStatus()});
+            } catch (GiteaCircuitBreaker.OpenException e) {
+                throw new GiteaRequestException(0, "Communication error: " + e, e);
+            } catch (IOException e) {
+                if (attempt >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) {
+                    throw new GiteaRequestException(0, "Communication error: " + e, e);
+                }
+                LOGGER.log(Level.FINE, "Attempt " + attempt + " of " + method.getName() + " " + path + " failed, retrying", e);
+            }
+            try {
+                backoff(attempt);
+            } catch (InterruptedIOException e) {
+                throw new GiteaRequestException(0, "Communication error: " + e, e);
+            }
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429
+                || status == HttpStatus.SC_BAD_GATEWAY
+                || status == HttpStatus.SC_SERVICE_UNAVAILABLE
+                || status == HttpStatus.SC_GATEWAY_TIMEOUT;
+    }
+
+    /**
+     * Sleeps a random time between 0 and an exponentially growing ceiling ("full jitter"), so that clients failing
+     * together do not retry together.
+     */
+    private static void backoff(int attempt) throws InterruptedIOException {
+        long ceiling = Math.min(RETRY_MAX_MILLIS, RETRY_BASE_MILLIS << Math.min(attempt - 1, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(ceiling + 1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (InterruptedIOException) new InterruptedIOException("Interrupted while backing off").initCause(e);
         }
-        return -1;
     }
 
     private <T> String serialize(T o) throws IOException {
@@ -447,38 +840,22 @@ public class GiteaServerAPIClient implements GiteaApi {
     }
 
     private String postRequest(PostMethod httppost) throws UnsupportedEncodingException {
-        HttpClient client = getHttpClient();
-        client.getState().setCredentials(AuthScope.ANY, credentials);
-        client.getParams().setAuthenticationPreemptive(true);
-        String response = null;
-        InputStream responseBodyAsStream = null;
+        GiteaHttpResponse response;
         try {
-            client.executeMethod(httppost);
-            if (httppost.getStatusCode() == HttpStatus.SC_NO_CONTENT) {
-                // 204, no content
-                return "";
-            }
-            responseBodyAsStream = httppost.getResponseBodyAsStream();
-            if (responseBodyAsStream != null) {
-                response = IOUtils.toString(responseBodyAsStream, "UTF-8");
-            }
-            if (httppost.getStatusCode() != HttpStatus.SC_OK && httppost.getStatusCode() != HttpStatus.SC_CREATED) {
-                throw new GiteaRequestException(httppost.getStatusCode(), "HTTP request error. GiteaStatusOptions: " + httppost.getStatusCode() + ": " + httppost.getStatusText() + ".\n" + response);
-            }
+            response = connection.execute(httppost, credentials);
         } catch (HttpException e) {
             throw new GiteaRequestException(0, "Communication error: " + e, e);
         } catch (IOException e) {
             throw new GiteaRequestException(0, "Communication error: " + e, e);
-        } finally {
-            httppost.releaseConnection();
-            if (responseBodyAsStream != null) {
-                IOUtils.closeQuietly(responseBodyAsStream);
-            }
         }
-        if (response == null) {
-            throw new GiteaRequestException(0, "HTTP request error");
+        if (response.getStatus() == HttpStatus.SC_NO_CONTENT) {
+            // 204, no content
+            return "";
+        }
+        if (response.getStatus() != HttpStatus.SC_OK && response.getStatus() != HttpStatus.SC_CREATED) {
+            throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
         }
-        return response;
+        return response.getBodyAsString();
 
     }
 
@@ -490,27 +867,16 @@ public class GiteaServerAPIClient implements GiteaApi {
 
 
     private String deleteRequest(String path) {
-        HttpClient client = getHttpClient();
-        client.getState().setCredentials(AuthScope.ANY, credentials);
-        DeleteMethod httpDelete = new DeleteMethod(this.baseURL + path);
-        client.getParams().setAuthenticationPreemptive(true);
-        String response = null;
+        GiteaHttpResponse response;
         try {
-            client.executeMethod(httpDelete);
-            if (httpDelete.getStatusCode() != HttpStatus.SC_NO_CONTENT) {
-                throw new GiteaRequestException(httpDelete.getStatusCode(), "HTTP request error. GiteaStatusOptions: " + httpDelete.getStatusCode() + ": " + httpDelete.getStatusText() + ".\n" + response);
-            }
-        } catch (HttpException e) {
-            throw new GiteaRequestException(0, "Communication error: " + e, e);
+            response = executeIdempotent(true, path);
         } catch (IOException e) {
             throw new GiteaRequestException(0, "Communication error: " + e, e);
-        } finally {
-            httpDelete.releaseConnection();
         }
-        if (response == null) {
-            throw new GiteaRequestException(0, "HTTP request error " + httpDelete.getStatusCode() + ":" + httpDelete.getStatusText());
+        if (response.getStatus() != HttpStatus.SC_NO_CONTENT) {
+            throw new GiteaRequestException(response.getStatus(), "HTTP request error. GiteaStatusOptions: " + response.getStatus() + ": " + response.getStatusText() + ".\n" + response.getBodyAsString());
         }
-        return response;
+        return response.getBodyAsString();
     }
 
 }
@@ -0,0 +1,226 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.UsernamePasswordCredentials;
+import org.apache.commons.httpclient.auth.AuthScope;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.ProxyConfiguration;
+import jenkins.model.Jenkins;
+
+/**
+ * State shared by every {@link GiteaServerAPIClient} talking to the same Gitea server.
+ *
+ * It owns a pooled, thread-safe {@link HttpClient} so that clients for different owners, repositories and credentials
+ * reuse connections to the server instead of opening new ones on every call, plus the {@link GiteaCircuitBreaker} and
+ * {@link GiteaRequestGovernor} all their requests go through and the {@link GiteaSingleFlight} coalescing their
+ * identical reads. Every request is recorded in the {@link GiteaApiMetrics} and in the {@link GiteaScanContext} of
+ * the calling thread.
+ *
+ * Requests are sent through a {@link GiteaTransport}: over HTTP, unless the traffic is recorded to or replayed from a
+ * {@link GiteaTrafficArchive}.
+ */
+public class GiteaServerConnection {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaServerConnection.class.getName());
+
+    /**
+     * Maximum number of pooled connections opened against a single Gitea server.
+     */
+    private static final int MAX_CONNECTIONS = Integer.getInteger(GiteaServerConnection.class.getName() + ".maxConnections", 20);
+
+    /**
+     * Timeout to establish a connection, so that an unreachable server does not hold threads for long.
+     */
+    private static final int CONNECTION_TIMEOUT = Integer.getInteger(GiteaServerConnection.class.getName() + ".connectionTimeoutMillis", 10 * 1000);
+
+    private static final ConcurrentMap<String, GiteaServerConnection> CONNECTIONS = new ConcurrentHashMap<String, GiteaServerConnection>();
+
+    private final String baseURL;
+
+    private final HttpClient httpClient;
+
+    private final GiteaRequestGovernor governor;
+
+    private final GiteaCircuitBreaker circuitBreaker;
+
+    private final GiteaSingleFlight singleFlight = new GiteaSingleFlight();
+
+    private final GiteaTransport transport;
+
+    GiteaServerConnection(String baseURL) {
+        this.baseURL = baseURL;
+        this.governor = new GiteaRequestGovernor(baseURL);
+        this.circuitBreaker = new GiteaCircuitBreaker(baseURL);
+        MultiThreadedHttpConnectionManager connectionManager = new MultiThreadedHttpConnectionManager();
+        HttpConnectionManagerParams params = connectionManager.getParams();
+        params.setDefaultMaxConnectionsPerHost(MAX_CONNECTIONS);
+        params.setMaxTotalConnections(MAX_CONNECTIONS);
+        params.setConnectionTimeout(CONNECTION_TIMEOUT);
+        this.httpClient = new HttpClient(connectionManager);
+        this.httpClient.getParams().setConnectionManagerTimeout(10 * 1000);
+        this.httpClient.getParams().setSoTimeout(60 * 1000);
+        this.httpClient.getParams().setAuthenticationPreemptive(true);
+        GiteaTransport http = new GiteaTransport() {
+            @NonNull
+            @Override
+            public GiteaHttpResponse execute(@NonNull HttpMethodBase method, @NonNull HostConfiguration hostConfiguration,
+                                             @NonNull HttpState state) throws IOException {
+                httpClient.executeMethod(hostConfiguration, method, state);
+                return GiteaHttpResponse.read(method);
+            }
+        };
+        GiteaTransport transport = http;
+        try {
+            transport = GiteaTrafficArchive.wrap(http);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Could not open the Gitea traffic archive, using " + baseURL + " directly", e);
+        }
+        this.transport = transport;
+    }
+
+    /**
+     * Returns the connection shared by all the clients of the given server.
+     *
+     * @param baseURL the Gitea server URL
+     * @return the shared connection
+     */
+    @NonNull
+    public static GiteaServerConnection of(@CheckForNull String baseURL) {
+        String key = String.valueOf(baseURL);
+        GiteaServerConnection connection = CONNECTIONS.get(key);
+        if (connection == null) {
+            GiteaServerConnection created = new GiteaServerConnection(baseURL);
+            connection = CONNECTIONS.putIfAbsent(key, created);
+            if (connection == null) {
+                connection = created;
+                GiteaApiMetrics.register(baseURL, created.singleFlight);
+            }
+        }
+        return connection;
+    }
+
+    public String getBaseURL() {
+        return baseURL;
+    }
+
+    public GiteaRequestGovernor getGovernor() {
+        return governor;
+    }
+
+    public GiteaCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    public GiteaSingleFlight getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * Executes the method with the given credentials and buffers the response.
+     *
+     * @param method      the method to execute, its connection is always released on return
+     * @param credentials the credentials to authenticate with, or null for anonymous access
+     * @return the buffered response
+     * @throws IOException if the server could not be reached or the response could not be read, if the circuit is
+     *                     open or if the thread was interrupted while waiting for the {@link GiteaRequestGovernor}
+     */
+    @NonNull
+    GiteaHttpResponse execute(@NonNull HttpMethodBase method, @CheckForNull UsernamePasswordCredentials credentials)
+            throws IOException {
+        HostConfiguration hostConfiguration = new HostConfiguration();
+        HttpState state = new HttpState();
+        if (credentials != null) {
+            state.setCredentials(AuthScope.ANY, credentials);
+        }
+        configureProxy(hostConfiguration, state);
+        circuitBreaker.beforeRequest();
+        long queued = System.nanoTime();
+        try {
+            governor.acquire();
+        } catch (InterruptedException e) {
+            circuitBreaker.onCancelled();
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while waiting to call " + baseURL).initCause(e);
+        }
+        long start = System.nanoTime();
+        int status = -1;
+        long bytes = 0;
+        GiteaFlightRecorder.Span span = GiteaFlightRecorder.begin(GiteaFlightRecorder.Type.HTTP_REQUEST);
+        try {
+            GiteaHttpResponse response = transport.execute(method, hostConfiguration, state);
+            status = response.getStatus();
+            bytes = response.getBody().length;
+            governor.onRetryAfter(status, response.getHeader("Retry-After"));
+            return response;
+        } finally {
+            method.releaseConnection();
+            long elapsed = System.nanoTime() - start;
+            governor.release(TimeUnit.NANOSECONDS.toMillis(elapsed), status);
+            circuitBreaker.onResult(status);
+            GiteaApiMetrics.record(baseURL, method.getPath(), status, bytes, elapsed);
+            GiteaScanContext.record(method.getName(), method.getPath(), status, bytes, start - queued,
+                    System.nanoTime() - queued);
+            if (span != null) {
+                span.end(method.getName() + " " + GiteaApiMetrics.endpoint(method.getPath()),
+                        GiteaApiMetrics.repository(method.getPath()), status < 0 ? "error" : String.valueOf(status));
+            }
+        }
+    }
+
+    private void configureProxy(HostConfiguration hostConfiguration, HttpState state) {
+        Jenkins jenkins = Jenkins.getInstance();
+        ProxyConfiguration proxy = null;
+        if (jenkins != null) {
+            proxy = jenkins.proxy;
+        }
+        if (proxy != null) {
+            LOGGER.log(Level.FINE, "Jenkins proxy: {0}:{1}", new Object[] {proxy.name, proxy.port});
+            hostConfiguration.setProxy(proxy.name, proxy.port);
+            String username = proxy.getUserName();
+            String password = proxy.getPassword();
+            if (username != null && !"".equals(username.trim())) {
+                LOGGER.log(Level.FINE, "Using proxy authentication (user={0})", username);
+                state.setProxyCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Coalesces identical concurrent calls: while a call for a given key is running, other callers asking for the same key
+ * wait for it and share its result instead of issuing their own request.
+ *
+ * Nothing is cached once the call completes, the next caller triggers a new call.
+ */
+public class GiteaSingleFlight {
+
+    private final ConcurrentMap<String, FutureTask<Object>> inFlight = new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Runs the loader, or joins the call already running for the same key.
+     *
+     * @param key    identifies the call, it must cover everything the result depends on (URL, credentials, result type)
+     * @param loader the call to make
+     * @param <V>    the result type
+     * @return the result of the call
+     * @throws IOException if the call failed, or if the thread was interrupted while waiting for another caller
+     */
+    @SuppressWarnings("unchecked")
+    public <V> V execute(@NonNull String key, @NonNull Callable<V> loader) throws IOException {
+        FutureTask<Object> task = new FutureTask<Object>((Callable<Object>) loader);
+        FutureTask<Object> running = inFlight.putIfAbsent(key, task);
+        if (running == null) {
+            calls.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        } else {
+            coalesced.incrementAndGet();
+            GiteaScanContext.cacheHit();
+        }
+        try {
+            return (V) running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw (IOException) new InterruptedIOException("Interrupted while waiting for " + key).initCause(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * @return the number of calls actually made
+     */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return the number of callers that joined a call made by another caller
+     */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+}
@@ -0,0 +1,411 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.httpclient.EntityEnclosingMethod;
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.methods.RequestEntity;
+import org.apache.commons.httpclient.methods.StringRequestEntity;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Util;
+
+/**
+ * Records the Gitea API traffic to a compact archive, or replays it from one, so that a scan captured once against a
+ * real server can be run again offline, for instance by the benchmarks.
+ *
+ * Set {@code -Dcom.cloudbees.jenkins.plugins.gitea.server.client.GiteaTrafficArchive.record=<file>} to record every
+ * request and response of the JVM, or {@code ...replay=<file>} to answer the requests from the archive instead of the
+ * network, adding {@code ...replayTiming=true} to reproduce the recorded response times.
+ *
+ * The archive is a gzipped sequence of length-prefixed entries, each holding the request key (method, server, path and
+ * query, entity tag and a digest of the request body) and the response (status, headers and body, or the error). Request headers are never
+ * recorded, token query parameters are redacted and cookies are dropped, so the archive holds no credentials. A request
+ * recorded several times is answered with the recorded responses in order, then with the last one, and a request
+ * never recorded with a 404.
+ */
+public final class GiteaTrafficArchive {
+
+    private static final Logger LOGGER = Logger.getLogger(GiteaTrafficArchive.class.getName());
+
+    private static final String PREFIX = GiteaTrafficArchive.class.getName();
+
+    private static final int FORMAT = 2;
+
+    private static final Pattern SECRET_PARAMETERS = Pattern.compile("(?<=[?&])(token|access_token|password)=[^&]*");
+
+    private static final String COOKIE = "set-cookie";
+
+    /**
+     * Archives by file, shared by the connections of every server.
+     */
+    private static final ConcurrentMap<File, Object> ARCHIVES = new ConcurrentHashMap<File, Object>();
+
+    private GiteaTrafficArchive() {
+    }
+
+    /**
+     * Wraps the HTTP transport of a connection when recording or replaying is enabled.
+     *
+     * @param http the transport sending the requests over HTTP
+     * @return the transport to use
+     * @throws IOException if the archive could not be opened
+     */
+    @NonNull
+    static GiteaTransport wrap(@NonNull GiteaTransport http) throws IOException {
+        String replay = System.getProperty(PREFIX + ".replay");
+        if (replay != null) {
+            return archive(new File(replay), false, http);
+        }
+        String record = System.getProperty(PREFIX + ".record");
+        if (record != null) {
+            return archive(new File(record), true, http);
+        }
+        return http;
+    }
+
+    private static synchronized GiteaTransport archive(File file, boolean record, GiteaTransport http) throws IOException {
+        Object archive = ARCHIVES.get(file);
+        if (archive == null) {
+            archive = record ? new Recorder(file) : new Replayer(file, Boolean.getBoolean(PREFIX + ".replayTiming"));
+            ARCHIVES.put(file, archive);
+        }
+        return record ? ((Recorder) archive).wrap(http) : (Replayer) archive;
+    }
+
+    /**
+     * Restarts the replay of the archives from their first responses, so that repeated runs see the same traffic.
+     */
+    public static void rewind() {
+        for (Object archive : ARCHIVES.values()) {
+            if (archive instanceof Replayer) {
+                ((Replayer) archive).served.clear();
+            }
+        }
+    }
+
+    /**
+     * Identifies a request: method, server, path and query with secrets redacted, entity tag and a digest of the body.
+     */
+    static String key(HttpMethodBase method) throws IOException {
+        StringBuilder key = new StringBuilder(method.getName()).append(' ');
+        URI uri = method.getURI();
+        if (uri.getHost() != null) {
+            key.append(uri.getScheme()).append("://").append(uri.getHost());
+            if (uri.getPort() != -1) {
+                key.append(':').append(uri.getPort());
+            }
+        }
+        key.append(method.getPath());
+        if (method.getQueryString() != null) {
+            key.append('?').append(SECRET_PARAMETERS.matcher(method.getQueryString()).replaceAll("$1=redacted"));
+        }
+        Header ifNoneMatch = method.getRequestHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            key.append(" If-None-Match:").append(ifNoneMatch.getValue());
+        }
+        if (method instanceof EntityEnclosingMethod) {
+            RequestEntity entity = ((EntityEnclosingMethod) method).getRequestEntity();
+            if (entity instanceof StringRequestEntity) {
+                key.append(' ').append(Util.getDigestOf(((StringRequestEntity) entity).getContent()));
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Writes a string as its UTF-8 length and bytes, unlike {@link DataOutputStream#writeUTF(String)} not limited to
+     * 64 KiB.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes("UTF-8");
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupt string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * A recorded response, or error when the status is -1.
+     */
+    private static final class Entry {
+
+        private final long elapsedNanos;
+
+        private final int status;
+
+        private final String statusText;
+
+        private final Map<String, String> headers;
+
+        private final byte[] body;
+
+        Entry(long elapsedNanos, int status, String statusText, Map<String, String> headers, byte[] body) {
+            this.elapsedNanos = elapsedNanos;
+            this.status = status;
+            this.statusText = statusText;
+            this.headers = headers;
+            this.body = body;
+        }
+
+    }
+
+    /**
+     * Appends the traffic of every wrapped transport to an archive.
+     */
+    private static final class Recorder {
+
+        private final File file;
+
+        private final DataOutputStream out;
+
+        private int entries;
+
+        Recorder(File file) throws IOException {
+            this.file = file;
+            this.out = new DataOutputStream(new BufferedOutputStream(
+                    new GZIPOutputStream(new FileOutputStream(file), 64 * 1024, true)));
+            out.writeInt(FORMAT);
+            out.flush();
+            Runtime.getRuntime().addShutdownHook(new Thread("Closing " + file) {
+                @Override
+                public void run() {
+                    close();
+                }
+            });
+            LOGGER.log(Level.INFO, "Recording the Gitea API traffic to {0}", file);
+        }
+
+        GiteaTransport wrap(final GiteaTransport http) {
+            return new GiteaTransport() {
+                @NonNull
+                @Override
+                public GiteaHttpResponse execute(@NonNull HttpMethodBase method,
+                                                 @NonNull HostConfiguration hostConfiguration,
+                                                 @NonNull HttpState state) throws IOException {
+                    String key = key(method);
+                    long start = System.nanoTime();
+                    GiteaHttpResponse response;
+                    try {
+                        response = http.execute(method, hostConfiguration, state);
+                    } catch (IOException e) {
+                        write(key, new Entry(System.nanoTime() - start, -1, String.valueOf(e),
+                                Collections.<String, String>emptyMap(), new byte[0]));
+                        throw e;
+                    }
+                    Map<String, String> headers = new TreeMap<String, String>(response.getHeaders());
+                    headers.remove(COOKIE);
+                    write(key, new Entry(System.nanoTime() - start, response.getStatus(), response.getStatusText(),
+                            headers, response.getBody()));
+                    return response;
+                }
+            };
+        }
+
+        private synchronized void write(String key, Entry entry) {
+            try {
+                // serialized first, so that a failure leaves no partial entry in the archive
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(entry.body.length + 512);
+                DataOutputStream data = new DataOutputStream(bytes);
+                writeString(data, key);
+                data.writeLong(entry.elapsedNanos);
+                data.writeInt(entry.status);
+                writeString(data, String.valueOf(entry.statusText));
+                data.writeInt(entry.headers.size());
+                for (Map.Entry<String, String> header : entry.headers.entrySet()) {
+                    writeString(data, header.getKey());
+                    writeString(data, header.getValue());
+                }
+                data.writeInt(entry.body.length);
+                data.write(entry.body);
+                data.flush();
+                out.writeInt(bytes.size());
+                bytes.writeTo(out);
+                // synced, so that the archive is readable up to here even if the JVM dies
+                out.flush();
+                entries++;
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not record " + key + " to " + file, e);
+            }
+        }
+
+        synchronized void close() {
+            try {
+                out.close();
+                LOGGER.log(Level.INFO, "Recorded {0} Gitea API responses to {1}", new Object[]{entries, file});
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Could not close " + file, e);
+            }
+        }
+
+    }
+
+    /**
+     * Answers the requests from an archive.
+     */
+    private static final class Replayer implements GiteaTransport {
+
+        private final Map<String, List<Entry>> responses = new TreeMap<String, List<Entry>>();
+
+        private final ConcurrentMap<String, AtomicInteger> served = new ConcurrentHashMap<String, AtomicInteger>();
+
+        private final boolean timing;
+
+        Replayer(File file, boolean timing) throws IOException {
+            this.timing = timing;
+            int count = 0;
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    new GZIPInputStream(new FileInputStream(file), 64 * 1024)));
+            try {
+                int format = in.readInt();
+                if (format != FORMAT) {
+                    throw new IOException("Unsupported format " + format + " of " + file);
+                }
+                while (true) {
+                    int length;
+                    try {
+                        length = in.readInt();
+                    } catch (EOFException e) {
+                        // end of the archive, or of what was synced of an archive left open
+                        break;
+                    }
+                    if (length < 0) {
+                        throw new IOException("Corrupt entry length " + length + " in " + file);
+                    }
+                    byte[] bytes = new byte[length];
+                    in.readFully(bytes);
+                    DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+                    String key = readString(data);
+                    long elapsedNanos = data.readLong();
+                    int status = data.readInt();
+                    String statusText = readString(data);
+                    Map<String, String> headers = new TreeMap<String, String>();
+                    for (int i = data.readInt(); i > 0; i--) {
+                        headers.put(readString(data), readString(data));
+                    }
+                    byte[] body = new byte[data.readInt()];
+                    data.readFully(body);
+                    List<Entry> entries = responses.get(key);
+                    if (entries == null) {
+                        entries = new ArrayList<Entry>();
+                        responses.put(key, entries);
+                    }
+                    entries.add(new Entry(elapsedNanos, status, statusText, headers, body));
+                    count++;
+                }
+            } catch (EOFException e) {
+                LOGGER.log(Level.WARNING, "Truncated entry at the end of {0}, ignored", file);
+            } finally {
+                in.close();
+            }
+            LOGGER.log(Level.INFO, "Replaying {0} Gitea API responses to {1} requests from {2}{3}",
+                    new Object[]{count, responses.size(), file, timing ? " with their recorded timing" : ""});
+        }
+
+        @NonNull
+        @Override
+        public GiteaHttpResponse execute(@NonNull HttpMethodBase method, @NonNull HostConfiguration hostConfiguration,
+                                         @NonNull HttpState state) throws IOException {
+            String key = key(method);
+            Entry entry = next(key);
+            if (entry == null) {
+                LOGGER.log(Level.FINE, "Not recorded: {0}", key);
+                return new GiteaHttpResponse(404, "Not recorded", Collections.<String, String>emptyMap(),
+                        "{\"message\":\"Not recorded\"}".getBytes("UTF-8"));
+            }
+            if (timing) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(entry.elapsedNanos);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw (InterruptedIOException) new InterruptedIOException("Interrupted while replaying " + key)
+                            .initCause(e);
+                }
+            }
+            if (entry.status < 0) {
+                throw new IOException(entry.statusText);
+            }
+            return new GiteaHttpResponse(entry.status, entry.statusText, entry.headers, entry.body);
+        }
+
+        @CheckForNull
+        private Entry next(String key) {
+            List<Entry> entries = responses.get(key);
+            if (entries == null) {
+                return null;
+            }
+            AtomicInteger counter = served.get(key);
+            if (counter == null) {
+                AtomicInteger created = new AtomicInteger();
+                counter = served.putIfAbsent(key, created);
+                if (counter == null) {
+                    counter = created;
+                }
+            }
+            return entries.get(Math.min(counter.getAndIncrement(), entries.size() - 1));
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import java.io.IOException;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpState;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+
+/**
+ * Sends the requests of a {@link GiteaServerConnection} and reads their responses.
+ *
+ * The connection applies its circuit breaker, governor and metrics around the transport, and releases the connection
+ * of the method once the transport returns. Besides HTTP, requests can be recorded to or replayed from a
+ * {@link GiteaTrafficArchive}.
+ */
+public interface GiteaTransport {
+
+    /**
+     * Executes a method.
+     *
+     * @param method            the method to execute
+     * @param hostConfiguration the host configuration, with the Jenkins proxy if any
+     * @param state             the state, with the credentials to authenticate with
+     * @return the buffered response
+     * @throws IOException if the server could not be reached or the response could not be read
+     */
+    @NonNull
+    GiteaHttpResponse execute(@NonNull HttpMethodBase method, @NonNull HostConfiguration hostConfiguration,
+                              @NonNull HttpState state) throws IOException;
+
+}
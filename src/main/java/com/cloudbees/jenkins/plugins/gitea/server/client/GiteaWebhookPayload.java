@@ -23,35 +23,387 @@
  */
 package com.cloudbees.jenkins.plugins.gitea.server.client;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonParser;
+import org.codehaus.jackson.JsonToken;
 
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaCreateEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPullRequestEvent;
 import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadCommit;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadOwner;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadPullRequest;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadRepo;
 
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 
+/**
+ * Decodes hook payloads.
+ *
+ * Payloads are read with a streaming parser that only binds the fields the plugin routes on, plus the messages and
+ * changed paths of pushed commits, and skips every other subtree (commit authors, full repository and user
+ * descriptions...). Decoding stops as soon as the wanted fields
+ * have been read, or when the repository turns out not to be used by any job.
+ */
 public class GiteaWebhookPayload {
 
     private static final Logger LOGGER = Logger.getLogger(GiteaWebhookPayload.class.getName());
 
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Tells whether hooks of a repository are of any interest.
+     */
+    public interface RepositoryFilter {
+
+        boolean accepts(@NonNull String owner, @NonNull String repository);
+
+    }
+
+    /**
+     * Reads a payload.
+     *
+     * @param in       the request body
+     * @param maxBytes the maximum size of the payload
+     * @return the payload, or null if it is larger than {@code maxBytes}
+     * @throws IOException if the body could not be read
+     */
+    @CheckForNull
+    public static byte[] read(@NonNull InputStream in, int maxBytes) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            if (out.size() + n > maxBytes) {
+                return null;
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param payload the "push" hook payload
+     * @param filter  the repositories of interest, null for all
+     * @return the push, or null if the payload could not be read or its repository is filtered out
+     */
+    @CheckForNull
+    public static GiteaPushEvent pushEventFromPayload(@NonNull byte[] payload, @CheckForNull RepositoryFilter filter) {
+        final GiteaPushEvent push = new GiteaPushEvent();
+        return decode(payload, filter, new Decoder<GiteaPushEvent>(push, 5) {
+            @Override
+            boolean field(String name, JsonParser parser) throws IOException {
+                if ("ref".equals(name)) {
+                    push.setRef(text(parser));
+                } else if ("before".equals(name)) {
+                    push.setBefore(text(parser));
+                } else if ("after".equals(name)) {
+                    push.setAfter(text(parser));
+                } else if ("commits".equals(name)) {
+                    push.setCommits(readCommits(parser));
+                } else if ("total_commits".equals(name)) {
+                    push.setTotalCommits(parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getIntValue());
+                } else {
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            void repository(PayloadRepo repository) {
+                push.setRepository(repository);
+            }
+        });
+    }
+
+    /**
+     * @param payload the "create" hook payload
+     * @param filter  the repositories of interest, null for all
+     * @return the creation, or null if the payload could not be read or its repository is filtered out
+     */
+    @CheckForNull
+    public static GiteaCreateEvent createEventFromPayload(@NonNull byte[] payload, @CheckForNull RepositoryFilter filter) {
+        final GiteaCreateEvent create = new GiteaCreateEvent();
+        return decode(payload, filter, new Decoder<GiteaCreateEvent>(create, 3) {
+            @Override
+            boolean field(String name, JsonParser parser) throws IOException {
+                if ("ref".equals(name)) {
+                    create.setRef(text(parser));
+                } else if ("ref_type".equals(name)) {
+                    create.setRefType(text(parser));
+                } else if ("sha".equals(name)) {
+                    create.setSha(text(parser));
+                } else {
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            void repository(PayloadRepo repository) {
+                create.setRepository(repository);
+            }
+        });
+    }
+
+    /**
+     * @param payload the "pull_request" hook payload
+     * @param filter  the repositories of interest, null for all
+     * @return the pull request event, or null if the payload could not be read or its repository is filtered out
+     */
+    @CheckForNull
+    public static GiteaPullRequestEvent pullRequestEventFromPayload(@NonNull byte[] payload,
+                                                                    @CheckForNull RepositoryFilter filter) {
+        final GiteaPullRequestEvent event = new GiteaPullRequestEvent();
+        return decode(payload, filter, new Decoder<GiteaPullRequestEvent>(event, 3) {
+            @Override
+            boolean field(String name, JsonParser parser) throws IOException {
+                if ("action".equals(name)) {
+                    event.setAction(text(parser));
+                } else if ("number".equals(name)) {
+                    event.setNumber(parser.getLongValue());
+                } else if ("pull_request".equals(name)) {
+                    event.setPullRequest(readPullRequest(parser));
+                } else {
+                    return false;
+                }
+                return true;
+            }
+
+            @Override
+            void repository(PayloadRepo repository) {
+                event.setRepository(repository);
+            }
+        });
+    }
+
+    /**
+     * Identifies what a payload changes independently of the delivery it came with, so that the same change delivered
+     * through several hooks can be recognized by comparing {@link GiteaWebhookEvent#getChangeKey()} to the latest change
+     * of the subject.
+     *
+     * @param payload the decoded hook payload
+     * @return the repository id and the change subject of the payload, or null if the payload does not identify a
+     *         single change
+     */
     @CheckForNull
-    public static GiteaPushEvent pushEventFromPayload(@NonNull String payload) {
+    public static String changeSubject(@NonNull GiteaWebhookEvent payload) {
+        String subject = payload.getChangeSubject();
+        if (payload.getRepository() == null || payload.getRepository().getId() == null || subject == null) {
+            return null;
+        }
+        return payload.getRepository().getId() + ":" + subject;
+    }
+
+    private static <E extends GiteaWebhookEvent> E decode(byte[] payload, RepositoryFilter filter, Decoder<E> decoder) {
         try {
-            return parse(payload, GiteaPushEvent.class);
+            JsonParser parser = JSON_FACTORY.createJsonParser(payload);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return null;
+                }
+                // the wanted fields plus the repository
+                int remaining = decoder.fields + 1;
+                while (remaining > 0 && parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("repository".equals(name)) {
+                        PayloadRepo repository = readRepository(parser);
+                        if (repository.getName() == null || repository.getOwner() == null
+                                || repository.getOwner().getUsername() == null) {
+                            return null;
+                        }
+                        if (filter != null && !filter.accepts(repository.getOwner().getUsername(), repository.getName())) {
+                            LOGGER.log(Level.FINE, "Ignoring hook payload of {0}/{1}, not used by any job",
+                                    new Object[]{repository.getOwner().getUsername(), repository.getName()});
+                            return null;
+                        }
+                        decoder.repository(repository);
+                        remaining--;
+                    } else if (decoder.field(name, parser)) {
+                        remaining--;
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                return decoder.event.getRepository() == null ? null : decoder.event;
+            } finally {
+                parser.close();
+            }
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Can not read hook payload", e);
         }
         return null;
     }
 
+    private static PayloadRepo readRepository(JsonParser parser) throws IOException {
+        PayloadRepo repository = new PayloadRepo();
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return repository;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("id".equals(name)) {
+                repository.setId(parser.getLongValue());
+            } else if ("name".equals(name)) {
+                repository.setName(text(parser));
+            } else if ("owner".equals(name)) {
+                repository.setOwner(readOwner(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return repository;
+    }
+
+    private static PayloadOwner readOwner(JsonParser parser) throws IOException {
+        PayloadOwner owner = new PayloadOwner();
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return owner;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            if ("username".equals(name) || ("login".equals(name) && owner.getUsername() == null)) {
+                // older Gitea versions only send "username", newer ones both
+                owner.setUsername(text(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return owner;
+    }
+
+    private static List<PayloadCommit> readCommits(JsonParser parser) throws IOException {
+        List<PayloadCommit> commits = new ArrayList<PayloadCommit>();
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return commits;
+        }
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            PayloadCommit commit = new PayloadCommit();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                parser.nextToken();
+                if ("id".equals(name)) {
+                    commit.setId(text(parser));
+                } else if ("message".equals(name)) {
+                    commit.setMessage(text(parser));
+                } else if ("added".equals(name)) {
+                    commit.setAdded(readStrings(parser));
+                } else if ("removed".equals(name)) {
+                    commit.setRemoved(readStrings(parser));
+                } else if ("modified".equals(name)) {
+                    commit.setModified(readStrings(parser));
+                } else {
+                    // author, committer, url, timestamp...
+                    parser.skipChildren();
+                }
+            }
+            commits.add(commit);
+        }
+        return commits;
+    }
+
+    private static List<String> readStrings(JsonParser parser) throws IOException {
+        List<String> values = new ArrayList<String>();
+        if (parser.getCurrentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return values;
+        }
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            if (parser.getCurrentToken() == JsonToken.VALUE_STRING) {
+                values.add(parser.getText());
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return values;
+    }
+
+    private static PayloadPullRequest readPullRequest(JsonParser parser) throws IOException {
+        PayloadPullRequest pullRequest = new PayloadPullRequest();
+        if (parser.getCurrentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return pullRequest;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if ("id".equals(name)) {
+                pullRequest.setId(parser.getLongValue());
+            } else if ("number".equals(name)) {
+                pullRequest.setNumber(parser.getLongValue());
+            } else if ("state".equals(name)) {
+                pullRequest.setState(text(parser));
+            } else if (("head".equals(name) || "base".equals(name)) && token == JsonToken.START_OBJECT) {
+                boolean head = "head".equals(name);
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    if ("ref".equals(field)) {
+                        if (head) {
+                            pullRequest.setHeadRef(text(parser));
+                        } else {
+                            pullRequest.setBaseRef(text(parser));
+                        }
+                    } else if ("sha".equals(field) && head) {
+                        pullRequest.setHeadSha(text(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return pullRequest;
+    }
+
+    @CheckForNull
+    private static String text(JsonParser parser) throws IOException {
+        return parser.getCurrentToken() == JsonToken.VALUE_NULL ? null : parser.getText();
+    }
+
+    /**
+     * Binds the top level fields of a payload.
+     */
+    private abstract static class Decoder<E extends GiteaWebhookEvent> {
+
+        private final E event;
+
+        /**
+         * Number of wanted top level fields, besides the repository.
+         */
+        private final int fields;
+
+        Decoder(E event, int fields) {
+            this.event = event;
+            this.fields = fields;
+        }
+
+        /**
+         * Binds a top level field, with the parser on its value.
+         *
+         * @return whether the field is wanted
+         */
+        abstract boolean field(String name, JsonParser parser) throws IOException;
+
+        abstract void repository(PayloadRepo repository);
 
-    private static <T> T parse(String response, Class<T> clazz) throws IOException {
-        ObjectMapper mapper = new ObjectMapper();
-        return mapper.readValue(response, clazz);
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package com.cloudbees.jenkins.plugins.gitea.server.client.events;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadRepo;
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
+
+/**
+ * Payload of the "create" hook, sent when a branch or a tag is created.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GiteaCreateEvent implements GiteaWebhookEvent {
+
+    /**
+     * Short name of the created branch or tag (no "refs/heads/" prefix).
+     */
+    private String ref;
+
+    @JsonProperty("ref_type")
+    private String refType;
+
+    private String sha;
+
+    private PayloadRepo repository;
+
+    public String getRef() {
+        return ref;
+    }
+
+    public void setRef(String ref) {
+        this.ref = ref;
+    }
+
+    public String getRefType() {
+        return refType;
+    }
+
+    public void setRefType(String refType) {
+        this.refType = refType;
+    }
+
+    public String getSha() {
+        return sha;
+    }
+
+    public void setSha(String sha) {
+        this.sha = sha;
+    }
+
+    @Override
+    public PayloadRepo getRepository() {
+        return repository;
+    }
+
+    public void setRepository(PayloadRepo repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The full ref name, as in {@link GiteaPushEvent}.
+     */
+    @Override
+    public String getChangeSubject() {
+        if (ref == null) {
+            return null;
+        }
+        return ref.startsWith("refs/") ? ref : ("tag".equals(refType) ? "refs/tags/" : "refs/heads/") + ref;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The same as the push creating the ref.
+     */
+    @Override
+    public String getChangeKey() {
+        return sha == null ? null : ":" + sha;
+    }
+
+}
@@ -1,15 +1,69 @@
 package com.cloudbees.jenkins.plugins.gitea.server.client.events;
 
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadPullRequest;
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadRepo;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
 
 /**
- * Created by kmadel on 6/16/17.
+ * Payload of the "pull_request" hook.
  */
-
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GiteaPullRequestEvent {
+public class GiteaPullRequestEvent implements GiteaWebhookEvent {
 
     private String action;
 
+    private long number;
+
+    @JsonProperty("pull_request")
+    private PayloadPullRequest pullRequest;
+
+    private PayloadRepo repository;
+
+    public String getAction() {
+        return action;
+    }
+
+    public void setAction(String action) {
+        this.action = action;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public void setNumber(long number) {
+        this.number = number;
+    }
+
+    public PayloadPullRequest getPullRequest() {
+        return pullRequest;
+    }
+
+    public void setPullRequest(PayloadPullRequest pullRequest) {
+        this.pullRequest = pullRequest;
+    }
+
+    @Override
+    public PayloadRepo getRepository() {
+        return repository;
+    }
+
+    public void setRepository(PayloadRepo repository) {
+        this.repository = repository;
+    }
+
+    @Override
+    public String getChangeSubject() {
+        return number <= 0 ? null : "pull/" + number;
+    }
+
+    @Override
+    public String getChangeKey() {
+        if (number <= 0) {
+            return null;
+        }
+        return action + ":" + (pullRequest == null ? null : pullRequest.getHeadSha());
+    }
 
 }
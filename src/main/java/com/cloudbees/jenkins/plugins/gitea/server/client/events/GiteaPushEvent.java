@@ -23,16 +23,37 @@
  */
 package com.cloudbees.jenkins.plugins.gitea.server.client.events;
 
+import java.util.ArrayList;
+import java.util.List;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadCommit;
 import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadRepo;
 import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+import org.codehaus.jackson.annotate.JsonProperty;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
-public class GiteaPushEvent {
+public class GiteaPushEvent implements GiteaWebhookEvent {
 
     private String ref;
 
+    private String before;
+
+    private String after;
+
     private PayloadRepo repository;
 
+    /**
+     * The pushed commits, Gitea may only send the most recent ones.
+     */
+    private List<PayloadCommit> commits = new ArrayList<PayloadCommit>();
+
+    /**
+     * Total number of pushed commits, null if not sent by Gitea.
+     */
+    @JsonProperty("total_commits")
+    private Integer totalCommits;
+
+    @Override
     public PayloadRepo getRepository() {
         return repository;
     }
@@ -41,6 +62,22 @@ public class GiteaPushEvent {
         return ref;
     }
 
+    public String getBefore() {
+        return before;
+    }
+
+    public String getAfter() {
+        return after;
+    }
+
+    public void setBefore(String before) {
+        this.before = before;
+    }
+
+    public void setAfter(String after) {
+        this.after = after;
+    }
+
     public void setRepository(PayloadRepo repository) {
         this.repository = repository;
     }
@@ -49,4 +86,47 @@ public class GiteaPushEvent {
         this.ref = ref;
     }
 
-}
\ No newline at end of file
+    public List<PayloadCommit> getCommits() {
+        return commits;
+    }
+
+    public void setCommits(List<PayloadCommit> commits) {
+        this.commits = commits;
+    }
+
+    public Integer getTotalCommits() {
+        return totalCommits;
+    }
+
+    public void setTotalCommits(Integer totalCommits) {
+        this.totalCommits = totalCommits;
+    }
+
+    /**
+     * @return whether {@link #getCommits()} lists all the pushed commits, as far as Gitea tells
+     */
+    public boolean isCommitListComplete() {
+        return totalCommits == null || totalCommits <= commits.size();
+    }
+
+    @Override
+    public String getChangeSubject() {
+        return ref;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The previous and new heads, empty for a creation or a deletion, so that a creation is the same change as the
+     * matching {@link GiteaCreateEvent}.
+     */
+    @Override
+    public String getChangeKey() {
+        return after == null ? null : (isNullSha(before) ? "" : before) + ":" + (isNullSha(after) ? "" : after);
+    }
+
+    private static boolean isNullSha(String sha) {
+        return sha == null || sha.matches("0+");
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.cloudbees.jenkins.plugins.gitea.server.client.events;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.repository.PayloadRepo;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+
+/**
+ * Fields shared by the hook payloads handled by the plugin.
+ */
+public interface GiteaWebhookEvent {
+
+    PayloadRepo getRepository();
+
+    /**
+     * Identifies what the payload changes within its repository: a ref, or a pull request.
+     *
+     * @return the subject of the change, or null if the payload does not identify a single change
+     */
+    @CheckForNull
+    String getChangeSubject();
+
+    /**
+     * Identifies the change carried by the payload for its {@link #getChangeSubject() subject}, independently of the
+     * delivery and of the event type when several events carry the same change.
+     *
+     * @return the change, or null if the payload does not identify a single change
+     */
+    @CheckForNull
+    String getChangeKey();
+
+}
@@ -0,0 +1,64 @@
+package com.cloudbees.jenkins.plugins.gitea.server.client.repository;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.codehaus.jackson.annotate.JsonIgnoreProperties;
+
+/**
+ * A commit of a "push" hook payload, only the fields used to decide whether it is worth a build.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class PayloadCommit {
+
+    private String id;
+    private String message;
+    private List<String> added = new ArrayList<String>();
+    private List<String> removed = new ArrayList<String>();
+    private List<String> modified = new ArrayList<String>();
+
+    public String getId() {
+        return id;
+    }
+
+    public PayloadCommit setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public PayloadCommit setMessage(String message) {
+        this.message = message;
+        return this;
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    public PayloadCommit setAdded(List<String> added) {
+        this.added = added;
+        return this;
+    }
+
+    public List<String> getRemoved() {
+        return removed;
+    }
+
+    public PayloadCommit setRemoved(List<String> removed) {
+        this.removed = removed;
+        return this;
+    }
+
+    public List<String> getModified() {
+        return modified;
+    }
+
+    public PayloadCommit setModified(List<String> modified) {
+        this.modified = modified;
+        return this;
+    }
+}
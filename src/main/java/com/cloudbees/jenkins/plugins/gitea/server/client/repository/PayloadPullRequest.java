@@ -1,12 +1,68 @@
 package com.cloudbees.jenkins.plugins.gitea.server.client.repository;
 
 /**
- * Created by kmadel on 6/16/17.
+ * The pull request of a "pull_request" hook payload, with its head and base flattened.
  */
 public class PayloadPullRequest {
 
     private long id;
     private long number;
+    private String state;
+    private String headRef;
+    private String headSha;
+    private String baseRef;
 
+    public long getId() {
+        return id;
+    }
 
+    public PayloadPullRequest setId(long id) {
+        this.id = id;
+        return this;
+    }
+
+    public long getNumber() {
+        return number;
+    }
+
+    public PayloadPullRequest setNumber(long number) {
+        this.number = number;
+        return this;
+    }
+
+    public String getState() {
+        return state;
+    }
+
+    public PayloadPullRequest setState(String state) {
+        this.state = state;
+        return this;
+    }
+
+    public String getHeadRef() {
+        return headRef;
+    }
+
+    public PayloadPullRequest setHeadRef(String headRef) {
+        this.headRef = headRef;
+        return this;
+    }
+
+    public String getHeadSha() {
+        return headSha;
+    }
+
+    public PayloadPullRequest setHeadSha(String headSha) {
+        this.headSha = headSha;
+        return this;
+    }
+
+    public String getBaseRef() {
+        return baseRef;
+    }
+
+    public PayloadPullRequest setBaseRef(String baseRef) {
+        this.baseRef = baseRef;
+        return this;
+    }
 }
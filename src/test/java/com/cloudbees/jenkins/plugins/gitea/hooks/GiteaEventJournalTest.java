@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GiteaEventJournalTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int SEGMENT_SIZE = 4096;
+
+    /**
+     * Length, state, CRC and timestamp of each record.
+     */
+    private static final int HEADER_SIZE = 17;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(tmp.getRoot(), "journal");
+    }
+
+    @Test
+    public void recoversUnprocessedRecords() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        GiteaEventJournal.Record first = journal.append("push", "1", bytes("{\"first\":1}"));
+        journal.append("push", "2", bytes("{\"second\":2}"));
+        GiteaEventJournal.Record third = journal.append("create", null, bytes("{\"third\":3}"));
+        journal.markProcessed(first);
+        assertThat(journal.getPending(), is(2));
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        assertThat(journal.getPending(), is(2));
+        List<GiteaEventJournal.Record> records = journal.recover();
+        assertThat(records.size(), is(2));
+        assertThat(records.get(0).getEvent(), is("push"));
+        assertThat(records.get(0).getDeliveryId(), is("2"));
+        assertThat(string(records.get(0).getBody()), is("{\"second\":2}"));
+        assertThat(records.get(1).getEvent(), is("create"));
+        assertThat(records.get(1).getDeliveryId(), nullValue());
+        assertThat(records.get(1).getTimestamp(), is(third.getTimestamp()));
+        // handed out once
+        assertThat(journal.recover().isEmpty(), is(true));
+    }
+
+    @Test
+    public void recoveredRecordsUntilProcessed() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        journal.append("push", "1", bytes("{}"));
+        journal.append("push", "2", bytes("{}"));
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        List<GiteaEventJournal.Record> records = journal.recover();
+        assertThat(records.size(), is(2));
+        journal.markProcessed(records.get(0));
+
+        // a restart before the replay completed replays the rest again
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        records = journal.recover();
+        assertThat(records.size(), is(1));
+        assertThat(records.get(0).getDeliveryId(), is("2"));
+        journal.markProcessed(records.get(0));
+        // processed twice is harmless
+        journal.markProcessed(records.get(0));
+        assertThat(journal.getPending(), is(0));
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        assertThat(journal.recover().isEmpty(), is(true));
+        // only the segment of the current run is left
+        assertThat(segments().length, is(1));
+    }
+
+    @Test
+    public void rotatesAndDeletesSegments() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        byte[] body = new byte[1000];
+        GiteaEventJournal.Record[] records = new GiteaEventJournal.Record[10];
+        for (int i = 0; i < records.length; i++) {
+            Arrays.fill(body, (byte) i);
+            records[i] = journal.append("push", String.valueOf(i), body);
+            assertThat(records[i], notNullValue());
+        }
+        assertThat(segments().length > 1, is(true));
+        for (int i = 0; i < records.length - 1; i++) {
+            journal.markProcessed(records[i]);
+        }
+        // the sealed segments are deleted once processed, the current one is kept
+        assertThat(segments().length, is(1));
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        List<GiteaEventJournal.Record> recovered = journal.recover();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).getDeliveryId(), is("9"));
+        assertThat(recovered.get(0).getBody()[999], is((byte) 9));
+    }
+
+    @Test
+    public void recoversAcrossSegmentsInOrder() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        for (int i = 0; i < 10; i++) {
+            journal.append("push", String.valueOf(i), new byte[1000]);
+        }
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        List<GiteaEventJournal.Record> recovered = journal.recover();
+        assertThat(recovered.size(), is(10));
+        for (int i = 0; i < 10; i++) {
+            assertThat(recovered.get(i).getDeliveryId(), is(String.valueOf(i)));
+        }
+        // appends of the new run go to a new segment after the recovered ones
+        journal.append("push", "10", new byte[0]);
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        recovered = journal.recover();
+        assertThat(recovered.size(), is(11));
+        assertThat(recovered.get(10).getDeliveryId(), is("10"));
+    }
+
+    @Test
+    public void tornRecord() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        journal.append("push", "1", bytes("{}"));
+        journal.append("push", "2", bytes("{}"));
+        // the length is written last, a crash before it leaves zeros
+        overwrite(segments()[0], HEADER_SIZE + length("push", "1", "{}"), new byte[4]);
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        List<GiteaEventJournal.Record> recovered = journal.recover();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).getDeliveryId(), is("1"));
+    }
+
+    @Test
+    public void corruptRecord() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        journal.append("push", "1", bytes("{}"));
+        journal.append("push", "2", bytes("{}"));
+        journal.append("push", "3", bytes("{}"));
+        // a changed last byte of the second record fails its CRC, the rest of the segment is ignored
+        int second = HEADER_SIZE + length("push", "1", "{}");
+        overwrite(segments()[0], second + HEADER_SIZE + length("push", "2", "{}") - 1, bytes("]"));
+
+        journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        List<GiteaEventJournal.Record> recovered = journal.recover();
+        assertThat(recovered.size(), is(1));
+        assertThat(recovered.get(0).getDeliveryId(), is("1"));
+    }
+
+    @Test
+    public void emptySegmentsAreDeleted() throws IOException {
+        new GiteaEventJournal(directory, SEGMENT_SIZE);
+        new GiteaEventJournal(directory, SEGMENT_SIZE);
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        assertThat(journal.recover().isEmpty(), is(true));
+        assertThat(segments().length, is(1));
+    }
+
+    @Test
+    public void tooLarge() throws IOException {
+        GiteaEventJournal journal = new GiteaEventJournal(directory, SEGMENT_SIZE);
+        assertThat(journal.append("push", "1", new byte[SEGMENT_SIZE]), nullValue());
+        assertThat(journal.getPending(), is(0));
+    }
+
+    /**
+     * @return the length of a record without its header
+     */
+    private static int length(String event, String deliveryId, String body) {
+        return 2 + bytes(event).length + 2 + bytes(deliveryId).length + 4 + bytes(body).length;
+    }
+
+    private File[] segments() {
+        File[] files = directory.listFiles();
+        Arrays.sort(files);
+        return files;
+    }
+
+    private static void overwrite(File file, int offset, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return new String(value, UTF_8);
+    }
+
+}
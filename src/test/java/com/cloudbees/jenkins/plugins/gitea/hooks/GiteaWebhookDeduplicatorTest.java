@@ -0,0 +1,137 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.hooks;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaCreateEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaPushEvent;
+import com.cloudbees.jenkins.plugins.gitea.server.client.events.GiteaWebhookEvent;
+
+public class GiteaWebhookDeduplicatorTest {
+
+    private static final String ZEROS = "0000000000000000000000000000000000000000";
+
+    private static final String A = "1111111111111111111111111111111111111111";
+
+    private static final String B = "2222222222222222222222222222222222222222";
+
+    private final GiteaWebhookDeduplicator deduplicator = new GiteaWebhookDeduplicator(60000, 100);
+
+    @Test
+    public void sameDeliveryTwice() {
+        assertThat(deduplicator.isDuplicateDelivery("1"), is(false));
+        assertThat(deduplicator.isDuplicateDelivery("1"), is(true));
+        assertThat(deduplicator.isDuplicateDelivery("2"), is(false));
+        assertThat(deduplicator.isDuplicateDelivery(null), is(false));
+        assertThat(deduplicator.isDuplicateDelivery(null), is(false));
+        assertThat(deduplicator.getDuplicateDeliveries(), is(1L));
+    }
+
+    @Test
+    public void organizationAndRepositoryHooks() {
+        // both hooks deliver each change
+        assertThat(isDuplicate(push("master", A, B)), is(false));
+        assertThat(isDuplicate(push("master", A, B)), is(true));
+        assertThat(isDuplicate(push("feature", A, B)), is(false));
+        assertThat(isDuplicate(push("feature", A, B)), is(true));
+        assertThat(deduplicator.getDuplicateContents(), is(2L));
+    }
+
+    @Test
+    public void createAndPushOfANewBranch() {
+        assertThat(isDuplicate(create("feature", A)), is(false));
+        assertThat(isDuplicate(push("feature", ZEROS, A)), is(true));
+        assertThat(isDuplicate(create("feature", A)), is(true));
+        assertThat(isDuplicate(push("feature", ZEROS, A)), is(true));
+    }
+
+    @Test
+    public void deletedAndPushedAgain() {
+        assertThat(isDuplicate(push("feature", ZEROS, A)), is(false));
+        assertThat(isDuplicate(push("feature", A, ZEROS)), is(false));
+        assertThat(isDuplicate(push("feature", ZEROS, A)), is(false));
+        assertThat(isDuplicate(push("feature", A, ZEROS)), is(false));
+        assertThat(isDuplicate(create("feature", A)), is(false));
+        assertThat(deduplicator.getDuplicateContents(), is(0L));
+    }
+
+    @Test
+    public void backAndForth() {
+        assertThat(isDuplicate(push("master", A, B)), is(false));
+        assertThat(isDuplicate(push("master", B, A)), is(false));
+        assertThat(isDuplicate(push("master", A, B)), is(false));
+        assertThat(isDuplicate(push("master", A, B)), is(true));
+    }
+
+    @Test
+    public void forgottenChangeIsAcceptedAgain() {
+        assertThat(isDuplicate(push("master", A, B)), is(false));
+        deduplicator.forget("1", "1:refs/heads/master", ":" + A);
+        assertThat(isDuplicate(push("master", A, B)), is(true));
+        deduplicator.forget("1", "1:refs/heads/master", A + ":" + B);
+        assertThat(isDuplicate(push("master", A, B)), is(false));
+    }
+
+    @Test
+    public void expiredChange() throws InterruptedException {
+        GiteaWebhookDeduplicator deduplicator = new GiteaWebhookDeduplicator(1, 100);
+        assertThat(deduplicator.isDuplicateContent("1:refs/heads/master", A + ":" + B), is(false));
+        Thread.sleep(10);
+        assertThat(deduplicator.isDuplicateContent("1:refs/heads/master", A + ":" + B), is(false));
+    }
+
+    @Test
+    public void unidentifiedChanges() {
+        assertThat(deduplicator.isDuplicateContent(null, A), is(false));
+        assertThat(deduplicator.isDuplicateContent(null, A), is(false));
+        assertThat(deduplicator.isDuplicateContent("1:refs/heads/master", null), is(false));
+        assertThat(deduplicator.isDuplicateContent("1:refs/heads/master", null), is(false));
+    }
+
+    private boolean isDuplicate(GiteaWebhookEvent event) {
+        // the repository id, as added by GiteaWebhookPayload.changeSubject
+        return deduplicator.isDuplicateContent("1:" + event.getChangeSubject(), event.getChangeKey());
+    }
+
+    private static GiteaPushEvent push(String branch, String before, String after) {
+        GiteaPushEvent push = new GiteaPushEvent();
+        push.setRef("refs/heads/" + branch);
+        push.setBefore(before);
+        push.setAfter(after);
+        return push;
+    }
+
+    private static GiteaCreateEvent create(String branch, String sha) {
+        GiteaCreateEvent create = new GiteaCreateEvent();
+        create.setRef(branch);
+        create.setRefType("branch");
+        create.setSha(sha);
+        return create;
+    }
+
+}
@@ -0,0 +1,237 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class GiteaDiskCacheTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The smallest store the cache accepts.
+     */
+    private static final long CAPACITY = 64 * 1024;
+
+    /**
+     * File header, then magic, key length, value length, CRC and sequence number of each entry.
+     */
+    private static final int FILE_HEADER = 8;
+
+    private static final int ENTRY_HEADER = 24;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() {
+        file = new File(tmp.getRoot(), "responses.dat");
+    }
+
+    @Test
+    public void putGetRemove() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(cache.get("a"), nullValue());
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.put("a", bytes("third"));
+        assertThat(string(cache.get("a")), is("third"));
+        assertThat(string(cache.get("b")), is("second"));
+        cache.remove("b");
+        cache.remove("never cached");
+        assertThat(cache.get("b"), nullValue());
+        cache.put("empty", new byte[0]);
+        assertThat(cache.get("empty"), is(new byte[0]));
+    }
+
+    @Test
+    public void reopen() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.put("a", bytes("third"));
+        cache.remove("b");
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("third"));
+        assertThat(cache.get("b"), nullValue());
+        cache.put("c", bytes("fourth"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("third"));
+        assertThat(string(cache.get("c")), is("fourth"));
+    }
+
+    @Test
+    public void tornEntry() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.put("c", bytes("third"));
+        // as if the crash happened before the magic of b was written
+        overwrite(offset("a", "first"), new byte[4]);
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("first"));
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("c"), nullValue());
+        // appending resumes after the last valid entry
+        cache.put("d", bytes("fourth"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("first"));
+        assertThat(string(cache.get("d")), is("fourth"));
+    }
+
+    @Test
+    public void corruptEntry() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        // a flipped byte in the value of b fails its CRC
+        overwrite(offset("a", "first") + ENTRY_HEADER + 1, bytes("S"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("first"));
+        assertThat(cache.get("b"), nullValue());
+    }
+
+    @Test
+    public void staleEntriesAreNotReadBack() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("a", bytes("first"));
+        cache.put("b", bytes("second"));
+        cache.put("c", bytes("third"));
+        overwrite(offset("a", "first") + ENTRY_HEADER + 1, bytes("S"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        // d takes the place of b exactly, the valid c left after it belongs to the previous run
+        cache.put("d", bytes("fourth"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("first"));
+        assertThat(string(cache.get("d")), is("fourth"));
+        assertThat(cache.get("c"), nullValue());
+    }
+
+    @Test
+    public void compaction() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        byte[] value = new byte[2048];
+        for (int i = 0; i < 100; i++) {
+            Arrays.fill(value, (byte) i);
+            cache.put("key" + i, value);
+            // keeps key0 the most recently used
+            assertThat(cache.get("key0")[0], is((byte) 0));
+        }
+        assertThat(cache.get("key0")[0], is((byte) 0));
+        assertThat(cache.get("key1"), nullValue());
+        assertThat(cache.get("key99")[0], is((byte) 99));
+        boolean[] present = new boolean[100];
+        for (int i = 0; i < 100; i++) {
+            present[i] = cache.get("key" + i) != null;
+        }
+        assertThat(new File(file.getPath() + ".compacting").exists(), is(false));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        for (int i = 0; i < 100; i++) {
+            byte[] reopened = cache.get("key" + i);
+            assertThat("key" + i, reopened != null, is(present[i]));
+            if (reopened != null) {
+                assertThat(reopened[reopened.length - 1], is((byte) i));
+            }
+        }
+        // and appending goes on after the compacted entries
+        cache.put("after", bytes("compaction"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("after")), is("compaction"));
+        assertThat(cache.get("key99")[0], is((byte) 99));
+    }
+
+    @Test
+    public void oversizedValue() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("large", new byte[(int) CAPACITY / 2]);
+        assertThat(cache.get("large"), nullValue());
+    }
+
+    @Test
+    public void interruptedCompaction() throws IOException {
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        cache.put("a", bytes("first"));
+        File compacting = new File(file.getPath() + ".compacting");
+        assertThat(compacting.createNewFile(), is(true));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(compacting.exists(), is(false));
+        assertThat(string(cache.get("a")), is("first"));
+    }
+
+    @Test
+    public void notACacheFile() throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.write(bytes("something else entirely"));
+        } finally {
+            raf.close();
+        }
+        GiteaDiskCache cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(cache.get("a"), nullValue());
+        cache.put("a", bytes("first"));
+        cache = new GiteaDiskCache(file, CAPACITY);
+        assertThat(string(cache.get("a")), is("first"));
+    }
+
+    /**
+     * @return the offset of the entry following the first one
+     */
+    private static int offset(String key, String value) {
+        return FILE_HEADER + ENTRY_HEADER + bytes(key).length + bytes(value).length;
+    }
+
+    private void overwrite(int offset, byte[] data) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.seek(offset);
+            raf.write(data);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static byte[] bytes(String value) {
+        return value.getBytes(UTF_8);
+    }
+
+    private static String string(byte[] value) {
+        return value == null ? null : new String(value, UTF_8);
+    }
+
+}
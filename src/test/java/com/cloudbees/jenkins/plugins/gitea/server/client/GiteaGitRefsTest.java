@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.jenkins.plugins.gitea.server.client;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class GiteaGitRefsTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final String MASTER = "1111111111111111111111111111111111111111";
+
+    private static final String FEATURE = "2222222222222222222222222222222222222222";
+
+    private static final String TAG = "3333333333333333333333333333333333333333";
+
+    private static final String ZEROS = "0000000000000000000000000000000000000000";
+
+    private static final String SERVICE = pkt("# service=git-upload-pack\n") + "0000";
+
+    @Test
+    public void lsRefsRequest() {
+        assertThat(new String(GiteaGitRefs.lsRefsRequest(), UTF_8),
+                is("0014command=ls-refs\n0001001bref-prefix refs/heads/\n0000"));
+    }
+
+    @Test
+    public void version2Advertisement() throws IOException {
+        String advertisement = SERVICE + pkt("version 2\n") + pkt("agent=git/2.30.0\n") + pkt("ls-refs\n")
+                + pkt("fetch=shallow\n") + "0000";
+        assertThat(GiteaGitRefs.isVersion2(bytes(advertisement)), is(true));
+        // without the service announcement, as sent by git http-backend to some clients
+        assertThat(GiteaGitRefs.isVersion2(bytes(pkt("version 2\n") + "0000")), is(true));
+    }
+
+    @Test
+    public void version0Advertisement() throws IOException {
+        String advertisement = SERVICE
+                + pkt(MASTER + " HEAD\0multi_ack side-band-64k symref=HEAD:refs/heads/master\n")
+                + pkt(FEATURE + " refs/heads/feature/a\n")
+                + pkt(MASTER + " refs/heads/master\n")
+                + pkt(MASTER + " refs/pull/1/head\n")
+                + pkt(TAG + " refs/tags/v1.0\n")
+                + pkt(MASTER + " refs/tags/v1.0^{}\n")
+                + "0000";
+        assertThat(GiteaGitRefs.isVersion2(bytes(advertisement)), is(false));
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("feature/a", FEATURE);
+        expected.put("master", MASTER);
+        assertThat(GiteaGitRefs.parseAdvertisement(bytes(advertisement)), is(expected));
+    }
+
+    @Test
+    public void version0FirstRefIsABranch() throws IOException {
+        String advertisement = SERVICE + pkt(MASTER + " refs/heads/master\0multi_ack\n") + "0000";
+        assertThat(GiteaGitRefs.parseAdvertisement(bytes(advertisement)),
+                is(Collections.singletonMap("master", MASTER)));
+    }
+
+    @Test
+    public void version0EmptyRepository() throws IOException {
+        String advertisement = SERVICE + pkt(ZEROS + " capabilities^{}\0multi_ack side-band-64k\n") + "0000";
+        assertThat(GiteaGitRefs.parseAdvertisement(bytes(advertisement)).isEmpty(), is(true));
+        assertThat(GiteaGitRefs.parseAdvertisement(bytes(SERVICE)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void lsRefsResponse() throws IOException {
+        String response = pkt(MASTER + " refs/heads/master symref-target:refs/heads/master\n")
+                + pkt(FEATURE + " refs/heads/feature/a\n")
+                // lines without a trailing line feed are valid too
+                + pkt(TAG + " refs/tags/v1.0 peeled:" + MASTER)
+                + "0000";
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("master", MASTER);
+        expected.put("feature/a", FEATURE);
+        assertThat(GiteaGitRefs.parseLsRefs(bytes(response)), is(expected));
+    }
+
+    @Test
+    public void lsRefsEmptyRepository() throws IOException {
+        assertThat(GiteaGitRefs.parseLsRefs(bytes("0000")).isEmpty(), is(true));
+        assertThat(GiteaGitRefs.parseLsRefs(new byte[0]).isEmpty(), is(true));
+    }
+
+    @Test
+    public void errorPacket() {
+        try {
+            GiteaGitRefs.parseLsRefs(bytes(pkt("ERR access denied\n")));
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("access denied"));
+        }
+        try {
+            GiteaGitRefs.isVersion2(bytes(pkt("ERR repository not found")));
+            fail();
+        } catch (IOException e) {
+            assertThat(e.getMessage(), containsString("repository not found"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedPacket() throws IOException {
+        String line = pkt(MASTER + " refs/heads/master\n");
+        GiteaGitRefs.parseLsRefs(bytes(line.substring(0, line.length() - 5)));
+    }
+
+    @Test(expected = IOException.class)
+    public void invalidLength() throws IOException {
+        GiteaGitRefs.parseAdvertisement(bytes("zz12" + MASTER + " refs/heads/master\n"));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingHash() throws IOException {
+        GiteaGitRefs.parseLsRefs(bytes(pkt("refs/heads/master\n")));
+    }
+
+    private static String pkt(String payload) {
+        return String.format(Locale.ENGLISH, "%04x", payload.getBytes(UTF_8).length + 4) + payload;
+    }
+
+    private static byte[] bytes(String data) {
+        return data.getBytes(UTF_8);
+    }
+
+}